@@ -0,0 +1,71 @@
+package io.apptik.comm.jus.perf;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.RequestQueue;
+import io.apptik.comm.jus.perf.mock.MockJusNetwork;
+import io.apptik.comm.jus.toolbox.NoCache;
+import io.apptik.comm.jus.toolbox.PriorityLaneQueue;
+
+/**
+ * Enqueue cost of {@link RequestQueue#add(Request)} one by one vs
+ * {@link RequestQueue#addAll(java.util.Collection)} for a batch of distinct requests. The queue
+ * is not started, so only the enqueue path is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class AddAllPerf {
+
+    static final int BATCH = 1000;
+
+    @Param({"PriorityBlockingQueue", "PriorityLaneQueue"})
+    String queueType;
+
+    RequestQueue requestQueue;
+    List<Request<?>> requests;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        requestQueue = new RequestQueue(new NoCache(), new MockJusNetwork(), 1);
+        if ("PriorityLaneQueue".equals(queueType)) {
+            requestQueue.withCacheQueue(new PriorityLaneQueue())
+                    .withNetworkQueue(new PriorityLaneQueue());
+        }
+        requests = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            requests.add(new Request<>(Request.Method.GET, "http://localhost/" + i, String.class));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public RequestQueue add() {
+        for (Request<?> request : requests) {
+            requestQueue.add(request);
+        }
+        return requestQueue;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public RequestQueue addAll() {
+        requestQueue.addAll(requests);
+        return requestQueue;
+    }
+}
@@ -0,0 +1,77 @@
+package io.apptik.comm.jus.perf;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.NetworkResponse;
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.RequestQueue;
+import io.apptik.comm.jus.perf.mock.MockJusNetwork;
+import io.apptik.comm.jus.request.StringRequest;
+import io.apptik.comm.jus.toolbox.NoCache;
+
+/**
+ * Cost of {@link RequestQueue#add(Request)} including the resolution of the response
+ * converter, for a {@link StringRequest} and for a request class whose response type is
+ * identified from its generic superclass. The queue is not started, so only the enqueue path is
+ * measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class AddPerf {
+
+    static final int BATCH = 1000;
+
+    public static class NetworkResponseRequest extends Request<NetworkResponse> {
+        public NetworkResponseRequest(String url) {
+            super(Method.GET, url);
+        }
+    }
+
+    @Param({"StringRequest", "NetworkResponseRequest"})
+    String requestType;
+
+    RequestQueue requestQueue;
+    List<Request<?>> requests;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        requestQueue = new RequestQueue(new NoCache(), new MockJusNetwork(), 1);
+        //warm up the converters like a long running queue
+        requestQueue.add(newRequest("http://localhost/"));
+        requests = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            requests.add(newRequest("http://localhost/" + i));
+        }
+    }
+
+    private Request<?> newRequest(String url) {
+        if ("StringRequest".equals(requestType)) {
+            return new StringRequest(Request.Method.GET, url);
+        }
+        return new NetworkResponseRequest(url);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public RequestQueue add() {
+        for (Request<?> request : requests) {
+            requestQueue.add(request);
+        }
+        return requestQueue;
+    }
+}
@@ -0,0 +1,105 @@
+package io.apptik.comm.jus.perf;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.Cache;
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.RequestListener;
+import io.apptik.comm.jus.RequestQueue;
+import io.apptik.comm.jus.perf.mock.MockJusCache;
+import io.apptik.comm.jus.perf.mock.MockJusNetwork;
+
+/**
+ * Cache hit throughput depending on the number of cache dispatchers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class CacheHitPerf {
+
+    static final int BACKLOG = 1000;
+
+    /**
+     * Number of cache dispatcher threads.
+     */
+    @Param({"1", "2", "4", "8"})
+    int cacheThreads;
+
+    /**
+     * Simulated latency of a cache read, i.e. a disk read, in microseconds.
+     */
+    @Param({"0", "50"})
+    int readLatencyMicros;
+
+    /**
+     * The size of the cached body, in bytes.
+     */
+    @Param({"128", "65536"})
+    int bodyByteCount;
+
+    RequestQueue requestQueue;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        MockJusCache cache = new MockJusCache(TimeUnit.MICROSECONDS.toNanos(readLatencyMicros));
+        Random random = new Random(0);
+        for (int i = 0; i < BACKLOG; i++) {
+            byte[] data = new byte[bodyByteCount];
+            random.nextBytes(data);
+            Cache.Entry entry = new Cache.Entry();
+            entry.data = data;
+            entry.ttl = Long.MAX_VALUE;
+            entry.softTtl = Long.MAX_VALUE;
+            cache.put(url(i), entry);
+        }
+        requestQueue = new RequestQueue(cache, new MockJusNetwork(), 1)
+                .withCacheThreadPoolSize(cacheThreads);
+        requestQueue.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        requestQueue.stop();
+    }
+
+    /**
+     * Sends {@link #BACKLOG} requests which are all cache hits and waits for their responses.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BACKLOG)
+    public CountDownLatch hits() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(BACKLOG);
+        RequestListener.ResponseListener<String> listener =
+                new RequestListener.ResponseListener<String>() {
+                    @Override
+                    public void onResponse(String response) {
+                        latch.countDown();
+                    }
+                };
+        for (int i = 0; i < BACKLOG; i++) {
+            requestQueue.add(new Request<>(Request.Method.GET, url(i), String.class)
+                    .addResponseListener(listener));
+        }
+        latch.await();
+        return latch;
+    }
+
+    private static String url(int i) {
+        return "http://127.0.0.1/" + i;
+    }
+}
@@ -0,0 +1,59 @@
+package io.apptik.comm.jus.perf;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.RequestQueue;
+import io.apptik.comm.jus.perf.mock.MockJusNetwork;
+import io.apptik.comm.jus.toolbox.NoCache;
+import io.apptik.comm.jus.toolbox.PriorityLaneQueue;
+
+/**
+ * Latency of {@link RequestQueue#cancelAll(Object)} with {@link #QUEUED} queued requests, of
+ * which a tenth have the canceled tag, e.g. the requests of a closed screen. The queue is not
+ * started, so the canceled requests stay queued unless the queue removes them.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class CancelPerf {
+
+    static final int QUEUED = 100000;
+
+    @Param({"PriorityBlockingQueue", "PriorityLaneQueue"})
+    String queueType;
+
+    RequestQueue requestQueue;
+    Object tag = new Object();
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        requestQueue = new RequestQueue(new NoCache(), new MockJusNetwork(), 1);
+        if ("PriorityLaneQueue".equals(queueType)) {
+            requestQueue.withCacheQueue(new PriorityLaneQueue())
+                    .withNetworkQueue(new PriorityLaneQueue());
+        }
+        Object otherTag = new Object();
+        for (int i = 0; i < QUEUED; i++) {
+            requestQueue.add(new Request<>(Request.Method.GET, "http://localhost/" + i,
+                    String.class).setTag(i % 10 == 0 ? tag : otherTag));
+        }
+    }
+
+    @Benchmark
+    public RequestQueue cancelAll() {
+        requestQueue.cancelAll(tag);
+        return requestQueue;
+    }
+}
@@ -0,0 +1,120 @@
+package io.apptik.comm.jus.perf;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.BatchingExecutorDelivery;
+import io.apptik.comm.jus.ExecutorDelivery;
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.RequestListener;
+import io.apptik.comm.jus.Response;
+
+/**
+ * Delivery throughput of {@link ExecutorDelivery}, one executor task per response, vs
+ * {@link BatchingExecutorDelivery} onto a single threaded executor, like the event loop of
+ * a UI.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class DeliveryPerf {
+
+    static final int BACKLOG = 1000;
+
+    @Param({"ExecutorDelivery", "BatchingExecutorDelivery"})
+    String deliveryType;
+
+    /**
+     * Simulated cost of each task of the event loop, e.g. posting and dispatching a message,
+     * in nanoseconds.
+     */
+    @Param({"0", "2000"})
+    long taskOverheadNanos;
+
+    ExecutorService eventLoop;
+    ExecutorDelivery delivery;
+    Request<String>[] requests;
+    Response<String> response = Response.success("response", null);
+    CountDownLatch latch;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        eventLoop = Executors.newSingleThreadExecutor();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                eventLoop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long start = System.nanoTime();
+                        while (System.nanoTime() - start < taskOverheadNanos) {
+                            //busy
+                        }
+                        command.run();
+                    }
+                });
+            }
+        };
+        if ("BatchingExecutorDelivery".equals(deliveryType)) {
+            delivery = new BatchingExecutorDelivery(executor);
+        } else {
+            delivery = new ExecutorDelivery(executor);
+        }
+    }
+
+    /**
+     * Finished requests drop their listeners, so new ones are needed for each invocation.
+     */
+    @SuppressWarnings("unchecked")
+    @Setup(Level.Invocation)
+    public void setupRequests() {
+        final CountDownLatch latch = new CountDownLatch(BACKLOG);
+        RequestListener.ResponseListener<String> listener =
+                new RequestListener.ResponseListener<String>() {
+                    @Override
+                    public void onResponse(String response) {
+                        latch.countDown();
+                    }
+                };
+        this.latch = latch;
+        requests = new Request[BACKLOG];
+        for (int i = 0; i < BACKLOG; i++) {
+            requests[i] = new Request<>(Request.Method.GET, "http://localhost/" + i, String.class)
+                    .addResponseListener(listener);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        eventLoop.shutdownNow();
+    }
+
+    /**
+     * Posts {@link #BACKLOG} responses and waits until they are delivered.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BACKLOG)
+    public CountDownLatch deliver() throws Exception {
+        for (Request<String> request : requests) {
+            delivery.postResponse(request, response);
+        }
+        latch.await();
+        return latch;
+    }
+}
@@ -0,0 +1,96 @@
+package io.apptik.comm.jus.perf;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.ExecutorDelivery;
+import io.apptik.comm.jus.Marker;
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.RequestListener;
+import io.apptik.comm.jus.Response;
+import io.apptik.comm.jus.error.JusError;
+
+/**
+ * Cost of the markers and listener notifications of one request lifecycle, from creation to
+ * delivery, without the queue and network. Run with {@code -prof gc} to see the allocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RequestLifecyclePerf {
+
+    static final String[] MARKERS = {
+            Request.EVENT_PRE_ADD_TO_QUEUE,
+            Request.EVENT_ADD_TO_QUEUE,
+            Request.EVENT_CACHE_QUEUE_TAKE,
+            Request.EVENT_CACHE_MISS,
+            Request.EVENT_NETWORK_QUEUE_TAKE,
+            Request.EVENT_NETWORK_STACK_SEND,
+            Request.EVENT_NETWORK_STACK_COMPLETE,
+            Request.EVENT_NETWORK_TRANSFORM_COMPLETE,
+            Request.EVENT_NETWORK_HTTP_COMPLETE,
+            Request.EVENT_NETWORK_PARSE_COMPLETE,
+            Request.EVENT_NETWORK_CACHE_WRITTEN,
+    };
+
+    /**
+     * Number of marker, response and error listeners each.
+     */
+    @Param({"0", "1"})
+    int listeners;
+
+    ExecutorDelivery delivery;
+    Response<String> response = Response.success("response", null);
+    RequestListener.MarkerListener markerListener = new RequestListener.MarkerListener() {
+        @Override
+        public void onMarker(Marker marker, Object... args) {
+        }
+    };
+    RequestListener.ResponseListener<String> responseListener =
+            new RequestListener.ResponseListener<String>() {
+                @Override
+                public void onResponse(String response) {
+                }
+            };
+    RequestListener.ErrorListener errorListener = new RequestListener.ErrorListener() {
+        @Override
+        public void onError(JusError error) {
+        }
+    };
+
+    @Setup
+    public void setup() {
+        delivery = new ExecutorDelivery(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @Benchmark
+    public Request<String> lifecycle() {
+        Request<String> request =
+                new Request<>(Request.Method.GET, "http://localhost/", String.class);
+        for (int i = 0; i < listeners; i++) {
+            request.addMarkerListener(markerListener)
+                    .addResponseListener(responseListener)
+                    .addErrorListener(errorListener);
+        }
+        for (String marker : MARKERS) {
+            request.addMarker(marker);
+        }
+        delivery.postResponse(request, response);
+        return request;
+    }
+}
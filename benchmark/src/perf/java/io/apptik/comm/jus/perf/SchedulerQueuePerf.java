@@ -0,0 +1,91 @@
+package io.apptik.comm.jus.perf;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.toolbox.PriorityLaneQueue;
+
+/**
+ * Contended add/take throughput of the request scheduling queues with 16 producers and 4
+ * dispatchers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Group)
+public class SchedulerQueuePerf {
+
+    @Param({"PriorityBlockingQueue", "PriorityLaneQueue"})
+    String queueType;
+
+    BlockingQueue<Request<?>> queue;
+    Request<?>[] requests;
+    final AtomicInteger next = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if ("PriorityLaneQueue".equals(queueType)) {
+            queue = new PriorityLaneQueue();
+        } else {
+            queue = new PriorityBlockingQueue<>();
+        }
+        Request.Priority[] priorities = Request.Priority.values();
+        requests = new Request<?>[1024];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new SeqRequest(i, priorities[i % priorities.length]);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        queue.clear();
+    }
+
+    @Benchmark
+    @Group("addTake")
+    @GroupThreads(16)
+    public boolean add() {
+        //keep the queue bounded so the producers do not run away from the dispatchers
+        if (queue.size() > 4096) {
+            return false;
+        }
+        return queue.offer(requests[next.getAndIncrement() & (requests.length - 1)]);
+    }
+
+    @Benchmark
+    @Group("addTake")
+    @GroupThreads(4)
+    public Request<?> take() {
+        return queue.poll();
+    }
+
+    static class SeqRequest extends Request<String> {
+        private final Priority priority;
+
+        SeqRequest(int sequence, Priority priority) {
+            super(Method.GET, "http://localhost/" + sequence);
+            this.priority = priority;
+            setSequence(sequence);
+        }
+
+        @Override
+        public Priority getPriority() {
+            return priority;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package io.apptik.comm.jus.perf;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.RequestListener;
+import io.apptik.comm.jus.RequestQueue;
+import io.apptik.comm.jus.ShardedRequestQueue;
+import io.apptik.comm.jus.perf.mock.MockJusNetwork;
+import io.apptik.comm.jus.request.StringRequest;
+import io.apptik.comm.jus.toolbox.NoCache;
+
+/**
+ * Throughput of requests added concurrently by several threads and processed to delivery,
+ * by a single {@link RequestQueue} vs a {@link ShardedRequestQueue} with the same total
+ * number of network dispatchers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Threads(4)
+public class ShardedQueuePerf {
+
+    static final int BATCH = 100;
+    static final int DISPATCHERS = 4;
+
+    /**
+     * Number of shards, 0 for a plain {@link RequestQueue}.
+     */
+    @Param({"0", "2", "4"})
+    int shards;
+
+    RequestQueue requestQueue;
+    ShardedRequestQueue shardedQueue;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        MockJusNetwork network = new MockJusNetwork();
+        network.setDataToReturn(new byte[64]);
+        if (shards == 0) {
+            requestQueue = new RequestQueue(new NoCache(), network, DISPATCHERS);
+            requestQueue.start();
+        } else {
+            shardedQueue = new ShardedRequestQueue(new NoCache(), network, shards,
+                    DISPATCHERS / shards);
+            shardedQueue.start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (shardedQueue != null) {
+            shardedQueue.stop();
+        } else {
+            requestQueue.stop();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public CountDownLatch addAndDeliver() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(BATCH);
+        RequestListener.ResponseListener<String> listener =
+                new RequestListener.ResponseListener<String>() {
+                    @Override
+                    public void onResponse(String response) {
+                        latch.countDown();
+                    }
+                };
+        String prefix = "http://localhost/" + Thread.currentThread().getId() + "/";
+        for (int i = 0; i < BATCH; i++) {
+            Request<String> request = new StringRequest(Request.Method.GET, prefix + i)
+                    .addResponseListener(listener);
+            if (shardedQueue != null) {
+                shardedQueue.add(request);
+            } else {
+                requestQueue.add(request);
+            }
+        }
+        latch.await();
+        return latch;
+    }
+}
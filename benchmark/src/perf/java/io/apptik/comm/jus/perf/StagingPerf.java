@@ -0,0 +1,93 @@
+package io.apptik.comm.jus.perf;
+
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.Cache;
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.RequestListener;
+import io.apptik.comm.jus.RequestQueue;
+import io.apptik.comm.jus.perf.mock.MockJusCache;
+import io.apptik.comm.jus.perf.mock.MockJusNetwork;
+
+/**
+ * {@link RequestQueue#add(Request)} throughput with many producer threads adding cacheable
+ * requests with few distinct cache keys, i.e. most of them are staged as duplicates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class StagingPerf {
+
+    static final int BATCH = 100;
+
+    /**
+     * Number of distinct cache keys, the fewer the higher the duplicate ratio.
+     */
+    @Param({"1", "16", "1024"})
+    int keyCount;
+
+    RequestQueue requestQueue;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        MockJusCache cache = new MockJusCache(0);
+        for (int i = 0; i < keyCount; i++) {
+            Cache.Entry entry = new Cache.Entry();
+            entry.data = new byte[0];
+            entry.ttl = Long.MAX_VALUE;
+            entry.softTtl = Long.MAX_VALUE;
+            cache.put(url(i), entry);
+        }
+        requestQueue = new RequestQueue(cache, new MockJusNetwork(), 1)
+                .withCacheThreadPoolSize(4);
+        requestQueue.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        requestQueue.stop();
+    }
+
+    /**
+     * Adds {@link #BATCH} requests and waits for their responses, so the staged requests do
+     * not pile up.
+     */
+    @Benchmark
+    @Threads(16)
+    @OperationsPerInvocation(BATCH)
+    public CountDownLatch add() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(BATCH);
+        RequestListener.ResponseListener<String> listener =
+                new RequestListener.ResponseListener<String>() {
+                    @Override
+                    public void onResponse(String response) {
+                        latch.countDown();
+                    }
+                };
+        for (int i = 0; i < BATCH; i++) {
+            requestQueue.add(new Request<>(Request.Method.GET, url(i % keyCount), String.class)
+                    .addResponseListener(listener));
+        }
+        latch.await();
+        return latch;
+    }
+
+    private static String url(int i) {
+        return "http://127.0.0.1/" + i;
+    }
+}
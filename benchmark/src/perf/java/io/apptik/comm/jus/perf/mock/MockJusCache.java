@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus.perf.mock;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+import io.apptik.comm.jus.Cache;
+
+/**
+ * In memory cache which can simulate the latency of reading an entry from disk.
+ */
+public class MockJusCache implements Cache {
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long readLatencyNs;
+
+    public MockJusCache(long readLatencyNs) {
+        this.readLatencyNs = readLatencyNs;
+    }
+
+    @Override
+    public Entry get(String key) {
+        if (readLatencyNs > 0) {
+            LockSupport.parkNanos(readLatencyNs);
+        }
+        return entries.get(key);
+    }
+
+    @Override
+    public void put(String key, Entry entry) {
+        entries.put(key, entry);
+    }
+
+    @Override
+    public void initialize() {
+    }
+
+    @Override
+    public void invalidate(String key, boolean fullExpire) {
+    }
+
+    @Override
+    public void remove(String key) {
+        entries.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus.future;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.RequestListener;
+import io.apptik.comm.jus.Response;
+import io.apptik.comm.jus.error.JusError;
+
+/**
+ * Composable futures of requests, an alternative to the blocking
+ * {@link io.apptik.comm.jus.RequestFuture}.
+ * <p>
+ * The futures are completed by the listeners of the request on the delivery thread of the
+ * {@link io.apptik.comm.jus.RequestQueue}, so no thread waits for a request. Dependent stages
+ * which are not async run on the delivery thread as well.
+ * </p>
+ */
+public final class JusFutures {
+
+    private JusFutures() {
+    }
+
+    /**
+     * Returns a {@link CompletableFuture} completed with the final response of the request, or
+     * exceptionally with its {@link JusError}. Must be called before the request is added to a
+     * queue.
+     * <p>
+     * Cancelling the future cancels the request. When the request is canceled otherwise, the
+     * future is cancelled once the request is done.
+     * </p>
+     */
+    public static <T> CompletableFuture<T> toCompletableFuture(Request<T> request) {
+        RequestCompletableFuture<T> future = new RequestCompletableFuture<>(request);
+        request.addResponseListener(future)
+                .addErrorListener(future)
+                .addDoneListener(future);
+        return future;
+    }
+
+    /**
+     * @see #toCompletableFuture(Request)
+     */
+    public static <T> CompletionStage<T> toCompletionStage(Request<T> request) {
+        return toCompletableFuture(request);
+    }
+
+    private static final class RequestCompletableFuture<T> extends CompletableFuture<T>
+            implements RequestListener.ResponseListener<T>, RequestListener.ErrorListener,
+            RequestListener.DoneListener {
+        private final Request<T> request;
+
+        RequestCompletableFuture(Request<T> request) {
+            this.request = request;
+        }
+
+        @Override
+        public void onResponse(T response) {
+            Response<T> rawResponse = request.getRawResponse();
+            if (rawResponse == null || !rawResponse.intermediate) {
+                complete(response);
+            }
+        }
+
+        @Override
+        public void onError(JusError error) {
+            completeExceptionally(error);
+        }
+
+        @Override
+        public void onDone(Request<?> request) {
+            //canceled requests are done without a response or error
+            if (request.isCanceled()) {
+                super.cancel(false);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (isDone()) {
+                return false;
+            }
+            request.cancel();
+            return super.cancel(mayInterruptIfRunning);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus.future;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.Cache;
+import io.apptik.comm.jus.ExecutorDelivery;
+import io.apptik.comm.jus.NetworkResponse;
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.RequestQueue;
+import io.apptik.comm.jus.error.ServerError;
+import io.apptik.comm.jus.http.Headers;
+import io.apptik.comm.jus.toolbox.HttpNetwork;
+import io.apptik.comm.jus.toolbox.NoCache;
+import io.apptik.comm.jus.toolbox.PriorityLaneQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JusFuturesTest {
+
+    /**
+     * Responds with the status code in the path of the url, e.g. http://foo.com/500
+     */
+    private static RequestQueue newQueue() {
+        return new RequestQueue(new NoCache(), new HttpNetwork(
+                (request, additionalHeaders, byteArrayPool) -> {
+                    String path = request.getUrl().encodedPath();
+                    return new NetworkResponse(Integer.parseInt(path.substring(1)),
+                            path.getBytes(), new Headers.Builder().build(), 0);
+                }), 2, new ExecutorDelivery(Runnable::run));
+    }
+
+    private static Request<String> request(int statusCode) {
+        return new Request<>(Request.Method.GET, "http://foo.com/" + statusCode, String.class);
+    }
+
+    @Test
+    public void composeResponses() throws Exception {
+        RequestQueue queue = newQueue();
+        queue.start();
+        try {
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                Request<String> request = request(200);
+                futures.add(JusFutures.toCompletableFuture(request));
+                queue.add(request);
+            }
+            CompletableFuture<Integer> total = CompletableFuture
+                    .allOf(futures.toArray(new CompletableFuture[futures.size()]))
+                    .thenApply(v -> futures.stream().mapToInt(f -> f.join().length()).sum());
+            assertEquals(400, (int) total.get(5, TimeUnit.SECONDS));
+        } finally {
+            queue.stop();
+        }
+    }
+
+    @Test
+    public void completeWithFinalResponse() throws Exception {
+        //soft expired cache hits are delivered as intermediate responses before the refresh
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = "cached".getBytes();
+        entry.ttl = System.currentTimeMillis() + 60000;
+        entry.softTtl = 0;
+        RequestQueue queue = new RequestQueue(new Cache() {
+            @Override
+            public Entry get(String key) {
+                return entry;
+            }
+
+            @Override
+            public void put(String key, Entry entry) {
+            }
+
+            @Override
+            public void initialize() {
+            }
+
+            @Override
+            public void invalidate(String key, boolean fullExpire) {
+            }
+
+            @Override
+            public void remove(String key) {
+            }
+
+            @Override
+            public void clear() {
+            }
+        }, new HttpNetwork((request, additionalHeaders, byteArrayPool) ->
+                new NetworkResponse(200, "fresh".getBytes(), new Headers.Builder().build(), 0)),
+                1, new ExecutorDelivery(Runnable::run));
+        queue.start();
+        try {
+            Request<String> request = request(200);
+            List<String> responses = new ArrayList<>();
+            request.addResponseListener(responses::add);
+            CompletableFuture<String> future = JusFutures.toCompletableFuture(request);
+            queue.add(request);
+            assertEquals("fresh", future.get(5, TimeUnit.SECONDS));
+            assertEquals(2, responses.size());
+        } finally {
+            queue.stop();
+        }
+    }
+
+    @Test
+    public void completeExceptionallyOnError() throws Exception {
+        RequestQueue queue = newQueue();
+        queue.start();
+        try {
+            Request<String> request = request(500);
+            CompletableFuture<String> future = JusFutures.toCompletableFuture(request);
+            queue.add(request);
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ServerError);
+            }
+        } finally {
+            queue.stop();
+        }
+    }
+
+    @Test
+    public void cancelFutureCancelsRequest() throws Exception {
+        Request<String> request = request(200);
+        CompletableFuture<String> future = JusFutures.toCompletableFuture(request);
+        assertTrue(future.cancel(false));
+        assertTrue(request.isCanceled());
+    }
+
+    @Test
+    public void cancelRequestCancelsFuture() throws Exception {
+        RequestQueue queue = newQueue().withNetworkQueue(new PriorityLaneQueue());
+        Request<String> request = request(200).setTag(this).setShouldCache(false);
+        CompletableFuture<String> future = JusFutures.toCompletableFuture(request);
+        queue.add(request);
+        queue.cancelAll(this);
+        assertTrue(future.isCancelled());
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the number of requests a {@link RequestQueue} holds, queued or in flight.
+ * <p>
+ * Each request takes a slot when it is added and gives it back when it is finished. When no
+ * slot is free the {@link OverflowPolicy} decides whether to wait for one, make one or reject
+ * the request.
+ * </p>
+ * Use it via {@link RequestQueue#withMaxRequests(int, OverflowPolicy)}.
+ */
+public class AdmissionControl {
+
+    private final RequestQueue requestQueue;
+    private final int maxRequests;
+    private final OverflowPolicy overflowPolicy;
+    private final Semaphore slots;
+
+    AdmissionControl(RequestQueue requestQueue, int maxRequests, OverflowPolicy overflowPolicy) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("maxRequests < 1");
+        }
+        this.requestQueue = requestQueue;
+        this.maxRequests = maxRequests;
+        this.overflowPolicy = overflowPolicy;
+        this.slots = new Semaphore(maxRequests);
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return the number of requests which can be added without overflow
+     */
+    public int getAvailableSlots() {
+        return slots.availablePermits();
+    }
+
+    /**
+     * Takes a free slot if there is one.
+     */
+    public boolean tryAcquire() {
+        return slots.tryAcquire();
+    }
+
+    /**
+     * Waits up to the given time for a free slot.
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        return slots.tryAcquire(timeout, unit);
+    }
+
+    /**
+     * Drops the queued request with the lowest priority, if it is lower than the priority of
+     * the given request, and hands its slot over. The dropped request gets a
+     * {@link io.apptik.comm.jus.error.RejectedError}.
+     *
+     * @return true if a slot was made for the request
+     */
+    public boolean dropLowerPriority(Request<?> request) {
+        return requestQueue.dropLowerPriority(request);
+    }
+
+    /**
+     * @return true if the request got a slot
+     */
+    boolean admit(Request<?> request) {
+        return slots.tryAcquire() || overflowPolicy.onOverflow(this, request);
+    }
+
+    void release() {
+        slots.release();
+    }
+}
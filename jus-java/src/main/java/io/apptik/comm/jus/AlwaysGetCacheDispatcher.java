@@ -64,18 +64,18 @@ public class AlwaysGetCacheDispatcher extends CacheDispatcher {
                 // Get a request from the cache triage queue, blocking until
                 // at least one is available.
                 final Request<?> request = mCacheQueue.take();
-                request.addMarker(Request.EVENT_CACHE_QUEUE_TAKE);
+                request.addMarker(Request.EVENT_ID_CACHE_QUEUE_TAKE);
 
                 // If the request has been canceled, don't bother dispatching it.
                 if (request.isCanceled()) {
-                    request.finish(Request.EVENT_CACHE_DISCARD_CANCELED);
+                    request.finish(Request.EVENT_ID_CACHE_DISCARD_CANCELED);
                     continue;
                 }
 
                 // Attempt to retrieve this item from cache.
                 Cache.Entry entry = mCache.get(request.getCacheKey());
                 if (entry == null) {
-                    request.addMarker(Request.EVENT_CACHE_MISS);
+                    request.addMarker(Request.EVENT_ID_CACHE_MISS);
                     // Cache miss; send off to the network dispatcher.
                     mNetworkQueue.put(request);
                     continue;
@@ -85,7 +85,7 @@ public class AlwaysGetCacheDispatcher extends CacheDispatcher {
                 if (entry.isExpired()) {
                     request.setCacheEntry(entry);
                     if (filter != null && filter.apply(request)) {
-                        request.addMarker(Request.EVENT_CACHE_HIT_EXPIRED_BUT_WILL_DELIVER_IT);
+                        request.addMarker(Request.EVENT_ID_CACHE_HIT_EXPIRED_BUT_WILL_DELIVER_IT);
                         Response<?> response = request.parseNetworkResponse(
                                 new NetworkResponse(200, entry.data, entry.responseHeaders, 0));
                         // Mark the response as intermediate.
@@ -105,44 +105,16 @@ public class AlwaysGetCacheDispatcher extends CacheDispatcher {
                             }
                         });
                     } else {
-                        request.addMarker(Request.EVENT_CACHE_HIT_EXPIRED);
+                        request.addMarker(Request.EVENT_ID_CACHE_HIT_EXPIRED);
                         mNetworkQueue.put(request);
                     }
                     continue;
                 }
 
                 // We have a cache hit; parse its data for delivery back to the request.
-                request.addMarker(Request.EVENT_CACHE_HIT);
-                Response<?> response = request.parseNetworkResponse(
+                request.addMarker(Request.EVENT_ID_CACHE_HIT);
+                handleCacheHit(request, entry,
                         new NetworkResponse(200, entry.data, entry.responseHeaders, 0));
-                request.addMarker(Request.EVENT_CACHE_HIT_PARSED);
-
-                if (!entry.refreshNeeded()) {
-                    // Completely unexpired cache hit. Just deliver the response.
-                    mDelivery.postResponse(request, response);
-                } else {
-                    // Soft-expired cache hit. We can deliver the cached response,
-                    // but we need to also send the request to the network for
-                    // refreshing.
-                    request.addMarker(Request.EVENT_CACHE_HIT_REFRESH_NEEDED);
-                    request.setCacheEntry(entry);
-
-                    // Mark the response as intermediate.
-                    response.intermediate = true;
-
-                    // Post the intermediate response back to the user and have
-                    // the delivery then forward the request along to the network.
-                    mDelivery.postResponse(request, response, new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                mNetworkQueue.put(request);
-                            } catch (InterruptedException e) {
-                                // Not much we can do about this.
-                            }
-                        }
-                    });
-                }
 
             } catch (InterruptedException e) {
                 // We may have been interrupted because it was time to quit.
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import io.apptik.comm.jus.error.JusError;
+
+/**
+ * An interface for performing requests without blocking the calling thread.
+ *
+ * @see AsyncNetworkDispatcher
+ */
+public interface AsyncNetwork {
+    /**
+     * Starts the specified request.
+     * Exactly one of the {@link Callback} methods will be called once the request completes.
+     *
+     * @param request  Request to process
+     * @param callback Callback to be notified with the result
+     */
+    void performRequest(Request<?> request, Callback callback);
+
+    interface Callback {
+        /**
+         * @param response A {@link NetworkResponse} with data and caching metadata; null only if
+         *                 the request was canceled
+         */
+        void onResponse(NetworkResponse response);
+
+        /**
+         * @param error the error which terminated the request
+         */
+        void onError(JusError error);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import io.apptik.comm.jus.error.JusError;
+
+/**
+ * A {@link NetworkDispatcher} which does not wait for the requests it takes from the queue
+ * to complete.
+ * <p>
+ * Requests are started via an {@link AsyncNetwork} and the dispatcher thread goes on taking
+ * the next request. Responses are parsed, cached and delivered from the thread completing the
+ * request. The number of requests in flight is bounded by a {@link Semaphore} shared between
+ * all dispatchers created by the same {@link AsyncNetworkDispatcherFactory}.
+ * </p>
+ * Set it up via {@link RequestQueue#withNetworkDispatcherFactory(NetworkDispatcherFactory)}:
+ * <pre>
+ * queue.withNetworkDispatcherFactory(
+ *         new AsyncNetworkDispatcher.AsyncNetworkDispatcherFactory(queue,
+ *                 new AsyncHttpNetwork(asyncStack), 10000));
+ * </pre>
+ */
+public class AsyncNetworkDispatcher extends NetworkDispatcher {
+
+    public static final int DEFAULT_MAX_REQUESTS = 1024;
+
+    /**
+     * The async network interface for processing requests.
+     */
+    protected final AsyncNetwork mAsyncNetwork;
+    /**
+     * Permits for requests in flight.
+     */
+    protected final Semaphore mPermits;
+
+    /**
+     * Creates a new async network dispatcher threadId.  You must call {@link #start()}
+     * in order to begin processing.
+     *
+     * @param queue    Queue of incoming requests for triage
+     * @param network  AsyncNetwork interface to use for performing requests
+     * @param cache    Cache interface to use for writing responses to cache
+     * @param delivery Delivery interface to use for posting responses
+     * @param permits  Permits limiting the number of requests in flight
+     */
+    public AsyncNetworkDispatcher(BlockingQueue<Request<?>> queue,
+                                  AsyncNetwork network, Cache cache,
+                                  ResponseDelivery delivery, Semaphore permits) {
+        super(queue, null, cache, delivery);
+        mAsyncNetwork = network;
+        mPermits = permits;
+    }
+
+    @Override
+    public void run() {
+        setThreadPriority();
+        while (true) {
+            final Request<?> request;
+            try {
+                // Wait for a free slot before taking the request so that it can still be
+                // prioritised in the queue.
+                mPermits.acquire();
+            } catch (InterruptedException e) {
+                if (mQuit) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                // Take a request from the queue.
+                request = mQueue.take();
+            } catch (InterruptedException e) {
+                mPermits.release();
+                // We may have been interrupted because it was time to quit.
+                if (mQuit) {
+                    return;
+                }
+                continue;
+            }
+
+            // Neither the wait for a permit nor for a request counts as network time.
+            final long startTimeNs = System.nanoTime();
+            request.addMarker(Request.EVENT_ID_NETWORK_QUEUE_TAKE);
+
+            // If the request was cancelled already, do not perform the
+            // network request.
+            if (request.isCanceled()) {
+                request.finish(Request.EVENT_ID_NETWORK_DISCARD_CANCELED);
+                mPermits.release();
+                continue;
+            }
+
+            if (dropIfExpired(request)) {
+                mPermits.release();
+                continue;
+            }
+
+            addTrafficStatsTag(request);
+
+            try {
+                // Start the network request.
+                mAsyncNetwork.performRequest(request, new AsyncNetwork.Callback() {
+                    @Override
+                    public void onResponse(NetworkResponse response) {
+                        try {
+                            handleNetworkResponse(request, response, startTimeNs);
+                        } finally {
+                            mPermits.release();
+                        }
+                    }
+
+                    @Override
+                    public void onError(JusError error) {
+                        try {
+                            handleNetworkError(request, error, startTimeNs);
+                        } finally {
+                            mPermits.release();
+                        }
+                    }
+                });
+            } catch (Exception e) {
+                handleUnexpectedError(request, e, startTimeNs);
+                mPermits.release();
+            }
+        }
+    }
+
+    public static class AsyncNetworkDispatcherFactory extends NetworkDispatcherFactory {
+
+        /**
+         * The async network interface for processing requests.
+         */
+        protected final AsyncNetwork mAsyncNetwork;
+        /**
+         * Permits shared between all created dispatchers.
+         */
+        protected final Semaphore mPermits;
+
+        /**
+         * Creates a new async network dispatcher factory.  You must call {@link #create()}
+         * in order to create {@link AsyncNetworkDispatcher}.
+         *
+         * @param queue       Queue of incoming requests for triage
+         * @param network     AsyncNetwork interface to use for performing requests
+         * @param cache       Cache interface to use for writing responses to cache
+         * @param delivery    Delivery interface to use for posting responses
+         * @param maxRequests Maximum number of requests in flight
+         */
+        public AsyncNetworkDispatcherFactory(BlockingQueue<Request<?>> queue,
+                                             AsyncNetwork network, Cache cache,
+                                             ResponseDelivery delivery, int maxRequests) {
+            super(queue, null, cache, delivery);
+            if (maxRequests < 1) {
+                throw new IllegalArgumentException("maxRequests < 1");
+            }
+            mAsyncNetwork = network;
+            mPermits = new Semaphore(maxRequests);
+        }
+
+        /**
+         * Creates a new async network dispatcher factory serving the network queue of a
+         * {@link RequestQueue}.
+         *
+         * @param requestQueue the queue which dispatchers will serve
+         * @param network      AsyncNetwork interface to use for performing requests
+         * @param maxRequests  Maximum number of requests in flight
+         */
+        public AsyncNetworkDispatcherFactory(RequestQueue requestQueue, AsyncNetwork network,
+                                             int maxRequests) {
+            this(requestQueue.networkQueue, network, requestQueue.cache,
+                    requestQueue.delivery, maxRequests);
+        }
+
+        /**
+         * Creates a new async network dispatcher factory serving the network queue of a
+         * {@link RequestQueue} with {@link #DEFAULT_MAX_REQUESTS} requests in flight.
+         *
+         * @param requestQueue the queue which dispatchers will serve
+         * @param network      AsyncNetwork interface to use for performing requests
+         */
+        public AsyncNetworkDispatcherFactory(RequestQueue requestQueue, AsyncNetwork network) {
+            this(requestQueue, network, DEFAULT_MAX_REQUESTS);
+        }
+
+        @Override
+        public NetworkDispatcher create() {
+            return new AsyncNetworkDispatcher(mQueue, mAsyncNetwork, mCache, mDelivery,
+                    mPermits);
+        }
+    }
+}
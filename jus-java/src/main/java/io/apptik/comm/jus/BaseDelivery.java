@@ -34,14 +34,14 @@ public abstract class BaseDelivery implements ResponseDelivery {
     @Override
     public void postResponse(Request request, Response response, Runnable runnable) {
         request.markDelivered();
-        request.addMarker(Request.EVENT_POST_RESPONSE, response);
+        request.addMarker(Request.EVENT_ID_POST_RESPONSE, response);
         request.response = response;
         addMarkersAndDeliver(request, response, runnable);
     }
 
     @Override
     public void postError(Request request, JusError error, Runnable runnable) {
-        request.addMarker(Request.EVENT_POST_ERROR, error);
+        request.addMarker(Request.EVENT_ID_POST_ERROR, error);
         Response<?> response = Response.error(error);
         request.response = response;
         addMarkersAndDeliver(request, response, runnable);
@@ -50,24 +50,24 @@ public abstract class BaseDelivery implements ResponseDelivery {
     private void addMarkersAndDeliver(Request<?> request, Response<?> response, Runnable runnable) {
         // If this request has canceled, finish it and don't deliver.
         if (request.isCanceled()) {
-            request.finish(Request.EVENT_CANCELED_AT_DELIVERY);
+            request.finish(Request.EVENT_ID_CANCELED_AT_DELIVERY);
         } else {
             try {
                 if (response.error == null) {
-                    request.addMarker(Request.EVENT_DELIVER_RESPONSE, response.result, response.intermediate);
+                    request.addMarker(Request.EVENT_ID_DELIVER_RESPONSE, response.result, response.intermediate);
 
                     doDeliver(request, response, runnable);
                 } else {
-                    request.addMarker(Request.EVENT_DELIVER_ERROR, response.error);
+                    request.addMarker(Request.EVENT_ID_DELIVER_ERROR, response.error);
                     doDeliver(request, response, runnable);
                 }
             } finally {
                 // If this is an intermediate response, add a marker, otherwise we're done
                 // and the request can be finished.
                 if (response.intermediate) {
-                    request.addMarker(Request.EVENT_INTERMEDIATE_RESPONSE);
+                    request.addMarker(Request.EVENT_ID_INTERMEDIATE_RESPONSE);
                 } else {
-                    request.finish(Request.EVENT_DONE);
+                    request.finish(Request.EVENT_ID_DONE);
                 }
             }
         }
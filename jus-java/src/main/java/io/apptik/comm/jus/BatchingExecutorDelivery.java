@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.apptik.comm.jus.http.Util;
+
+/**
+ * Delivers responses and errors in batches, so the executor, e.g. the main thread of a UI, gets
+ * one task for many responses instead of one task per response.
+ * <p>
+ * A batch is handed to the executor when the batch window after its first response has passed
+ * or when it is full, whichever comes first. Without a window it is handed over right away and
+ * responses posted until the executor runs it join the batch.
+ * Batches are delivered one after another in the order they were posted, so an intermediate
+ * response is always delivered before the final one of the same request.
+ * </p>
+ * <p>
+ * The window timer thread is stopped when it is idle and can be shut down with
+ * {@link #shutdown()}, after which batches are handed over right away.
+ * </p>
+ */
+public class BatchingExecutorDelivery extends ExecutorDelivery {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    private static final int IDLE = 0;
+    private static final int WAITING = 1;
+    private static final int POSTED = 2;
+    private static final long STATE_MASK = 3;
+    private static final long TIMER_KEEP_ALIVE_MS = 10000;
+
+    private final int maxBatchSize;
+    private final long windowNs;
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    /**
+     * The state in the low bits and the generation of the batch window in the others, so the
+     * timer task of a batch which was posted early, as it was full, cannot post the next batch.
+     */
+    private final AtomicLong state = new AtomicLong(IDLE);
+    private final ScheduledThreadPoolExecutor timer;
+
+    private final Runnable deliverBatch = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < maxBatchSize; i++) {
+                    Runnable delivery = pending.poll();
+                    if (delivery == null) {
+                        break;
+                    }
+                    pendingCount.decrementAndGet();
+                    delivery.run();
+                }
+            } finally {
+                //only this task leaves POSTED
+                state.set(state.get() & ~STATE_MASK);
+                if (pendingCount.get() > 0) {
+                    schedule(pendingCount.get());
+                }
+            }
+        }
+    };
+
+    private final class WindowPassed implements Runnable {
+        private final long waiting;
+
+        WindowPassed(long waiting) {
+            this.waiting = waiting;
+        }
+
+        @Override
+        public void run() {
+            if (state.compareAndSet(waiting, (waiting & ~STATE_MASK) | POSTED)) {
+                mResponsePoster.execute(deliverBatch);
+            }
+        }
+    }
+
+    /**
+     * Creates a delivery handing over batches of up to {@link #DEFAULT_MAX_BATCH_SIZE}
+     * responses without a batch window.
+     *
+     * @param executor For running delivery tasks
+     */
+    public BatchingExecutorDelivery(Executor executor) {
+        this(executor, DEFAULT_MAX_BATCH_SIZE, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param executor     For running delivery tasks
+     * @param maxBatchSize the max number of responses delivered in one task
+     * @param window       the time to collect responses after the first one of a batch, 0 to
+     *                     hand over the batch right away
+     * @param unit         the unit of the window
+     */
+    public BatchingExecutorDelivery(Executor executor, int maxBatchSize, long window,
+                                    TimeUnit unit) {
+        super(executor);
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize < 1");
+        }
+        if (window < 0) {
+            throw new IllegalArgumentException("window < 0");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.windowNs = unit.toNanos(window);
+        if (windowNs == 0) {
+            this.timer = null;
+        } else {
+            this.timer = new ScheduledThreadPoolExecutor(1,
+                    Util.threadFactory("JusDeliveryBatcher", true));
+            timer.setKeepAliveTime(TIMER_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+            timer.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getWindowNs() {
+        return windowNs;
+    }
+
+    /**
+     * Stops the window timer. A batch already waiting for its window is still handed over
+     * when the window passes, later batches are handed over right away.
+     */
+    public void shutdown() {
+        if (timer != null) {
+            timer.shutdown();
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    void doDeliver(Request request, Response response, Runnable runnable) {
+        pending.offer(new ResponseDeliveryRunnable(request, response, runnable));
+        schedule(pendingCount.incrementAndGet());
+    }
+
+    private void schedule(int pendingCount) {
+        if (windowNs == 0 || pendingCount >= maxBatchSize || timer.isShutdown()) {
+            post();
+            return;
+        }
+        long current = state.get();
+        if ((current & STATE_MASK) != IDLE) {
+            return;
+        }
+        long waiting = (((current >>> 2) + 1) << 2) | WAITING;
+        if (state.compareAndSet(current, waiting)) {
+            try {
+                timer.schedule(new WindowPassed(waiting), windowNs, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                //shut down in the meantime
+                post();
+            }
+        }
+    }
+
+    /**
+     * Hands over the batch right away unless it is posted already.
+     */
+    private void post() {
+        while (true) {
+            long current = state.get();
+            if ((current & STATE_MASK) == POSTED) {
+                return;
+            }
+            if (state.compareAndSet(current, (current & ~STATE_MASK) | POSTED)) {
+                mResponsePoster.execute(deliverBatch);
+                return;
+            }
+        }
+    }
+}
@@ -20,6 +20,10 @@ package io.apptik.comm.jus;
 
 
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.apptik.comm.jus.error.TimeoutError;
 
 /**
  * Provides a threadId for performing cache triage on a queue of requests.
@@ -100,11 +104,19 @@ public class CacheDispatcher extends Thread {
                 // Get a request from the cache triage queue, blocking until
                 // at least one is available.
                 final Request<?> request = mCacheQueue.take();
-                request.addMarker(Request.EVENT_CACHE_QUEUE_TAKE);
+                request.addMarker(Request.EVENT_ID_CACHE_QUEUE_TAKE);
 
                 // If the request has been canceled, don't bother dispatching it.
                 if (request.isCanceled()) {
-                    request.finish(Request.EVENT_CACHE_DISCARD_CANCELED);
+                    request.finish(Request.EVENT_ID_CACHE_DISCARD_CANCELED);
+                    continue;
+                }
+
+                // If the caller gave up already, don't bother reading the cache.
+                if (request.isExpired()) {
+                    request.addMarker(Request.EVENT_ID_DEADLINE_EXCEEDED);
+                    mDelivery.postError(request,
+                            new TimeoutError("Deadline exceeded before dispatch"));
                     continue;
                 }
 
@@ -112,7 +124,7 @@ public class CacheDispatcher extends Thread {
                 Cache.Entry entry = mCache.get(request.getCacheKey());
 
                 if (entry == null) {
-                    request.addMarker(Request.EVENT_CACHE_MISS);
+                    request.addMarker(Request.EVENT_ID_CACHE_MISS);
                     // Cache miss; send off to the network dispatcher.
                     mNetworkQueue.put(request);
                     continue;
@@ -120,44 +132,16 @@ public class CacheDispatcher extends Thread {
 
                 // If it is completely expired, just send it to the network.
                 if (entry.isExpired()) {
-                    request.addMarker(Request.EVENT_CACHE_HIT_EXPIRED);
+                    request.addMarker(Request.EVENT_ID_CACHE_HIT_EXPIRED);
                     request.setCacheEntry(entry);
                     mNetworkQueue.put(request);
                     continue;
                 }
 
                 // We have a cache hit; parse its data for delivery back to the request.
-                request.addMarker(Request.EVENT_CACHE_HIT);
-                Response<?> response = request.parseNetworkResponse(
+                request.addMarker(Request.EVENT_ID_CACHE_HIT);
+                handleCacheHit(request, entry,
                         new NetworkResponse(-1, entry.data, entry.responseHeaders, 0));
-                request.addMarker(Request.EVENT_CACHE_HIT_PARSED);
-
-                if (!entry.refreshNeeded()) {
-                    // Completely unexpired cache hit. Just deliver the response.
-                    mDelivery.postResponse(request, response);
-                } else {
-                    // Soft-expired cache hit. We can deliver the cached response,
-                    // but we need to also send the request to the network for
-                    // refreshing.
-                    request.addMarker(Request.EVENT_CACHE_HIT_REFRESH_NEEDED);
-                    request.setCacheEntry(entry);
-
-                    // Mark the response as intermediate.
-                    response.intermediate = true;
-
-                    // Post the intermediate response back to the user and have
-                    // the delivery then forward the request along to the network.
-                    mDelivery.postResponse(request, response, new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                mNetworkQueue.put(request);
-                            } catch (InterruptedException e) {
-                                // Not much we can do about this.
-                            }
-                        }
-                    });
-                }
 
             } catch (InterruptedException e) {
                 // We may have been interrupted because it was time to quit.
@@ -168,4 +152,120 @@ public class CacheDispatcher extends Thread {
             }
         }
     }
+
+    /**
+     * Parses and delivers a cache hit. If the queue of the request has a
+     * {@link RequestQueue#getParseExecutor() parse executor} this is done there, so the
+     * dispatcher is free for the next request right away.
+     *
+     * @param request        the request
+     * @param entry          the cache entry, which is not expired
+     * @param cachedResponse the response made of the cache entry
+     */
+    protected void handleCacheHit(final Request<?> request, final Cache.Entry entry,
+                                  final NetworkResponse cachedResponse) {
+        Executor parseExecutor = request.getRequestQueue() == null
+                ? null : request.getRequestQueue().getParseExecutor();
+        if (parseExecutor != null) {
+            try {
+                parseExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        parseAndDeliverCacheHit(request, entry, cachedResponse);
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                //parse executor is shut down, parse here
+            }
+        }
+        parseAndDeliverCacheHit(request, entry, cachedResponse);
+    }
+
+    /**
+     * Parses and delivers a cache hit. If the entry needs a refresh the request is sent to the
+     * network after the intermediate response is delivered.
+     *
+     * @param request        the request
+     * @param entry          the cache entry, which is not expired
+     * @param cachedResponse the response made of the cache entry
+     */
+    protected void parseAndDeliverCacheHit(final Request<?> request, Cache.Entry entry,
+                                           NetworkResponse cachedResponse) {
+        if (request.isCanceled()) {
+            request.finish(Request.EVENT_ID_CACHE_DISCARD_CANCELED);
+            return;
+        }
+        Response<?> response = request.parseNetworkResponse(cachedResponse);
+        request.addMarker(Request.EVENT_ID_CACHE_HIT_PARSED);
+
+        if (!entry.refreshNeeded()) {
+            // Completely unexpired cache hit. Just deliver the response.
+            mDelivery.postResponse(request, response);
+        } else {
+            // Soft-expired cache hit. We can deliver the cached response,
+            // but we need to also send the request to the network for
+            // refreshing.
+            request.addMarker(Request.EVENT_ID_CACHE_HIT_REFRESH_NEEDED);
+            request.setCacheEntry(entry);
+
+            // Mark the response as intermediate.
+            response.intermediate = true;
+
+            // Post the intermediate response back to the user and have
+            // the delivery then forward the request along to the network.
+            mDelivery.postResponse(request, response, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mNetworkQueue.put(request);
+                    } catch (InterruptedException e) {
+                        // Not much we can do about this.
+                    }
+                }
+            });
+        }
+    }
+
+    public static class CacheDispatcherFactory {
+
+        /**
+         * The queue of requests coming in for triage.
+         */
+        protected final BlockingQueue<Request<?>> mCacheQueue;
+        /**
+         * The queue of requests going out to the network.
+         */
+        protected final BlockingQueue<Request<?>> mNetworkQueue;
+        /**
+         * The cache to read from.
+         */
+        protected final Cache mCache;
+        /**
+         * For posting responses.
+         */
+        protected final ResponseDelivery mDelivery;
+
+        /**
+         * Creates a new cache dispatcher factory.  You must call {@link #create()}
+         * in order to create {@link CacheDispatcher}.
+         *
+         * @param cacheQueue   Queue of incoming requests for triage
+         * @param networkQueue Queue to post requests that require network to
+         * @param cache        Cache interface to use for resolution
+         * @param delivery     Delivery interface to use for posting responses
+         */
+        public CacheDispatcherFactory(
+                BlockingQueue<Request<?>> cacheQueue, BlockingQueue<Request<?>> networkQueue,
+                Cache cache, ResponseDelivery delivery) {
+            mCacheQueue = cacheQueue;
+            mNetworkQueue = networkQueue;
+            mCache = cache;
+            mDelivery = delivery;
+        }
+
+        public CacheDispatcher create() {
+            return new CacheDispatcher(mCacheQueue, mNetworkQueue, mCache, mDelivery);
+        }
+    }
 }
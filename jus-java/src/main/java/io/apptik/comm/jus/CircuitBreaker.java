@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.error.JusError;
+import io.apptik.comm.jus.error.NetworkError;
+import io.apptik.comm.jus.error.NoConnectionError;
+import io.apptik.comm.jus.error.ServerError;
+
+/**
+ * Stops sending requests to a failing backend for a while, so they fail fast with a
+ * {@link io.apptik.comm.jus.error.CircuitOpenError} instead of running into timeouts.
+ * <p>
+ * The network asks for a permit before performing a request and reports the outcome after.
+ * Circuit breakers are shared by all requests to the same backend, see {@link Factory}.
+ * </p>
+ */
+public interface CircuitBreaker {
+
+    enum State {
+        /**
+         * Requests pass, outcomes are recorded
+         */
+        CLOSED,
+        /**
+         * Requests fail fast
+         */
+        OPEN,
+        /**
+         * A limited number of probe requests pass to decide whether to close again
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * This is called before the request is sent.
+     *
+     * @return true if the request may be sent, false to fail it fast
+     */
+    boolean tryAcquire(Request<?> request);
+
+    /**
+     * This is called when a request, which got a permit, completed with a response.
+     *
+     * @param durationNs the time it took including retries
+     */
+    void onSuccess(Request<?> request, long durationNs);
+
+    /**
+     * This is called when a request, which got a permit, failed.
+     *
+     * @param durationNs the time it took including retries
+     */
+    void onError(Request<?> request, JusError error, long durationNs);
+
+    State getState();
+
+    /**
+     * Provides one {@link CircuitBreaker} per host of the requests. Override
+     * {@link #create(String)} to configure them.
+     */
+    abstract class Factory {
+        private final ConcurrentMap<String, CircuitBreaker> circuitBreakers =
+                new ConcurrentHashMap<>();
+
+        public CircuitBreaker get(Request<?> request) {
+            String host = request.getUrl() == null ? "" : request.getUrl().host();
+            CircuitBreaker circuitBreaker = circuitBreakers.get(host);
+            if (circuitBreaker == null) {
+                circuitBreaker = create(host);
+                CircuitBreaker existing = circuitBreakers.putIfAbsent(host, circuitBreaker);
+                if (existing != null) {
+                    circuitBreaker = existing;
+                }
+            }
+            return circuitBreaker;
+        }
+
+        /**
+         * @return the circuit breakers by host created so far
+         */
+        public Map<String, CircuitBreaker> getCircuitBreakers() {
+            return Collections.unmodifiableMap(circuitBreakers);
+        }
+
+        protected CircuitBreaker create(String host) {
+            return new DefaultCircuitBreaker();
+        }
+    }
+
+    /**
+     * Opens when the failure rate or the slow call rate of the latest calls reaches its
+     * threshold, stays open for the open duration and then lets the given number of probes
+     * pass. It closes if all probes succeed and opens again on the first failing probe.
+     * <p>
+     * Network errors, except {@link NoConnectionError}, and server errors are failures.
+     * </p>
+     */
+    class DefaultCircuitBreaker implements CircuitBreaker {
+        public static final float DEFAULT_FAILURE_RATE_THRESHOLD = 0.5f;
+        public static final float DEFAULT_SLOW_CALL_RATE_THRESHOLD = 1f;
+        public static final long DEFAULT_SLOW_CALL_DURATION_MS = 10000;
+        public static final int DEFAULT_WINDOW_SIZE = 20;
+        public static final int DEFAULT_MIN_CALLS = 10;
+        public static final long DEFAULT_OPEN_DURATION_MS = 30000;
+        public static final int DEFAULT_PROBES = 3;
+
+        private static final byte FAILED = 1;
+        private static final byte SLOW = 2;
+
+        private final float failureRateThreshold;
+        private final float slowCallRateThreshold;
+        private final long slowCallDurationNs;
+        private final int minCalls;
+        private final long openDurationNs;
+        private final int probes;
+
+        /**
+         * The outcomes of the latest calls in a ring buffer
+         */
+        private final byte[] outcomes;
+        private int next;
+        private int calls;
+        private int failures;
+        private int slowCalls;
+
+        private State state = State.CLOSED;
+        private long openedAtNs;
+        private int probesAcquired;
+        private int probesSucceeded;
+
+        public DefaultCircuitBreaker() {
+            this(DEFAULT_FAILURE_RATE_THRESHOLD, DEFAULT_SLOW_CALL_RATE_THRESHOLD,
+                    DEFAULT_SLOW_CALL_DURATION_MS, DEFAULT_WINDOW_SIZE, DEFAULT_MIN_CALLS,
+                    DEFAULT_OPEN_DURATION_MS, DEFAULT_PROBES, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * @param failureRateThreshold  the failure rate opening the circuit
+         * @param slowCallRateThreshold the slow call rate opening the circuit
+         * @param slowCallDuration      calls taking longer than this are slow
+         * @param windowSize            the number of latest calls the rates are computed from
+         * @param minCalls              the number of calls needed before the circuit can open
+         * @param openDuration          the time the circuit stays open before probing
+         * @param probes                the number of probe calls when half open
+         * @param unit                  the unit of the durations
+         */
+        public DefaultCircuitBreaker(float failureRateThreshold, float slowCallRateThreshold,
+                                     long slowCallDuration, int windowSize, int minCalls,
+                                     long openDuration, int probes, TimeUnit unit) {
+            if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+                throw new IllegalArgumentException("failureRateThreshold must be in (0, 1]");
+            }
+            if (slowCallRateThreshold <= 0 || slowCallRateThreshold > 1) {
+                throw new IllegalArgumentException("slowCallRateThreshold must be in (0, 1]");
+            }
+            if (windowSize < 1) {
+                throw new IllegalArgumentException("windowSize < 1");
+            }
+            if (minCalls < 1 || minCalls > windowSize) {
+                throw new IllegalArgumentException("minCalls not in [1, windowSize]");
+            }
+            if (probes < 1) {
+                throw new IllegalArgumentException("probes < 1");
+            }
+            this.failureRateThreshold = failureRateThreshold;
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            this.slowCallDurationNs = unit.toNanos(slowCallDuration);
+            this.minCalls = minCalls;
+            this.openDurationNs = unit.toNanos(openDuration);
+            this.probes = probes;
+            this.outcomes = new byte[windowSize];
+        }
+
+        @Override
+        public synchronized boolean tryAcquire(Request<?> request) {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAtNs < openDurationNs) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probesAcquired = 0;
+                probesSucceeded = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesAcquired >= probes) {
+                    return false;
+                }
+                probesAcquired++;
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized void onSuccess(Request<?> request, long durationNs) {
+            record(false, durationNs);
+        }
+
+        @Override
+        public synchronized void onError(Request<?> request, JusError error, long durationNs) {
+            if (isFailure(error)) {
+                record(true, durationNs);
+            } else {
+                record(false, durationNs);
+            }
+        }
+
+        @Override
+        public synchronized State getState() {
+            if (state == State.OPEN && System.nanoTime() - openedAtNs >= openDurationNs) {
+                return State.HALF_OPEN;
+            }
+            return state;
+        }
+
+        /**
+         * @return the failure rate of the latest calls while closed
+         */
+        public synchronized float getFailureRate() {
+            return calls == 0 ? 0 : (float) failures / calls;
+        }
+
+        /**
+         * @return the slow call rate of the latest calls while closed
+         */
+        public synchronized float getSlowCallRate() {
+            return calls == 0 ? 0 : (float) slowCalls / calls;
+        }
+
+        /**
+         * @return true if the error counts as a failure of the backend
+         */
+        protected boolean isFailure(JusError error) {
+            return (error instanceof NetworkError && !(error instanceof NoConnectionError))
+                    || error instanceof ServerError;
+        }
+
+        private void record(boolean failed, long durationNs) {
+            boolean slow = durationNs > slowCallDurationNs;
+            switch (state) {
+                case HALF_OPEN:
+                    if (failed || slow) {
+                        open();
+                    } else if (++probesSucceeded >= probes) {
+                        close();
+                    }
+                    break;
+                case CLOSED:
+                    if (calls == outcomes.length) {
+                        byte old = outcomes[next];
+                        failures -= old & FAILED;
+                        slowCalls -= (old & SLOW) >> 1;
+                    } else {
+                        calls++;
+                    }
+                    outcomes[next] = (byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0));
+                    next = (next + 1) % outcomes.length;
+                    if (failed) {
+                        failures++;
+                    }
+                    if (slow) {
+                        slowCalls++;
+                    }
+                    if (calls >= minCalls
+                            && (failures >= failureRateThreshold * calls
+                            || slowCalls >= slowCallRateThreshold * calls)) {
+                        open();
+                    }
+                    break;
+                default:
+                    //calls which got their permit before the circuit opened
+                    break;
+            }
+        }
+
+        private void open() {
+            state = State.OPEN;
+            openedAtNs = System.nanoTime();
+        }
+
+        private void close() {
+            state = State.CLOSED;
+            next = 0;
+            calls = 0;
+            failures = 0;
+            slowCalls = 0;
+        }
+    }
+}
@@ -25,7 +25,7 @@ import java.util.concurrent.Executor;
  */
 public class ExecutorDelivery extends BaseDelivery {
     /** Used for posting responses. */
-    private final Executor mResponsePoster;
+    final Executor mResponsePoster;
 
     /**
      * Creates a new response delivery interface, mockable version
@@ -47,7 +47,7 @@ public class ExecutorDelivery extends BaseDelivery {
      * main threadId.
      */
     @SuppressWarnings("rawtypes")
-    private class ResponseDeliveryRunnable implements Runnable {
+    static class ResponseDeliveryRunnable implements Runnable {
         private final Request request;
         private final Response response;
         private final Runnable runnable;
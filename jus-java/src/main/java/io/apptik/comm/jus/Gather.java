@@ -0,0 +1,435 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.apptik.comm.jus.error.JusError;
+import io.apptik.comm.jus.error.TimeoutError;
+import io.apptik.comm.jus.http.Util;
+
+import static io.apptik.comm.jus.toolbox.Utils.checkNotNull;
+
+/**
+ * Gathers the results of a group of requests, see
+ * {@link RequestQueue#gather(Collection, int, long, TimeUnit)}.
+ * <p>
+ * Completion is tracked by the listeners of the requests, so no thread waits for a request.
+ * The gather is done when all requests are done, when the quorum of successful responses is
+ * reached or when the deadline passes, whichever comes first. The requests still outstanding
+ * then are canceled. A single daemon thread shared by all gathers fires the deadlines.
+ * </p>
+ * The {@link Result} is available via {@link #get()} or a {@link Listener}.
+ *
+ * @param <T> The type of parsed response of the requests
+ */
+public class Gather<T> implements Future<Gather.Result<T>> {
+
+    /**
+     * Notified once when the gather is done, on the thread completing it: a delivery thread,
+     * the deadline timer or the thread calling {@link #cancel(boolean)}.
+     */
+    public interface Listener<T> {
+        void onGathered(Result<T> result);
+    }
+
+    /**
+     * The outcome of a gather. Responses and errors are in the order of the requests.
+     */
+    public static final class Result<T> {
+        private final List<Request<T>> requests;
+        private final Map<Request<T>, T> responses;
+        private final Map<Request<T>, JusError> errors;
+        private final List<Request<T>> canceled;
+        private final boolean quorumReached;
+        private final boolean timedOut;
+
+        Result(List<Request<T>> requests, Map<Request<T>, T> responses,
+               Map<Request<T>, JusError> errors, List<Request<T>> canceled,
+               boolean quorumReached, boolean timedOut) {
+            this.requests = requests;
+            this.responses = Collections.unmodifiableMap(responses);
+            this.errors = Collections.unmodifiableMap(errors);
+            this.canceled = Collections.unmodifiableList(canceled);
+            this.quorumReached = quorumReached;
+            this.timedOut = timedOut;
+        }
+
+        public List<Request<T>> getRequests() {
+            return requests;
+        }
+
+        /**
+         * @return the successful responses by request
+         */
+        public Map<Request<T>, T> getResponses() {
+            return responses;
+        }
+
+        /**
+         * @return the errors by request, including a {@link TimeoutError} for each request
+         * still outstanding at the deadline
+         */
+        public Map<Request<T>, JusError> getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return the requests without a result as they were canceled, either because the
+         * quorum was reached first, the gather was canceled or they were canceled directly
+         */
+        public List<Request<T>> getCanceled() {
+            return canceled;
+        }
+
+        public boolean isQuorumReached() {
+            return quorumReached;
+        }
+
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "requests=" + requests.size() +
+                    ", responses=" + responses.size() +
+                    ", errors=" + errors.size() +
+                    ", canceled=" + canceled.size() +
+                    ", quorumReached=" + quorumReached +
+                    ", timedOut=" + timedOut +
+                    '}';
+        }
+    }
+
+    private static final byte PENDING = 0;
+    private static final byte SUCCEEDED = 1;
+    private static final byte FAILED = 2;
+    private static final byte CANCELED = 3;
+
+    private static ScheduledThreadPoolExecutor timer;
+
+    private static synchronized ScheduledThreadPoolExecutor timer() {
+        if (timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, Util.threadFactory("JusGather", true));
+            timer.setRemoveOnCancelPolicy(true);
+        }
+        return timer;
+    }
+
+    private final List<Request<T>> requests;
+    private final int quorum;
+    private final byte[] states;
+    private final Object[] responses;
+    private final JusError[] errors;
+    private int pending;
+    private int succeeded;
+    private boolean finishing;
+    private Result<T> result;
+    private boolean canceled;
+    private ScheduledFuture<?> deadline;
+    private final List<Listener<T>> listeners = new ArrayList<>();
+    private final List<Member> members;
+
+    /**
+     * Attaches to the requests and starts the deadline. The requests are to be added to a queue
+     * right after, e.g. via {@link RequestQueue#addAll(Collection)}, and {@link #abandon()}
+     * is to be called if that fails.
+     *
+     * @param requests the requests to gather
+     * @param quorum   the number of successful responses after which the gather is done,
+     *                 between 1 and the number of requests
+     * @param timeout  the time until the deadline of the gather
+     * @param unit     the unit of the timeout
+     */
+    public Gather(Collection<? extends Request<T>> requests, int quorum, long timeout,
+                  TimeUnit unit) {
+        checkNotNull(requests, "requests==null");
+        checkNotNull(unit, "unit==null");
+        this.requests = Collections.unmodifiableList(new ArrayList<Request<T>>(requests));
+        int size = this.requests.size();
+        if (size > 0 && (quorum < 1 || quorum > size)) {
+            throw new IllegalArgumentException("quorum not in [1, " + size + "]");
+        }
+        this.quorum = quorum;
+        this.states = new byte[size];
+        this.responses = new Object[size];
+        this.errors = new JusError[size];
+        this.pending = size;
+        this.members = new ArrayList<>(size);
+        if (size == 0) {
+            finishing = true;
+            result = buildResult(false);
+            return;
+        }
+        long deadlineNs = System.nanoTime() + unit.toNanos(timeout);
+        for (int i = 0; i < size; i++) {
+            Request<T> request = this.requests.get(i);
+            Member member = new Member(i, request);
+            members.add(member);
+            //queued requests past the deadline of the gather are not sent at all
+            if (!request.hasDeadline() || request.getDeadlineNs() - deadlineNs > 0) {
+                request.setDeadlineNs(deadlineNs);
+            }
+            request.addResponseListener(member)
+                    .addErrorListener(member)
+                    .addDoneListener(member);
+        }
+        synchronized (this) {
+            if (!finishing) {
+                deadline = timer().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        finish(true, false);
+                    }
+                }, timeout, unit);
+            }
+        }
+    }
+
+    /**
+     * Adds a listener notified when the gather is done, right away if it is done already.
+     */
+    public Gather<T> addListener(Listener<T> listener) {
+        checkNotNull(listener, "listener==null");
+        Result<T> res;
+        synchronized (this) {
+            res = result;
+            if (res == null) {
+                listeners.add(listener);
+                return this;
+            }
+        }
+        listener.onGathered(res);
+        return this;
+    }
+
+    public List<Request<T>> getRequests() {
+        return requests;
+    }
+
+    /**
+     * Detaches from the requests and stops the deadline without completing the gather, when
+     * the requests could not be added. Requests which were not added to a queue get their
+     * previous deadline back, the ones added already are left as they are.
+     */
+    public void abandon() {
+        synchronized (this) {
+            finishing = true;
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+        }
+        for (Member member : members) {
+            member.detach();
+        }
+    }
+
+    /**
+     * Cancels the outstanding requests and completes the gather with the results so far.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(false, true);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return canceled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return result != null;
+    }
+
+    /**
+     * Waits until the gather is done. As the gather has a deadline this does not wait much
+     * longer than that.
+     */
+    @Override
+    public synchronized Result<T> get() throws InterruptedException {
+        while (result == null) {
+            wait(0);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized Result<T> get(long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        long remainingNs = unit.toNanos(timeout);
+        long end = System.nanoTime() + remainingNs;
+        while (result == null) {
+            if (remainingNs <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remainingNs);
+            remainingNs = end - System.nanoTime();
+        }
+        return result;
+    }
+
+    private void onMemberDone(int index, byte state, T response, JusError error) {
+        synchronized (this) {
+            if (finishing || states[index] != PENDING) {
+                return;
+            }
+            states[index] = state;
+            pending--;
+            if (state == SUCCEEDED) {
+                responses[index] = response;
+                succeeded++;
+            } else if (state == FAILED) {
+                errors[index] = error;
+            }
+            if (pending > 0 && succeeded < quorum) {
+                return;
+            }
+        }
+        finish(false, false);
+    }
+
+    /**
+     * Completes the gather, cancels the outstanding requests and notifies the listeners.
+     * The requests are canceled before the result is published.
+     *
+     * @return false if the gather was done already
+     */
+    private boolean finish(boolean timedOut, boolean cancel) {
+        List<Request<T>> outstanding = new ArrayList<>();
+        synchronized (this) {
+            if (finishing) {
+                return false;
+            }
+            finishing = true;
+            for (int i = 0; i < states.length; i++) {
+                if (states[i] == PENDING) {
+                    if (timedOut) {
+                        states[i] = FAILED;
+                        errors[i] = new TimeoutError("Gather deadline exceeded");
+                    } else {
+                        states[i] = CANCELED;
+                    }
+                    outstanding.add(requests.get(i));
+                }
+            }
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+        }
+        for (Request<T> request : outstanding) {
+            request.cancel();
+        }
+        Result<T> res;
+        List<Listener<T>> toNotify;
+        synchronized (this) {
+            canceled = cancel;
+            res = result = buildResult(timedOut);
+            toNotify = new ArrayList<>(listeners);
+            listeners.clear();
+            notifyAll();
+        }
+        for (Listener<T> listener : toNotify) {
+            listener.onGathered(res);
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Result<T> buildResult(boolean timedOut) {
+        Map<Request<T>, T> resMap = new LinkedHashMap<>();
+        Map<Request<T>, JusError> errMap = new LinkedHashMap<>();
+        List<Request<T>> canceledList = new ArrayList<>();
+        for (int i = 0; i < states.length; i++) {
+            Request<T> request = requests.get(i);
+            switch (states[i]) {
+                case SUCCEEDED:
+                    resMap.put(request, (T) responses[i]);
+                    break;
+                case FAILED:
+                    errMap.put(request, errors[i]);
+                    break;
+                case CANCELED:
+                    canceledList.add(request);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return new Result<>(requests, resMap, errMap, canceledList,
+                states.length > 0 && succeeded >= quorum, timedOut);
+    }
+
+    /**
+     * Listens to one of the requests.
+     */
+    private final class Member implements RequestListener.ResponseListener<T>,
+            RequestListener.ErrorListener, RequestListener.DoneListener {
+        private final int index;
+        private final Request<T> request;
+        private final boolean hadDeadline;
+        private final long previousDeadlineNs;
+
+        Member(int index, Request<T> request) {
+            this.index = index;
+            this.request = request;
+            this.hadDeadline = request.hasDeadline();
+            this.previousDeadlineNs = request.getDeadlineNs();
+        }
+
+        void detach() {
+            request.removeResponseListener(this);
+            request.removeErrorListener(this);
+            request.removeDoneListener(this);
+            if (request.getRequestQueue() == null) {
+                request.restoreDeadline(hadDeadline, previousDeadlineNs);
+            }
+        }
+
+        @Override
+        public void onResponse(T response) {
+            Response<T> rawResponse = request.getRawResponse();
+            if (rawResponse == null || !rawResponse.intermediate) {
+                onMemberDone(index, SUCCEEDED, response, null);
+            }
+        }
+
+        @Override
+        public void onError(JusError error) {
+            onMemberDone(index, FAILED, null, error);
+        }
+
+        @Override
+        public void onDone(Request<?> doneRequest) {
+            if (request.isCanceled()) {
+                onMemberDone(index, CANCELED, null, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import io.apptik.comm.jus.error.JusError;
+
+/**
+ * A network queue tracking the requests taken from it while they are in flight. The network
+ * dispatchers report the outcome of each request to it and release it when a retry is
+ * scheduled, and the {@link RequestQueue} releases it when the request is finished, so the
+ * queue does not need to listen to the markers of the requests.
+ *
+ * @see io.apptik.comm.jus.toolbox.HostPartitionedQueue
+ */
+public interface InFlightQueue {
+
+    /**
+     * Called when a request taken from the queue got a response from the network.
+     */
+    void onNetworkResponse(Request<?> request, NetworkResponse response);
+
+    /**
+     * Called when a request taken from the queue failed after it reached the network.
+     *
+     * @param error the error, see {@link JusError#getNetworkTimeNs()}
+     */
+    void onNetworkError(Request<?> request, JusError error);
+
+    /**
+     * Releases the in flight slot taken by the request, called when it is finished or
+     * scheduled for a retry.
+     *
+     * @return true if the request was in flight
+     */
+    boolean release(Request<?> request);
+}
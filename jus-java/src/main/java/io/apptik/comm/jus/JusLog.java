@@ -144,7 +144,7 @@ public class JusLog {
             log.log(buildMarkerMessage(request, "\n\t\targs=%s", marker,
                     Arrays.toString(args)));
             mMarkers.add(marker);
-            if (Request.EVENT_DONE.equals(marker.name)) {
+            if (marker.id == Request.EVENT_ID_DONE) {
                 finish("[" + request.getMethod() + "][" + request.getTag() + "]" +
                         request.getUrlString());
             }
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+/**
+ * A cache or network queue keeping its requests in one lane per {@link Request.Priority}, so
+ * it finds the request with the lowest priority without a scan. The {@link RequestQueue} asks
+ * it for the request to drop when a request with a higher priority needs its slot, see
+ * {@link AdmissionControl#dropLowerPriority(Request)}. Other queues are scanned.
+ *
+ * @see io.apptik.comm.jus.toolbox.PriorityLaneQueue
+ */
+public interface LaneQueue {
+
+    /**
+     * @return the newest request in the lowest priority lane which is not empty, or null if
+     * the queue is empty
+     */
+    Request<?> peekLowest();
+}
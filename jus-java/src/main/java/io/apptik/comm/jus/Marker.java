@@ -16,10 +16,76 @@
 
 package io.apptik.comm.jus;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import io.apptik.comm.jus.toolbox.Utils;
 
 public class Marker {
+
+    /**
+     * The names of the built-in events indexed by their {@code Request.EVENT_ID_*}
+     */
+    private static final String[] EVENTS = {
+            Request.EVENT_CACHE_HIT_EXPIRED,
+            Request.EVENT_POST_ERROR,
+            Request.EVENT_POST_RESPONSE,
+            Request.EVENT_INTERMEDIATE_RESPONSE,
+            Request.EVENT_CANCELED_AT_DELIVERY,
+            Request.EVENT_DONE,
+            Request.EVENT_NETWORK_QUEUE_TAKE,
+            Request.EVENT_NETWORK_STACK_SEND,
+            Request.EVENT_NETWORK_STACK_AUTH_ERROR,
+            Request.EVENT_NETWORK_STACK_AUTH_PROXY_ERROR,
+            Request.EVENT_NETWORK_STACK_AUTH_ERROR_RESEND,
+            Request.EVENT_NETWORK_STACK_REDIRECT_SEND,
+            Request.EVENT_NETWORK_STACK_REDIRECT_COMPLETE,
+            Request.EVENT_NETWORK_STACK_COMPLETE,
+            Request.EVENT_NETWORK_TRANSFORM_COMPLETE,
+            Request.EVENT_NETWORK_DISCARD_CANCELED,
+            Request.EVENT_NETWORK_RETRY,
+            Request.EVENT_NETWORK_RETRY_FAILED,
+            Request.EVENT_NETWORK_RETRY_SCHEDULED,
+            Request.EVENT_NETWORK_HTTP_COMPLETE,
+            Request.EVENT_NOT_MODIFIED,
+            Request.EVENT_NETWORK_PARSE_COMPLETE,
+            Request.EVENT_NETWORK_CACHE_WRITTEN,
+            Request.EVENT_PRE_ADD_TO_QUEUE,
+            Request.EVENT_ADD_TO_QUEUE,
+            Request.EVENT_CACHE_QUEUE_TAKE,
+            Request.EVENT_CACHE_DISCARD_CANCELED,
+            Request.EVENT_CACHE_MISS,
+            Request.EVENT_CACHE_HIT_EXPIRED_BUT_WILL_DELIVER_IT,
+            Request.EVENT_CACHE_HIT,
+            Request.EVENT_CACHE_HIT_PARSED,
+            Request.EVENT_CACHE_HIT_REFRESH_NEEDED,
+            Request.EVENT_SHARED_RESPONSE,
+            Request.EVENT_DEADLINE_EXCEEDED,
+            Request.EVENT_NETWORK_HEDGE,
+            Request.EVENT_NETWORK_HEDGE_WON,
+            Request.EVENT_CIRCUIT_OPEN,
+            Request.EVENT_DELIVER_RESPONSE,
+            Request.EVENT_DELIVER_ERROR
+    };
+
+    /**
+     * The id of names other than the built-in events
+     */
+    public static final int NO_ID = -1;
+
+    private static final Map<String, Integer> ids = new HashMap<>();
+
+    static {
+        for (int i = 0; i < EVENTS.length; i++) {
+            ids.put(EVENTS[i], i);
+        }
+    }
+
     public final String name;
+    /**
+     * The id of the name, see {@link #idOf(String)}
+     */
+    public final int id;
     public final long threadId;
     public final String threadName;
     public final long time;
@@ -27,11 +93,36 @@ public class Marker {
     public Marker(String name, long threadId, String threadName, long time) {
         Utils.checkNotNull(name, "name==null");
         this.name = name;
+        this.id = idOf(name);
         this.threadId = threadId;
         this.threadName = threadName;
         this.time = time;
     }
 
+    Marker(int id, long threadId, String threadName, long time) {
+        this.name = nameOf(id);
+        this.id = id;
+        this.threadId = threadId;
+        this.threadName = threadName;
+        this.time = time;
+    }
+
+    /**
+     * @return the id of one of the built-in {@code Request.EVENT_*} names, i.e. the matching
+     * {@code Request.EVENT_ID_*} constant, or {@link #NO_ID} for any other name
+     */
+    public static int idOf(String name) {
+        Integer id = ids.get(name);
+        return id == null ? NO_ID : id;
+    }
+
+    /**
+     * @return the name of a built-in event id, null for {@link #NO_ID}
+     */
+    public static String nameOf(int id) {
+        return id == NO_ID ? null : EVENTS[id];
+    }
+
     @Override
     public String toString() {
         return "Marker{" +
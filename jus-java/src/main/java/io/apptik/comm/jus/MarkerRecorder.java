@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records the markers of requests in a ring buffer of primitive arrays for later analysis,
+ * without creating {@link Marker}s or notifying listeners. Recording does not lock and only
+ * allocates the first time a thread records; when the buffer is full the oldest records are
+ * overwritten.
+ * <p>
+ * Each record holds the time, the {@link Marker#idOf(String) marker id}, i.e. one of the
+ * {@code Request.EVENT_ID_*} constants, or the name of any other marker, the sequence number
+ * of the request and the id of the thread. The names of the last threads recording are kept
+ * in a fixed table by the lowest bits of their ids, so threads colliding on a slot evict each
+ * other's name.
+ * </p>
+ * Use it via {@link RequestQueue#withMarkerRecorder(MarkerRecorder)}.
+ */
+public class MarkerRecorder {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final int KNOWN_THREADS = 256;
+
+    /**
+     * A recorded marker.
+     */
+    public static final class Record {
+        public final long time;
+        /**
+         * The id of a built-in marker or {@link Marker#NO_ID}
+         */
+        public final int markerId;
+        public final int requestSequence;
+        public final long threadId;
+        private final String markerName;
+
+        Record(long time, int markerId, String markerName, int requestSequence,
+               long threadId) {
+            this.time = time;
+            this.markerId = markerId;
+            this.markerName = markerName;
+            this.requestSequence = requestSequence;
+            this.threadId = threadId;
+        }
+
+        public String getMarkerName() {
+            return markerId == Marker.NO_ID ? markerName : Marker.nameOf(markerId);
+        }
+
+        @Override
+        public String toString() {
+            return "Record{" +
+                    "time=" + time +
+                    ", marker='" + getMarkerName() + '\'' +
+                    ", requestSequence=" + requestSequence +
+                    ", threadId=" + threadId +
+                    '}';
+        }
+    }
+
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+    /**
+     * The number of the record in each slot plus one, negative while it is written
+     */
+    private final AtomicLongArray published;
+    private final AtomicLongArray times;
+    private final AtomicIntegerArray markerIds;
+    /**
+     * The names of markers without an id, null otherwise
+     */
+    private final AtomicReferenceArray<String> markerNames;
+    private final AtomicIntegerArray requestSequences;
+    private final AtomicLongArray threadIds;
+    /**
+     * Names of threads by the lowest bits of their ids, so checking whether the name of a
+     * thread is known takes a single read and the table never grows. Threads colliding on a
+     * slot capture their name again.
+     */
+    private final AtomicReferenceArray<ThreadName> threadNames =
+            new AtomicReferenceArray<>(KNOWN_THREADS);
+
+    public MarkerRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of records kept, rounded up to a power of two
+     */
+    public MarkerRecorder(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity not in [1, 2^30]");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+        this.times = new AtomicLongArray(size);
+        this.markerIds = new AtomicIntegerArray(size);
+        this.markerNames = new AtomicReferenceArray<>(size);
+        this.requestSequences = new AtomicIntegerArray(size);
+        this.threadIds = new AtomicLongArray(size);
+    }
+
+    /**
+     * Records a marker of a request.
+     */
+    public void record(Request<?> request, String marker) {
+        int markerId = Marker.idOf(marker);
+        record(request, markerId, markerId == Marker.NO_ID ? marker : null);
+    }
+
+    /**
+     * Records a built-in marker of a request by its id, see {@link Marker#idOf(String)}.
+     */
+    public void record(Request<?> request, int markerId) {
+        record(request, markerId, null);
+    }
+
+    private void record(Request<?> request, int markerId, String markerName) {
+        Thread thread = Thread.currentThread();
+        long threadId = thread.getId();
+        int known = (int) (threadId & (KNOWN_THREADS - 1));
+        ThreadName threadName = threadNames.get(known);
+        if (threadName == null || threadName.threadId != threadId) {
+            threadNames.set(known, new ThreadName(threadId, thread.getName()));
+        }
+        Integer sequence = request.sequence;
+        long n = cursor.getAndIncrement();
+        int slot = (int) (n & mask);
+        published.set(slot, -(n + 1));
+        times.lazySet(slot, System.nanoTime());
+        markerIds.lazySet(slot, markerId);
+        markerNames.lazySet(slot, markerName);
+        requestSequences.lazySet(slot, sequence == null ? -1 : sequence);
+        threadIds.lazySet(slot, threadId);
+        published.set(slot, n + 1);
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the number of markers recorded so far, including overwritten ones
+     */
+    public long getRecordedCount() {
+        return cursor.get();
+    }
+
+    /**
+     * @return the name of a recorded thread, null if unknown or evicted by a thread colliding
+     * on its slot
+     */
+    public String getThreadName(long threadId) {
+        ThreadName threadName = threadNames.get((int) (threadId & (KNOWN_THREADS - 1)));
+        return threadName == null || threadName.threadId != threadId ? null : threadName.name;
+    }
+
+    /**
+     * @return the records still in the buffer, oldest first. Records being written or
+     * overwritten while taking the snapshot are skipped.
+     */
+    public List<Record> snapshot() {
+        long end = cursor.get();
+        long start = Math.max(0, end - getCapacity());
+        List<Record> res = new ArrayList<>((int) (end - start));
+        for (long n = start; n < end; n++) {
+            int slot = (int) (n & mask);
+            if (published.get(slot) != n + 1) {
+                continue;
+            }
+            Record record = new Record(times.get(slot), markerIds.get(slot),
+                    markerNames.get(slot), requestSequences.get(slot), threadIds.get(slot));
+            if (published.get(slot) == n + 1) {
+                res.add(record);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return the records of a request still in the buffer, oldest first. Markers added before
+     * the request got its sequence number are not included.
+     */
+    public List<Record> snapshot(Request<?> request) {
+        List<Record> res = new ArrayList<>();
+        Integer sequence = request.sequence;
+        if (sequence == null) {
+            return res;
+        }
+        for (Record record : snapshot()) {
+            if (record.requestSequence == sequence) {
+                res.add(record);
+            }
+        }
+        return res;
+    }
+
+    private static final class ThreadName {
+        final long threadId;
+        final String name;
+
+        ThreadName(long threadId, String name) {
+            this.threadId = threadId;
+            this.name = name;
+        }
+    }
+}
@@ -20,8 +20,12 @@ package io.apptik.comm.jus;
 
 import java.net.HttpURLConnection;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import io.apptik.comm.jus.error.JusError;
+import io.apptik.comm.jus.error.RetryLaterError;
+import io.apptik.comm.jus.error.TimeoutError;
 
 /**
  * Provides a threadId for performing network dispatch from a queue of requests.
@@ -36,23 +40,27 @@ public class NetworkDispatcher extends Thread {
     /**
      * The queue of requests to service.
      */
-    private final BlockingQueue<Request<?>> mQueue;
+    protected final BlockingQueue<Request<?>> mQueue;
     /**
      * The network interface for processing requests.
      */
-    private final Network mNetwork;
+    protected final Network mNetwork;
     /**
      * The cache to write to.
      */
-    private final Cache mCache;
+    protected final Cache mCache;
     /**
      * For posting responses and errors.
      */
-    private final ResponseDelivery mDelivery;
+    protected final ResponseDelivery mDelivery;
     /**
      * Used for telling us to die.
      */
-    private volatile boolean mQuit = false;
+    protected volatile boolean mQuit = false;
+    /**
+     * The elastic pool managing this dispatcher if any.
+     */
+    volatile NetworkDispatcherPool pool;
 
     /**
      * Creates a new network dispatcher threadId.  You must call {@link #start()}
@@ -114,7 +122,16 @@ public class NetworkDispatcher extends Thread {
             Request<?> request;
             try {
                 // Take a request from the queue.
-                request = mQueue.take();
+                NetworkDispatcherPool pool = this.pool;
+                if (pool == null) {
+                    request = mQueue.take();
+                } else {
+                    request = pool.take(this, mQueue);
+                    if (request == null) {
+                        // Retired by the pool.
+                        return;
+                    }
+                }
             } catch (InterruptedException e) {
                 // We may have been interrupted because it was time to quit.
                 if (mQuit) {
@@ -123,70 +140,198 @@ public class NetworkDispatcher extends Thread {
                 continue;
             }
 
-            try {
-                request.addMarker(Request.EVENT_NETWORK_QUEUE_TAKE);
+            dispatch(request, startTimeMs);
+        }
+    }
 
-                // If the request was cancelled already, do not perform the
-                // network request.
-                if (request.isCanceled()) {
-                    request.finish(Request.EVENT_NETWORK_DISCARD_CANCELED);
-                    continue;
-                }
+    /**
+     * Performs a request taken from the queue and delivers its result.
+     *
+     * @param request     the request taken from the queue
+     * @param startTimeNs the time when the request was taken from the queue
+     */
+    protected void dispatch(Request<?> request, long startTimeNs) {
+        NetworkResponse networkResponse;
+        try {
+            request.addMarker(Request.EVENT_ID_NETWORK_QUEUE_TAKE);
 
-                addTrafficStatsTag(request);
+            // If the request was cancelled already, do not perform the
+            // network request.
+            if (request.isCanceled()) {
+                request.finish(Request.EVENT_ID_NETWORK_DISCARD_CANCELED);
+                return;
+            }
 
-                // Perform the network request.
-                NetworkResponse networkResponse = mNetwork.performRequest(request);
+            if (dropIfExpired(request)) {
+                return;
+            }
 
-                if (request.isCanceled()) {
-                    request.finish(Request.EVENT_NETWORK_DISCARD_CANCELED);
-                    continue;
-                }
-                request.addMarker(Request.EVENT_NETWORK_HTTP_COMPLETE, networkResponse);
+            addTrafficStatsTag(request);
 
-                // If the server returned 304 AND we delivered a response already,
-                // we're done -- don't deliver a second identical response.
-                if (networkResponse.isNotModified() && request.hasHadResponseDelivered()) {
-                    request.finish(Request.EVENT_NOT_MODIFIED);
-                    continue;
-                }
+            // Perform the network request.
+            networkResponse = mNetwork.performRequest(request);
+        } catch (JusError jusError) {
+            handleNetworkError(request, jusError, startTimeNs);
+            return;
+        } catch (Exception e) {
+            handleUnexpectedError(request, e, startTimeNs);
+            return;
+        }
+        handleNetworkResponse(request, networkResponse, startTimeNs);
+    }
+
+    /**
+     * Parses, caches and delivers the response of a performed request. If the queue of the
+     * request has a {@link RequestQueue#getParseExecutor() parse executor} this is done there,
+     * so the dispatcher is free for the next request right away.
+     *
+     * @param request         the performed request
+     * @param networkResponse the response returned from the {@link Network}
+     * @param startTimeNs     the time when the request was taken from the queue
+     */
+    protected void handleNetworkResponse(final Request<?> request,
+                                         final NetworkResponse networkResponse,
+                                         final long startTimeNs) {
+        try {
+            if (request.isCanceled()) {
+                request.finish(Request.EVENT_ID_NETWORK_DISCARD_CANCELED);
+                return;
+            }
+            request.addMarker(Request.EVENT_ID_NETWORK_HTTP_COMPLETE, networkResponse);
+            if (mQueue instanceof InFlightQueue) {
+                ((InFlightQueue) mQueue).onNetworkResponse(request, networkResponse);
+            }
+
+            // If the server returned 304 AND we delivered a response already,
+            // we're done -- don't deliver a second identical response.
+            if (networkResponse.isNotModified() && request.hasHadResponseDelivered()) {
+                request.finish(Request.EVENT_ID_NOT_MODIFIED);
+                return;
+            }
 
-                Response<?> response;
-                //try parse and wrap withing parse exception in case someone overwrites
-                //Request, which handles this
+            Executor parseExecutor = request.getRequestQueue() == null
+                    ? null : request.getRequestQueue().getParseExecutor();
+            if (parseExecutor != null) {
                 try {
-                    // Parse the response here on the worker threadId.
-                    response = request.parseNetworkResponse(networkResponse);
-                    request.addMarker(Request.EVENT_NETWORK_PARSE_COMPLETE);
-                } catch (Exception ex) {
-                    if(JusError.class.isAssignableFrom(ex.getClass())) {
-                        throw ex;
-                    } else {
-                        throw new ParseError(ex);
-                    }
+                    parseExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            parseAndDeliverResponse(request, networkResponse, startTimeNs);
+                        }
+                    });
+                    return;
+                } catch (RejectedExecutionException e) {
+                    //parse executor is shut down or full, parse here
                 }
-                // Write to cache if applicable.
-                // response.cacheEntry must not be null
-                // TODO: Only update cache metadata instead of entire record for 304s.
-
-                if (request.shouldCache() && response != null && response.cacheEntry != null &&
-                        mCache !=null) {
-                    mCache.put(request.getCacheKey(), response.cacheEntry);
-                    request.addMarker(Request.EVENT_NETWORK_CACHE_WRITTEN);
+            }
+        } catch (Exception e) {
+            handleUnexpectedError(request, e, startTimeNs);
+            return;
+        }
+        parseAndDeliverResponse(request, networkResponse, startTimeNs);
+    }
+
+    /**
+     * Parses, caches and delivers the response of a performed request.
+     *
+     * @param request         the performed request
+     * @param networkResponse the response returned from the {@link Network}
+     * @param startTimeNs     the time when the request was taken from the queue
+     */
+    protected void parseAndDeliverResponse(Request<?> request, NetworkResponse networkResponse,
+                                           long startTimeNs) {
+        try {
+            if (request.isCanceled()) {
+                request.finish(Request.EVENT_ID_NETWORK_DISCARD_CANCELED);
+                return;
+            }
+
+            Response<?> response;
+            //try parse and wrap withing parse exception in case someone overwrites
+            //Request, which handles this
+            try {
+                // Parse the response here on the worker threadId.
+                response = request.parseNetworkResponse(networkResponse);
+                request.addMarker(Request.EVENT_ID_NETWORK_PARSE_COMPLETE);
+            } catch (Exception ex) {
+                if (JusError.class.isAssignableFrom(ex.getClass())) {
+                    throw (JusError) ex;
+                } else {
+                    throw new ParseError(ex);
                 }
+            }
+            // Write to cache if applicable.
+            // response.cacheEntry must not be null
+            // TODO: Only update cache metadata instead of entire record for 304s.
+
+            if (request.shouldCache() && response != null && response.cacheEntry != null &&
+                    mCache != null) {
+                mCache.put(request.getCacheKey(), response.cacheEntry);
+                request.addMarker(Request.EVENT_ID_NETWORK_CACHE_WRITTEN);
+            }
+
+            // Post the response back.
+            request.markDelivered();
+            mDelivery.postResponse(request, response);
+        } catch (JusError jusError) {
+            handleNetworkError(request, jusError, startTimeNs);
+        } catch (Exception e) {
+            handleUnexpectedError(request, e, startTimeNs);
+        }
+    }
 
-                // Post the response back.
-                request.markDelivered();
-                mDelivery.postResponse(request, response);
-            } catch (JusError jusError) {
-                jusError.setNetworkTimeNs(System.nanoTime() - startTimeMs);
-                parseAndDeliverNetworkError(request, jusError);
-            } catch (Exception e) {
-                JusError jusError = new JusError(e);
-                jusError.setNetworkTimeNs(System.nanoTime() - startTimeMs);
-                mDelivery.postError(request, jusError);
+    /**
+     * Delivers the error of a performed request, or hands it over to the
+     * {@link RetryScheduler} of its queue on a {@link RetryLaterError}.
+     *
+     * @param request     the performed request
+     * @param jusError    the error returned from the {@link Network}
+     * @param startTimeNs the time when the request was taken from the queue
+     */
+    protected void handleNetworkError(Request<?> request, JusError jusError, long startTimeNs) {
+        if (jusError instanceof RetryLaterError) {
+            RetryLaterError retryLater = (RetryLaterError) jusError;
+            RequestQueue requestQueue = request.getRequestQueue();
+            if (requestQueue != null && requestQueue.getRetryScheduler() != null) {
+                request.addMarker(Request.EVENT_ID_NETWORK_RETRY_SCHEDULED,
+                        retryLater.getDelayNs());
+                if (mQueue instanceof InFlightQueue) {
+                    ((InFlightQueue) mQueue).release(request);
+                }
+                requestQueue.getRetryScheduler().schedule(request, retryLater.getDelayNs());
+                return;
             }
+            jusError = retryLater.getCause();
+        }
+        jusError.setNetworkTimeNs(System.nanoTime() - startTimeNs);
+        if (mQueue instanceof InFlightQueue) {
+            ((InFlightQueue) mQueue).onNetworkError(request, jusError);
+        }
+        parseAndDeliverNetworkError(request, jusError);
+    }
+
+    /**
+     * Fails the request with a {@link TimeoutError} if its deadline has passed already, so no
+     * work is done for a response nobody waits for.
+     *
+     * @return true if the request was dropped
+     */
+    protected boolean dropIfExpired(Request<?> request) {
+        if (!request.isExpired()) {
+            return false;
+        }
+        request.addMarker(Request.EVENT_ID_DEADLINE_EXCEEDED);
+        mDelivery.postError(request, new TimeoutError("Deadline exceeded before dispatch"));
+        return true;
+    }
+
+    protected void handleUnexpectedError(Request<?> request, Exception e, long startTimeNs) {
+        JusError jusError = new JusError(e);
+        jusError.setNetworkTimeNs(System.nanoTime() - startTimeNs);
+        if (mQueue instanceof InFlightQueue) {
+            ((InFlightQueue) mQueue).onNetworkError(request, jusError);
         }
+        mDelivery.postError(request, jusError);
     }
 
     private void parseAndDeliverNetworkError(Request<?> request, JusError error) {
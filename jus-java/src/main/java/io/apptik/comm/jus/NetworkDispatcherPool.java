@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.apptik.comm.jus.http.Util;
+
+/**
+ * An elastic pool of {@link NetworkDispatcher}s.
+ * <p>
+ * The pool starts with the minimum number of dispatchers. When all dispatchers are busy and
+ * the network queue holds at least {@link #setGrowQueueDepth(int)} requests, or it has not
+ * been drained for {@link #setMaxQueueWaitMs(long)}, a new dispatcher is added up to the
+ * maximum. The backlog is checked each time a dispatcher takes a request, and by a daemon
+ * monitor thread every half of the max queue wait, at least 1ms apart, while the pool runs.
+ * Dispatchers idle for longer than the keep-alive time are retired down to the minimum.
+ * Each change is reported with {@link RequestQueue#EVENT_NETWORK_DISPATCHER_START} or
+ * {@link RequestQueue#EVENT_NETWORK_DISPATCHER_STOP} queue markers.
+ * </p>
+ * Elastic scaling works with dispatchers using the default {@link NetworkDispatcher#run()}
+ * loop, i.e. the ones created by the default and the Android dispatcher factories.
+ *
+ * @see RequestQueue#withNetworkDispatcherPool(NetworkDispatcherPool)
+ */
+public class NetworkDispatcherPool {
+
+    public static final int DEFAULT_GROW_QUEUE_DEPTH = 4;
+    public static final long DEFAULT_MAX_QUEUE_WAIT_MS = 100;
+    private static final long MIN_MONITOR_PERIOD_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int minSize;
+    private final int maxSize;
+    private final long keepAliveMs;
+    private int growQueueDepth = DEFAULT_GROW_QUEUE_DEPTH;
+    private long maxQueueWaitNs = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_QUEUE_WAIT_MS);
+
+    private final List<NetworkDispatcher> dispatchers = new ArrayList<>();
+    private final AtomicInteger idle = new AtomicInteger();
+    /**
+     * Since when the network queue has not been drained, 0 if it was drained
+     */
+    private volatile long backlogSinceNs = 0;
+    private RequestQueue requestQueue;
+    private NetworkDispatcher.NetworkDispatcherFactory factory;
+    private boolean stopped = true;
+    private ScheduledThreadPoolExecutor monitor;
+
+    /**
+     * @param minSize     minimum number of dispatchers kept alive
+     * @param maxSize     maximum number of dispatchers
+     * @param keepAliveMs time after which an idle dispatcher above the minimum is retired
+     */
+    public NetworkDispatcherPool(int minSize, int maxSize, long keepAliveMs) {
+        if (minSize < 1) {
+            throw new IllegalArgumentException("minSize < 1");
+        }
+        if (maxSize < minSize) {
+            throw new IllegalArgumentException("maxSize < minSize");
+        }
+        if (keepAliveMs < 0) {
+            throw new IllegalArgumentException("keepAliveMs < 0");
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.keepAliveMs = keepAliveMs;
+    }
+
+    /**
+     * @param growQueueDepth number of waiting requests which triggers a new dispatcher when all
+     *                       dispatchers are busy
+     */
+    public NetworkDispatcherPool setGrowQueueDepth(int growQueueDepth) {
+        if (growQueueDepth < 1) {
+            throw new IllegalArgumentException("growQueueDepth < 1");
+        }
+        this.growQueueDepth = growQueueDepth;
+        return this;
+    }
+
+    /**
+     * @param maxQueueWaitMs time for which the queue may stay non-empty while all dispatchers
+     *                       are busy before a new dispatcher is added
+     */
+    public NetworkDispatcherPool setMaxQueueWaitMs(long maxQueueWaitMs) {
+        if (maxQueueWaitMs < 0) {
+            throw new IllegalArgumentException("maxQueueWaitMs < 0");
+        }
+        this.maxQueueWaitNs = TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMs);
+        return this;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the current number of dispatchers
+     */
+    public synchronized int size() {
+        return dispatchers.size();
+    }
+
+    synchronized void start(RequestQueue requestQueue,
+                            NetworkDispatcher.NetworkDispatcherFactory factory) {
+        stop();
+        this.requestQueue = requestQueue;
+        this.factory = factory;
+        this.stopped = false;
+        this.backlogSinceNs = 0;
+        for (int i = 0; i < minSize; i++) {
+            spawn();
+        }
+        final BlockingQueue<Request<?>> queue = factory.mQueue;
+        long periodNs = Math.max(maxQueueWaitNs / 2, MIN_MONITOR_PERIOD_NS);
+        monitor = new ScheduledThreadPoolExecutor(1,
+                Util.threadFactory("JusNetworkDispatcherPool", true));
+        monitor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkBacklog(queue.size());
+            }
+        }, periodNs, periodNs, TimeUnit.NANOSECONDS);
+    }
+
+    synchronized void stop() {
+        stopped = true;
+        if (monitor != null) {
+            monitor.shutdownNow();
+            monitor = null;
+        }
+        for (NetworkDispatcher dispatcher : dispatchers) {
+            dispatcher.quit();
+            requestQueue.addMarker(RequestQueue.EVENT_NETWORK_DISPATCHER_STOP, dispatcher);
+        }
+        dispatchers.clear();
+    }
+
+    private synchronized void spawn() {
+        if (stopped || dispatchers.size() >= maxSize) {
+            return;
+        }
+        NetworkDispatcher dispatcher = factory.create();
+        dispatcher.pool = this;
+        dispatchers.add(dispatcher);
+        dispatcher.start();
+        requestQueue.addMarker(RequestQueue.EVENT_NETWORK_DISPATCHER_START, dispatcher);
+    }
+
+    private synchronized boolean retire(NetworkDispatcher dispatcher) {
+        if (stopped || dispatchers.size() <= minSize || !dispatchers.remove(dispatcher)) {
+            return false;
+        }
+        requestQueue.addMarker(RequestQueue.EVENT_NETWORK_DISPATCHER_STOP, dispatcher);
+        return true;
+    }
+
+    /**
+     * Takes the next request for the dispatcher.
+     *
+     * @return the request or null if the dispatcher was retired and shall exit
+     */
+    Request<?> take(NetworkDispatcher dispatcher, BlockingQueue<Request<?>> queue)
+            throws InterruptedException {
+        while (true) {
+            Request<?> request;
+            idle.incrementAndGet();
+            try {
+                request = queue.poll(keepAliveMs, TimeUnit.MILLISECONDS);
+            } finally {
+                idle.decrementAndGet();
+            }
+            if (request == null) {
+                backlogSinceNs = 0;
+                if (retire(dispatcher)) {
+                    return null;
+                }
+                continue;
+            }
+            checkBacklog(queue.size());
+            return request;
+        }
+    }
+
+    private void checkBacklog(int pending) {
+        if (pending == 0) {
+            backlogSinceNs = 0;
+            return;
+        }
+        long now = System.nanoTime();
+        long since = backlogSinceNs;
+        if (since == 0) {
+            backlogSinceNs = now;
+            since = now;
+        }
+        if (idle.get() == 0 && (pending >= growQueueDepth || now - since >= maxQueueWaitNs)) {
+            //give the new dispatcher a full wait window before growing again
+            backlogSinceNs = now;
+            spawn();
+        }
+    }
+}
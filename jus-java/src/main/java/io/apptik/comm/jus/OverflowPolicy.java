@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides what happens to a request added to a full {@link RequestQueue}.
+ */
+public interface OverflowPolicy {
+
+    /**
+     * This is called from {@link RequestQueue#add(Request)} whenever the queue already holds
+     * {@link AdmissionControl#getMaxRequests()} requests. Rejected requests get a
+     * {@link io.apptik.comm.jus.error.RejectedError}.
+     *
+     * @param admissionControl the admission control of the queue, used to wait for or to make
+     *                         a free slot
+     * @param request          the request being added
+     * @return true if a slot was acquired for the request, false to reject it
+     */
+    boolean onOverflow(AdmissionControl admissionControl, Request<?> request);
+
+    /**
+     * Rejects the request.
+     */
+    class RejectOverflowPolicy implements OverflowPolicy {
+        @Override
+        public boolean onOverflow(AdmissionControl admissionControl, Request<?> request) {
+            return false;
+        }
+    }
+
+    /**
+     * Drops the queued request with the lowest priority to make room, if it is lower than the
+     * priority of the request, otherwise rejects the request.
+     */
+    class DropLowestPriorityOverflowPolicy implements OverflowPolicy {
+        @Override
+        public boolean onOverflow(AdmissionControl admissionControl, Request<?> request) {
+            return admissionControl.dropLowerPriority(request)
+                    || admissionControl.tryAcquire();
+        }
+    }
+
+    /**
+     * Blocks the adding thread until a slot is free, rejects the request on timeout.
+     */
+    class BlockOverflowPolicy implements OverflowPolicy {
+        private final long timeout;
+        private final TimeUnit unit;
+
+        public BlockOverflowPolicy(long timeout, TimeUnit unit) {
+            this.timeout = timeout;
+            this.unit = unit;
+        }
+
+        @Override
+        public boolean onOverflow(AdmissionControl admissionControl, Request<?> request) {
+            try {
+                return admissionControl.tryAcquire(timeout, unit);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+/**
+ * A cache or network queue which can remove a canceled request in constant time. The
+ * {@link RequestQueue} removes and finishes canceled requests right away when they are queued
+ * in such a queue, instead of keeping them until a dispatcher takes and discards them.
+ * <p>
+ * The queue keeps the slot holding a request on the request itself, see
+ * {@link Request#setQueueSlot(Object)}, so it does not need to search for it.
+ * </p>
+ *
+ * @see io.apptik.comm.jus.toolbox.PriorityLaneQueue
+ * @see io.apptik.comm.jus.toolbox.HostPartitionedQueue
+ */
+public interface PurgeableQueue {
+
+    /**
+     * Removes the request from the queue if it is canceled and still waits in this queue.
+     *
+     * @return true if the request was removed
+     */
+    boolean removeCanceled(Request<?> request);
+}
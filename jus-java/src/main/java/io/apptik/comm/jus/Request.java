@@ -20,12 +20,12 @@ package io.apptik.comm.jus;
 
 
 import java.io.IOException;
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.List;
+import java.util.Comparator;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import io.apptik.comm.jus.auth.Authenticator;
 import io.apptik.comm.jus.error.JusError;
@@ -34,7 +34,6 @@ import io.apptik.comm.jus.http.HttpUrl;
 import io.apptik.comm.jus.toolbox.HttpHeaderParser;
 import io.apptik.comm.jus.toolbox.Utils;
 
-import static io.apptik.comm.jus.toolbox.Utils.tryIdentifyResultType;
 
 /**
  * Base class for all network requests.
@@ -207,6 +206,11 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
      * </ol>
      */
     public static final String EVENT_NETWORK_RETRY_FAILED = "network-retry-failed";
+    /**
+     * when the Request is handed over to the {@link RetryScheduler} of the queue to be put back
+     * to the network queue after a delay
+     */
+    public static final String EVENT_NETWORK_RETRY_SCHEDULED = "network-retry-scheduled";
     /**
      * when a Response is returned from {@link Network} and is ging to be processed by the
      * {@link NetworkDispatcher}
@@ -278,6 +282,31 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
      * when Cache record is found, but another NetworkRequest will be needed
      */
     public static final String EVENT_CACHE_HIT_REFRESH_NEEDED = "cache-hit-refresh-needed";
+    /**
+     * when the {@link Response} of the in flight request with the same cache or coalescing key
+     * is delivered to this request instead of reading it from the {@link Cache} or the
+     * network again
+     */
+    public static final String EVENT_SHARED_RESPONSE = "shared-response";
+    /**
+     * when the deadline of the Request passed before it was dispatched, so it fails with a
+     * {@link io.apptik.comm.jus.error.TimeoutError} without any I/O
+     */
+    public static final String EVENT_DEADLINE_EXCEEDED = "deadline-exceeded";
+    /**
+     * when a duplicate of the Request was sent because it had no response within the hedge
+     * delay, see {@link io.apptik.comm.jus.toolbox.HedgingNetwork}
+     */
+    public static final String EVENT_NETWORK_HEDGE = "network-hedge";
+    /**
+     * when the response of the hedged duplicate came first and the original attempt was
+     * cancelled
+     */
+    public static final String EVENT_NETWORK_HEDGE_WON = "network-hedge-won";
+    /**
+     * when the Request failed fast because the {@link CircuitBreaker} of its backend is open
+     */
+    public static final String EVENT_CIRCUIT_OPEN = "circuit-open";
     /**
      * just before the response is delivered i.e.
      * {@link RequestListener.ResponseListener#onResponse(Object)} will be called
@@ -289,6 +318,51 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
      */
     public static final String EVENT_DELIVER_ERROR = "deliver error";
 
+    /*
+     * The ids of the events above, see Marker#nameOf(int). Marking an event by its id with the
+     * fixed arity addMarker(int, ...) methods allocates nothing unless a MarkerListener listens.
+     */
+    public static final int EVENT_ID_CACHE_HIT_EXPIRED = 0;
+    public static final int EVENT_ID_POST_ERROR = 1;
+    public static final int EVENT_ID_POST_RESPONSE = 2;
+    public static final int EVENT_ID_INTERMEDIATE_RESPONSE = 3;
+    public static final int EVENT_ID_CANCELED_AT_DELIVERY = 4;
+    public static final int EVENT_ID_DONE = 5;
+    public static final int EVENT_ID_NETWORK_QUEUE_TAKE = 6;
+    public static final int EVENT_ID_NETWORK_STACK_SEND = 7;
+    public static final int EVENT_ID_NETWORK_STACK_AUTH_ERROR = 8;
+    public static final int EVENT_ID_NETWORK_STACK_AUTH_PROXY_ERROR = 9;
+    public static final int EVENT_ID_NETWORK_STACK_AUTH_ERROR_RESEND = 10;
+    public static final int EVENT_ID_NETWORK_STACK_REDIRECT_SEND = 11;
+    public static final int EVENT_ID_NETWORK_STACK_REDIRECT_COMPLETE = 12;
+    public static final int EVENT_ID_NETWORK_STACK_COMPLETE = 13;
+    public static final int EVENT_ID_NETWORK_TRANSFORM_COMPLETE = 14;
+    public static final int EVENT_ID_NETWORK_DISCARD_CANCELED = 15;
+    public static final int EVENT_ID_NETWORK_RETRY = 16;
+    public static final int EVENT_ID_NETWORK_RETRY_FAILED = 17;
+    public static final int EVENT_ID_NETWORK_RETRY_SCHEDULED = 18;
+    public static final int EVENT_ID_NETWORK_HTTP_COMPLETE = 19;
+    public static final int EVENT_ID_NOT_MODIFIED = 20;
+    public static final int EVENT_ID_NETWORK_PARSE_COMPLETE = 21;
+    public static final int EVENT_ID_NETWORK_CACHE_WRITTEN = 22;
+    public static final int EVENT_ID_PRE_ADD_TO_QUEUE = 23;
+    public static final int EVENT_ID_ADD_TO_QUEUE = 24;
+    public static final int EVENT_ID_CACHE_QUEUE_TAKE = 25;
+    public static final int EVENT_ID_CACHE_DISCARD_CANCELED = 26;
+    public static final int EVENT_ID_ADD_DISCARD_CANCELED = EVENT_ID_CACHE_DISCARD_CANCELED;
+    public static final int EVENT_ID_CACHE_MISS = 27;
+    public static final int EVENT_ID_CACHE_HIT_EXPIRED_BUT_WILL_DELIVER_IT = 28;
+    public static final int EVENT_ID_CACHE_HIT = 29;
+    public static final int EVENT_ID_CACHE_HIT_PARSED = 30;
+    public static final int EVENT_ID_CACHE_HIT_REFRESH_NEEDED = 31;
+    public static final int EVENT_ID_SHARED_RESPONSE = 32;
+    public static final int EVENT_ID_DEADLINE_EXCEEDED = 33;
+    public static final int EVENT_ID_NETWORK_HEDGE = 34;
+    public static final int EVENT_ID_NETWORK_HEDGE_WON = 35;
+    public static final int EVENT_ID_CIRCUIT_OPEN = 36;
+    public static final int EVENT_ID_DELIVER_RESPONSE = 37;
+    public static final int EVENT_ID_DELIVER_ERROR = 38;
+
 
     /**
      * Default encoding for POST or PUT parameters.
@@ -348,7 +422,11 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
                     PRI.equals(method));
         }
 
-        static boolean canRetry(String method) {
+        /**
+         * @return true if a request with this method can be sent again, i.e. it is safe or
+         * idempotent
+         */
+        public static boolean canRetry(String method) {
             return  isSafe(method) ||  isIdempotent(method);
         }
 
@@ -371,20 +449,35 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
      */
     private final int mDefaultTrafficStatsTag;
 
+    private static final Object[] NO_LISTENERS = new Object[0];
+    private static final Object[] NO_ARGS = new Object[0];
+
+    /**
+     * Guards the changes of the listeners. They are copied on write, so notifying them does not
+     * lock nor allocate. Each array only holds listeners of the type it is named after, read
+     * via {@link #listener(Object[], int)}.
+     */
+    private final Object listenersLock = new Object();
+
     /**
      * RequestListener interface for errors.
      */
-    private final List<RequestListener.ErrorListener> errorListeners = new ArrayList<>();
+    private volatile Object[] errorListeners = NO_LISTENERS;
 
     /**
      * RequestListener interface for non error responses.
      */
-    private final List<RequestListener.ResponseListener<T>> responseListeners = new ArrayList<>();
+    private volatile Object[] responseListeners = NO_LISTENERS;
 
     /**
      * RequestListener interface for markers.
      */
-    private final List<RequestListener.MarkerListener> markerListeners = new ArrayList<>();
+    private volatile Object[] markerListeners = NO_LISTENERS;
+
+    /**
+     * RequestListener interface for the request being finished.
+     */
+    private volatile Object[] doneListeners = NO_LISTENERS;
 
     /**
      * Sequence number of this request, used to enforce FIFO ordering.
@@ -406,6 +499,11 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
      */
     private boolean shouldCache = true;
 
+    /**
+     * Whether or not concurrent identical requests should share one network call.
+     */
+    private boolean coalesce = false;
+
     /**
      * Whether or not this request has been canceled.
      */
@@ -434,6 +532,21 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
      */
     private RedirectPolicy redirectPolicy;
 
+    /**
+     * The circuit breaker of the backend of this request.
+     */
+    private CircuitBreaker circuitBreaker;
+
+    /**
+     * Records the markers of this request, set by the {@link RequestQueue} if it has one.
+     */
+    volatile MarkerRecorder markerRecorder;
+
+    /**
+     * The slot holding this request in the {@link PurgeableQueue} it was last added to.
+     */
+    private volatile Object queueSlot;
+
     /**
      * When a request can be retrieved from cache but must be refreshed from
      * the network, the cache entry will be stored here so that in the event of
@@ -458,6 +571,12 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
 
     private Priority priority = Priority.NORMAL;
 
+    /**
+     * Absolute deadline in {@link System#nanoTime()} terms, valid only if {@link #hasDeadline}
+     */
+    private long deadlineNs = 0;
+    private boolean hasDeadline = false;
+
     //used only until added to the queue to identify Response Converter
     private Type responseType = null;
 
@@ -592,9 +711,9 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
 
     public <R extends Request<T>> R addResponseListener(RequestListener.ResponseListener<T>
                                                                 responseListener) {
-        if (responseListeners != null) {
-            synchronized (responseListeners) {
-                this.responseListeners.add(responseListener);
+        if (responseListener != null) {
+            synchronized (listenersLock) {
+                this.responseListeners = added(responseListeners, responseListener);
             }
         }
         return (R) this;
@@ -603,8 +722,8 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
     public <R extends Request<T>> R addMarkerListener(RequestListener.MarkerListener
                                                               markerListener) {
         if (markerListener != null) {
-            synchronized (markerListeners) {
-                this.markerListeners.add(markerListener);
+            synchronized (listenersLock) {
+                this.markerListeners = added(markerListeners, markerListener);
             }
         }
         return (R) this;
@@ -612,36 +731,79 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
 
     public <R extends Request<T>> R addErrorListener(RequestListener.ErrorListener errorListener) {
         if (errorListener != null) {
-            synchronized (errorListeners) {
-                this.errorListeners.add(errorListener);
+            synchronized (listenersLock) {
+                this.errorListeners = added(errorListeners, errorListener);
+            }
+        }
+        return (R) this;
+    }
+
+    public <R extends Request<T>> R addDoneListener(RequestListener.DoneListener doneListener) {
+        if (doneListener != null) {
+            synchronized (listenersLock) {
+                this.doneListeners = added(doneListeners, doneListener);
             }
         }
         return (R) this;
     }
 
     public Request<T> removeResponseListener(RequestListener.ResponseListener<T> responseListener) {
-        synchronized (responseListeners) {
-            this.responseListeners.remove(responseListener);
+        synchronized (listenersLock) {
+            this.responseListeners = removed(responseListeners, responseListener);
         }
         return this;
     }
 
     public <R extends Request<T>> R removeMarkerListener(RequestListener.MarkerListener
                                                                  markerListener) {
-        synchronized (markerListeners) {
-            this.markerListeners.remove(markerListener);
+        synchronized (listenersLock) {
+            this.markerListeners = removed(markerListeners, markerListener);
         }
         return (R) this;
     }
 
     public <R extends Request<T>> R removeErrorListener(RequestListener.ErrorListener
                                                                 errorListener) {
-        synchronized (errorListeners) {
-            this.errorListeners.remove(errorListener);
+        synchronized (listenersLock) {
+            this.errorListeners = removed(errorListeners, errorListener);
         }
         return (R) this;
     }
 
+    public <R extends Request<T>> R removeDoneListener(RequestListener.DoneListener
+                                                               doneListener) {
+        synchronized (listenersLock) {
+            this.doneListeners = removed(doneListeners, doneListener);
+        }
+        return (R) this;
+    }
+
+    private static Object[] added(Object[] listeners, Object listener) {
+        Object[] res = Arrays.copyOf(listeners, listeners.length + 1);
+        res[listeners.length] = listener;
+        return res;
+    }
+
+    private static Object[] removed(Object[] listeners, Object listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                Object[] res = Arrays.copyOf(listeners, listeners.length - 1);
+                System.arraycopy(listeners, i + 1, res, i, listeners.length - i - 1);
+                return res;
+            }
+        }
+        return listeners;
+    }
+
+    /**
+     * @return the listener at the index of one of the listener arrays, of the type the array
+     * is named after
+     */
+    @SuppressWarnings("unchecked")
+    private static <L> L listener(Object[] listeners, int index) {
+        return (L) listeners[index];
+    }
+
     //<-- Listeners
 
     public NoConnectionPolicy getNoConnectionPolicy() {
@@ -761,6 +923,14 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
         return (R) this;
     }
 
+    /**
+     * Returns the type of the response if given when creating the request, otherwise null and
+     * the type is identified from the request class.
+     */
+    public Type getResponseType() {
+        return responseType;
+    }
+
     /**
      * Returns the retry policy that should be used  for this request.
      */
@@ -768,6 +938,24 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
         return retryPolicy;
     }
 
+    /**
+     * Sets the circuit breaker of the backend of this request.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public <R extends Request<T>> R setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        checkIfActive();
+        this.circuitBreaker = circuitBreaker;
+        return (R) this;
+    }
+
+    /**
+     * Returns the circuit breaker that should be used for this request.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
     /**
      * Sets the redirect policy for this request.
      *
@@ -788,25 +976,115 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
 
 
     /**
-     * Adds an event to this request's event log; for debugging.
+     * Adds an event to this request's event log; for debugging. The built-in events are
+     * cheaper to add by their id, see {@link #addMarker(int)}.
      */
     public <R extends Request<T>> R addMarker(String tag, Object... args) {
-        Marker marker = new Marker(tag,
+        MarkerRecorder markerRecorder = this.markerRecorder;
+        if (markerRecorder != null) {
+            markerRecorder.record(this, tag);
+        }
+        Object[] listeners = markerListeners;
+        if (listeners.length > 0) {
+            Marker marker = new Marker(tag,
+                    Thread.currentThread().getId(),
+                    Thread.currentThread().getName(),
+                    System.nanoTime());
+            for (int i = 0; i < listeners.length; i++) {
+                RequestListener.MarkerListener markerListener = listener(listeners, i);
+                markerListener.onMarker(marker, args);
+            }
+        }
+        onMarker();
+        return (R) this;
+    }
+
+    /**
+     * Adds a built-in event by its id, one of the {@code EVENT_ID_*} constants. Nothing is
+     * allocated unless a {@link RequestListener.MarkerListener} listens.
+     */
+    public <R extends Request<T>> R addMarker(int id) {
+        MarkerRecorder markerRecorder = this.markerRecorder;
+        if (markerRecorder != null) {
+            markerRecorder.record(this, id);
+        }
+        if (markerListeners.length > 0) {
+            notifyMarker(id, NO_ARGS);
+        }
+        onMarker();
+        return (R) this;
+    }
+
+    /**
+     * Adds a built-in event with one argument, see {@link #addMarker(int)}.
+     */
+    public <R extends Request<T>> R addMarker(int id, Object arg) {
+        MarkerRecorder markerRecorder = this.markerRecorder;
+        if (markerRecorder != null) {
+            markerRecorder.record(this, id);
+        }
+        if (markerListeners.length > 0) {
+            notifyMarker(id, new Object[]{arg});
+        }
+        onMarker();
+        return (R) this;
+    }
+
+    /**
+     * Adds a built-in event with a long argument, which is boxed only if a
+     * {@link RequestListener.MarkerListener} listens, see {@link #addMarker(int)}.
+     */
+    public <R extends Request<T>> R addMarker(int id, long arg) {
+        MarkerRecorder markerRecorder = this.markerRecorder;
+        if (markerRecorder != null) {
+            markerRecorder.record(this, id);
+        }
+        if (markerListeners.length > 0) {
+            notifyMarker(id, new Object[]{arg});
+        }
+        onMarker();
+        return (R) this;
+    }
+
+    /**
+     * Adds a built-in event with two arguments, see {@link #addMarker(int)}.
+     */
+    public <R extends Request<T>> R addMarker(int id, Object arg1, Object arg2) {
+        MarkerRecorder markerRecorder = this.markerRecorder;
+        if (markerRecorder != null) {
+            markerRecorder.record(this, id);
+        }
+        if (markerListeners.length > 0) {
+            notifyMarker(id, new Object[]{arg1, arg2});
+        }
+        onMarker();
+        return (R) this;
+    }
+
+    /**
+     * Returns true if a {@link RequestListener.MarkerListener} listens to this request, so
+     * arguments of markers which are expensive to build can be skipped otherwise.
+     */
+    public final boolean hasMarkerListeners() {
+        return markerListeners.length > 0;
+    }
+
+    private void notifyMarker(int id, Object[] args) {
+        Marker marker = new Marker(id,
                 Thread.currentThread().getId(),
                 Thread.currentThread().getName(),
                 System.nanoTime());
-
-        synchronized (markerListeners) {
-            for (RequestListener.MarkerListener markerListener : markerListeners) {
-                markerListener.onMarker(marker, args);
-            }
+        Object[] listeners = markerListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            RequestListener.MarkerListener markerListener = listener(listeners, i);
+            markerListener.onMarker(marker, args);
         }
+    }
 
+    private void onMarker() {
         if (logSlowRequests && requestBirthTime == 0) {
             requestBirthTime = System.nanoTime();
         }
-
-        return (R) this;
     }
 
     /**
@@ -820,8 +1098,26 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
         }
         addMarker(tag);
         if (!EVENT_DONE.equals(tag)) {
-            addMarker(EVENT_DONE);
+            addMarker(EVENT_ID_DONE);
+        }
+        onFinished();
+    }
+
+    /**
+     * Same as {@link #finish(String)} with the id of a built-in event.
+     */
+    void finish(final int id) {
+        if (requestQueue != null) {
+            requestQueue.finish(this);
+        }
+        addMarker(id);
+        if (id != EVENT_ID_DONE) {
+            addMarker(EVENT_ID_DONE);
         }
+        onFinished();
+    }
+
+    private void onFinished() {
         if (logSlowRequests) {
             long requestTime = System.nanoTime() - requestBirthTime;
             if (requestTime >= SLOW_REQUEST_THRESHOLD_NS) {
@@ -829,8 +1125,15 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
                 //JusLog.d("%d ns: %s", requestTime, this.toString());
             }
         }
-        synchronized (markerListeners) {
-            markerListeners.clear();
+        Object[] done;
+        synchronized (listenersLock) {
+            markerListeners = NO_LISTENERS;
+            done = doneListeners;
+            doneListeners = NO_LISTENERS;
+        }
+        for (int i = 0; i < done.length; i++) {
+            RequestListener.DoneListener doneListener = listener(done, i);
+            doneListener.onDone(this);
         }
     }
 
@@ -842,42 +1145,9 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
      */
     <R extends Request<T>> R setRequestQueue(RequestQueue requestQueue) {
         checkIfActive();
-        java.lang.reflect.Method m = null;
-        if (!(this.getClass().equals(Request.class))) {
-            try {
-                m = this.getClass().getDeclaredMethod("parseNetworkResponse", NetworkResponse
-                        .class);
-            } catch (NoSuchMethodException e) {
-                //e.printStackTrace();
-            }
-        }
         if (converterFromResponse == null) {
-            Type t;
-            if (responseType != null) {
-                t = responseType;
-            } else {
-                t = tryIdentifyResultType(this);
-            }
-            if (t == null) {
-                throw new IllegalArgumentException("Cannot resolve Response type in order to " +
-                        "identify Response Converter for Request : " + this);
-            }
-
-            try {
-                this.converterFromResponse =
-                        (Converter<NetworkResponse, T>) requestQueue
-                                .getResponseConverter(t, new Annotation[0]);
-            } catch (IllegalArgumentException ex) {
-                //check if parseNetworkResponse is overridden
-                if (m == null) {
-                    //it is not so it is for sure that we cannot parse response thus throw
-                    throw ex;
-                }
-                //else keep quiet as conversion can probably be handled by the overridden method.
-                // if it fails parse exception will be thrown.
-            }
-
-
+            this.converterFromResponse =
+                    (Converter<NetworkResponse, T>) requestQueue.getResponseConverter(this);
         }
         if (retryPolicy == null) {
             setRetryPolicy(new DefaultRetryPolicy(this));
@@ -931,6 +1201,28 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
         return getUrlString();
     }
 
+    /**
+     * Returns true if the parsed response of another request with the same cache or coalescing
+     * key can be delivered as is to this request. Used for coalesced requests and when
+     * {@link RequestQueue#withSharedResponses(boolean)} is enabled.
+     * <p>
+     * By default this is the case when both requests are of the same class and parse the
+     * response the same way, i.e. use the same converter instance or converters of the same
+     * class resolved for the same response type.
+     * </p>
+     */
+    protected boolean canShareResponse(Request<?> other) {
+        if (other.getClass() != getClass()) {
+            return false;
+        }
+        if (converterFromResponse == other.converterFromResponse) {
+            return true;
+        }
+        return converterFromResponse != null && other.converterFromResponse != null
+                && converterFromResponse.getClass() == other.converterFromResponse.getClass()
+                && responseType != null && responseType.equals(other.responseType);
+    }
+
     /**
      * Annotates this request with an entry retrieved for it from cache.
      * Used for cache coherency support.
@@ -963,6 +1255,21 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
         return canceled;
     }
 
+    /**
+     * Returns the slot set by the {@link PurgeableQueue} this request was last added to.
+     */
+    public final Object getQueueSlot() {
+        return queueSlot;
+    }
+
+    /**
+     * Used by {@link PurgeableQueue}s to keep the slot holding this request, so it can be
+     * removed when canceled without searching the queue.
+     */
+    public final void setQueueSlot(Object queueSlot) {
+        this.queueSlot = queueSlot;
+    }
+
     /**
      * Returns a list of extra HTTP headers to go along with this request
      */
@@ -1000,6 +1307,45 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
         return null;
     }
 
+    /**
+     * Set whether or not this request should share one network call with concurrent identical
+     * requests which are not cached, see {@link #getCoalescingKey()}.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public final <R extends Request<T>> R setCoalesce(boolean coalesce) {
+        checkIfActive();
+        this.coalesce = coalesce;
+        return (R) this;
+    }
+
+    /**
+     * Returns true if this request should share one network call with concurrent identical
+     * requests.
+     */
+    public final boolean shouldCoalesce() {
+        return coalesce;
+    }
+
+    /**
+     * Returns the key identifying concurrent requests which can share one network call when
+     * they are not cached, or null if this request must always be performed. By default this is
+     * the method, the URL and the headers, e.g. Authorization, for GET and HEAD requests which
+     * {@link #shouldCoalesce()}. Requests with a server or proxy {@link Authenticator} are
+     * never coalesced as their credentials are only known when they are performed.
+     */
+    public String getCoalescingKey() {
+        if (!coalesce || !(Method.GET.equals(method) || Method.HEAD.equals(method))
+                || serverAuthenticator != null || proxyAuthenticator != null) {
+            return null;
+        }
+        Headers headers = getHeaders();
+        if (headers == null || headers.size() == 0) {
+            return method + " " + getUrlString();
+        }
+        return method + " " + getUrlString() + "\n" + headers;
+    }
+
     /**
      * Set whether or not responses to this request should be cached.
      *
@@ -1018,6 +1364,58 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
         return shouldCache;
     }
 
+    /**
+     * Sets the deadline of this request relative to now. A request which is still queued when
+     * its deadline passes is failed with a {@link io.apptik.comm.jus.error.TimeoutError}
+     * instead of being performed.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public final <R extends Request<T>> R setDeadline(long timeout, TimeUnit unit) {
+        return setDeadlineNs(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Sets the absolute deadline of this request in {@link System#nanoTime()} terms.
+     *
+     * @return This Request object to allow for chaining.
+     * @see #setDeadline(long, TimeUnit)
+     */
+    public final <R extends Request<T>> R setDeadlineNs(long deadlineNs) {
+        checkIfActive();
+        this.deadlineNs = deadlineNs;
+        this.hasDeadline = true;
+        return (R) this;
+    }
+
+    public final boolean hasDeadline() {
+        return hasDeadline;
+    }
+
+    /**
+     * Puts back a deadline read via {@link #hasDeadline()} and {@link #getDeadlineNs()}.
+     */
+    final void restoreDeadline(boolean hasDeadline, long deadlineNs) {
+        checkIfActive();
+        this.deadlineNs = deadlineNs;
+        this.hasDeadline = hasDeadline;
+    }
+
+    /**
+     * Returns the absolute deadline in {@link System#nanoTime()} terms, only valid if
+     * {@link #hasDeadline()}.
+     */
+    public final long getDeadlineNs() {
+        return deadlineNs;
+    }
+
+    /**
+     * Returns true if this request has a deadline and it has passed.
+     */
+    public final boolean isExpired() {
+        return hasDeadline && System.nanoTime() - deadlineNs >= 0;
+    }
+
     /**
      * Mark this request as having a response delivered on it.  This can be used
      * later in the request's lifetime for suppressing identical responses.
@@ -1074,17 +1472,15 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
      *                 {@link #parseNetworkResponse(NetworkResponse)}
      */
     protected void deliverResponse(T response) {
-        synchronized (responseListeners) {
-            for (RequestListener.ResponseListener responseListener : responseListeners) {
-                responseListener.onResponse(response);
-            }
-            if (!this.response.intermediate) {
-                responseListeners.clear();
-            }
+        Object[] listeners = responseListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            RequestListener.ResponseListener<T> responseListener = listener(listeners, i);
+            responseListener.onResponse(response);
         }
         if (!this.response.intermediate) {
-            synchronized (errorListeners) {
-                errorListeners.clear();
+            synchronized (listenersLock) {
+                responseListeners = NO_LISTENERS;
+                errorListeners = NO_LISTENERS;
             }
         }
     }
@@ -1096,14 +1492,14 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
      * @param error Error details
      */
     public void deliverError(JusError error) {
-        synchronized (errorListeners) {
-            for (RequestListener.ErrorListener errorListener : errorListeners) {
-                errorListener.onError(error);
-            }
-            errorListeners.clear();
+        Object[] listeners = errorListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            RequestListener.ErrorListener errorListener = listener(listeners, i);
+            errorListener.onError(error);
         }
-        synchronized (responseListeners) {
-            responseListeners.clear();
+        synchronized (listenersLock) {
+            errorListeners = NO_LISTENERS;
+            responseListeners = NO_LISTENERS;
         }
     }
 
@@ -1112,19 +1508,42 @@ public class Request<T> implements Comparable<Request<T>>, Cloneable {
     }
 
 
+    /**
+     * Sorts requests by earliest deadline first, requests without a deadline last, and
+     * secondarily by {@link #compareTo(Request)}. Used by
+     * {@link RequestQueue#withEarliestDeadlineFirst()}.
+     */
+    public static final Comparator<Request<?>> EARLIEST_DEADLINE_FIRST =
+            new Comparator<Request<?>>() {
+                @Override
+                public int compare(Request<?> left, Request<?> right) {
+                    if (left.hasDeadline != right.hasDeadline) {
+                        return left.hasDeadline ? -1 : 1;
+                    }
+                    if (left.hasDeadline && left.deadlineNs != right.deadlineNs) {
+                        return left.deadlineNs - right.deadlineNs < 0 ? -1 : 1;
+                    }
+                    return compareByPriority(left, right);
+                }
+            };
+
     /**
      * Our comparator sorts from high to low priority, and secondarily by
      * sequence number to provide FIFO ordering.
      */
     @Override
     public int compareTo(Request<T> other) {
-        Priority left = this.getPriority();
+        return compareByPriority(this, other);
+    }
+
+    private static int compareByPriority(Request<?> request, Request<?> other) {
+        Priority left = request.getPriority();
         Priority right = other.getPriority();
 
         // High-priority requests are "lesser" so they are sorted to the front.
         // Equal priorities are sorted by sequence number to provide FIFO ordering.
         return left == right ?
-                this.sequence - other.sequence :
+                request.sequence - other.sequence :
                 right.ordinal() - left.ordinal();
     }
 
@@ -51,6 +51,17 @@ public interface RequestListener {
         void onMarker(Marker marker, Object... args);
     }
 
+    /**
+     * Callback interface for requests being done.
+     */
+    interface DoneListener {
+        /**
+         * Called once when the request is finished, after its final response or error was
+         * delivered or when it was canceled.
+         */
+        void onDone(Request<?> request);
+    }
+
     interface ListenerFactory {
         ResponseListener getResponseListener(Request<?> request);
 
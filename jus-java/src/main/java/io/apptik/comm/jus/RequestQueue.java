@@ -21,20 +21,29 @@ package io.apptik.comm.jus;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.apptik.comm.jus.RequestListener.ListenerFactory;
 import io.apptik.comm.jus.auth.Authenticator;
 import io.apptik.comm.jus.converter.BasicConverterFactory;
+import io.apptik.comm.jus.error.RejectedError;
+import io.apptik.comm.jus.http.Util;
 import io.apptik.comm.jus.toolbox.Utils;
 
 import static io.apptik.comm.jus.Converter.Factory;
@@ -53,6 +62,20 @@ public class RequestQueue {
     public static final String EVENT_CACHE_DISPATCHER_STOP = "cache_dispatcher_stop";
     public static final String EVENT_NETWORK_DISPATCHER_START = "network_dispatcher_start";
     public static final String EVENT_NETWORK_DISPATCHER_STOP = "network_dispatcher_stop";
+    public static final String EVENT_REQUEST_REJECTED = "request_rejected";
+
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    /**
+     * Cached for requests parsing responses themselves as the cache does not take nulls.
+     */
+    private static final Converter<NetworkResponse, ?> PARSED_BY_REQUEST =
+            new Converter<NetworkResponse, Object>() {
+                @Override
+                public Object convert(NetworkResponse value) {
+                    throw new UnsupportedOperationException();
+                }
+            };
 
     /**
      * Used for generating monotonically-increasing sequence numbers for requests.
@@ -65,12 +88,19 @@ public class RequestQueue {
      * <ul>
      * <li>containsKey(cacheKey) indicates that there is a request in flight for the given cache
      * key.</li>
-     * <li>get(cacheKey) returns waiting requests for the given cache key. The in flight request
-     * is <em>not</em> contained in that list. Is null if no requests are staged.</li>
+     * <li>get(cacheKey) returns the {@link Stage} with the in flight request and the requests
+     * waiting for it. The in flight request is <em>not</em> contained in the waiting
+     * requests.</li>
      * </ul>
      */
-    private final Map<String, Queue<Request<?>>> waitingRequests =
-            new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Stage> waitingRequests = new ConcurrentHashMap<>();
+
+    /**
+     * Staging area for requests which are not cached but share one network call with an
+     * identical request in flight. Works like {@link #waitingRequests} but is keyed by
+     * {@link Request#getCoalescingKey()}.
+     */
+    private final ConcurrentMap<String, Stage> coalescedRequests = new ConcurrentHashMap<>();
 
     /**
      * The set of all requests currently being processed by this RequestQueue. A Request
@@ -81,16 +111,23 @@ public class RequestQueue {
             = Collections.newSetFromMap(new ConcurrentHashMap<Request<?>, Boolean>());
     //   = new HashSet<Request<?>>();
 
+    /**
+     * The current requests with a tag by their tag, for {@link #cancelAll(Object)}. Each set
+     * is guarded by itself and removed from the map when it gets empty.
+     */
+    private final ConcurrentMap<Object, Set<Request<?>>> taggedRequests =
+            new ConcurrentHashMap<>();
+
     /**
      * The cache triage queue.
      */
-    protected final PriorityBlockingQueue<Request<?>> cacheQueue =
+    protected BlockingQueue<Request<?>> cacheQueue =
             new PriorityBlockingQueue<>();
 
     /**
      * The queue of requests that are actually going out to the network.
      */
-    protected final PriorityBlockingQueue<Request<?>> networkQueue =
+    protected BlockingQueue<Request<?>> networkQueue =
             new PriorityBlockingQueue<>();
 
     /**
@@ -98,6 +135,11 @@ public class RequestQueue {
      */
     public static final int DEFAULT_NETWORK_THREAD_POOL_SIZE = 4;
 
+    /**
+     * Time idle parse threads are kept alive.
+     */
+    private static final long PARSE_THREAD_KEEP_ALIVE_MS = 10000;
+
     /**
      * Cache interface for retrieving and storing responses.
      */
@@ -123,13 +165,60 @@ public class RequestQueue {
      */
     protected CacheDispatcher cacheDispatcher;
 
+    /**
+     * All cache dispatchers, the first one being {@link #cacheDispatcher}.
+     */
+    protected CacheDispatcher[] cacheDispatchers = new CacheDispatcher[1];
+
+    /**
+     * Creates the cache dispatchers not set via {@link #withCacheDispatcher(CacheDispatcher)}.
+     */
+    protected CacheDispatcher.CacheDispatcherFactory cacheDispatcherFactory;
+
     /**
      * Network dispatcher factory
      */
     protected NetworkDispatcher.NetworkDispatcherFactory networkDispatcherFactory;
 
+    /**
+     * Elastic pool of network dispatchers, used instead of {@link #networkDispatchers} if set.
+     */
+    protected NetworkDispatcherPool networkDispatcherPool;
+
+    /**
+     * Bounds the number of requests, null if unbounded.
+     */
+    protected AdmissionControl admissionControl;
+
+    /**
+     * Schedules the retries of failed attempts, null if they are retried right away.
+     */
+    protected RetryScheduler retryScheduler;
+
+    /**
+     * Parses responses and cache hits, null if they are parsed on the dispatcher threads.
+     */
+    protected Executor parseExecutor;
+
+    /**
+     * Records the markers of the requests of this queue, null if they are not recorded.
+     */
+    protected MarkerRecorder markerRecorder;
+
     private final List<Authenticator.Factory> authenticatorFactories = new ArrayList<>();
     private final List<Converter.Factory> converterFactories = new ArrayList<>();
+    /**
+     * Response converters resolved per request class and response type, see
+     * {@link #getResponseConverter(Request)}.
+     */
+    private final ConcurrentMap<ConverterKey, Converter<NetworkResponse, ?>> responseConverters =
+            new ConcurrentHashMap<>();
+    /**
+     * Bumped under the lock of {@link #converterFactories} whenever they change, so converters
+     * resolved from the old factories are not cached after {@link #responseConverters} is
+     * cleared.
+     */
+    private volatile int converterFactoriesVersion;
     private final List<Transformer.RequestTransformer> requestTransformers = new ArrayList<>();
     private final List<Transformer.ResponseTransformer> responseTransformers = new ArrayList<>();
 
@@ -140,10 +229,16 @@ public class RequestQueue {
      */
     private final List<RequestListener.MarkerListener> markerListeners = new ArrayList<>();
 
+    /**
+     * Whether staged requests get the response of the in flight request directly.
+     */
+    private volatile boolean shareResponses = false;
+
     private RetryPolicy.Factory retryPolicyFactory = null;
     private RedirectPolicy.Factory redirectPolicyFactory = null;
     private ConnectivityManager.Factory connectivityManagerFactory = null;
     private NoConnectionPolicy.Factory noConnectionPolicyFactory = null;
+    private CircuitBreaker.Factory circuitBreakerFactory = null;
 
     /**
      * Creates the worker pool. Processing will not begin until {@link #start()} is called.
@@ -190,6 +285,168 @@ public class RequestQueue {
         this(cache, network, DEFAULT_NETWORK_THREAD_POOL_SIZE);
     }
 
+    /**
+     * Replaces the cache triage queue, which by default is a {@link PriorityBlockingQueue}, e.g.
+     * with {@link io.apptik.comm.jus.toolbox.PriorityLaneQueue}.
+     * Must be called before any dispatcher or dispatcher factory is set and before requests
+     * are added.
+     */
+    public RequestQueue withCacheQueue(BlockingQueue<Request<?>> cacheQueue) {
+        checkQueueReplaceable();
+        this.cacheQueue = checkNotNull(cacheQueue, "cacheQueue==null");
+        return this;
+    }
+
+    /**
+     * Replaces the network queue, which by default is a {@link PriorityBlockingQueue}, e.g.
+     * with {@link io.apptik.comm.jus.toolbox.HostPartitionedQueue} or
+     * {@link io.apptik.comm.jus.toolbox.PriorityLaneQueue}.
+     * Must be called before any dispatcher or dispatcher factory is set and before requests
+     * are added.
+     */
+    public RequestQueue withNetworkQueue(BlockingQueue<Request<?>> networkQueue) {
+        checkQueueReplaceable();
+        this.networkQueue = checkNotNull(networkQueue, "networkQueue==null");
+        return this;
+    }
+
+    /**
+     * When enabled, the successful response of a cacheable request is delivered as is to the
+     * duplicate requests staged for its cache key, if they
+     * {@link Request#canShareResponse(Request) can share it}, instead of sending them back to
+     * the cache queue to read and parse the same cache entry again. Other staged requests go
+     * through the cache queue as usual.
+     */
+    public RequestQueue withSharedResponses(boolean shareResponses) {
+        this.shareResponses = shareResponses;
+        return this;
+    }
+
+    /**
+     * Bounds the number of requests this queue holds, queued or in flight. When it is full,
+     * the overflow policy decides what happens to the added request. Rejected and dropped
+     * requests get a {@link RejectedError} and a {@link #EVENT_REQUEST_REJECTED} queue marker.
+     * Must be called before requests are added.
+     *
+     * @param maxRequests    maximum number of requests
+     * @param overflowPolicy e.g. {@link OverflowPolicy.RejectOverflowPolicy},
+     *                       {@link OverflowPolicy.DropLowestPriorityOverflowPolicy} or
+     *                       {@link OverflowPolicy.BlockOverflowPolicy}
+     */
+    public RequestQueue withMaxRequests(int maxRequests, OverflowPolicy overflowPolicy) {
+        checkNotNull(overflowPolicy, "overflowPolicy==null");
+        if (!currentRequests.isEmpty()) {
+            throw new IllegalStateException("Admission control must be set before requests " +
+                    "are added");
+        }
+        this.admissionControl = new AdmissionControl(this, maxRequests, overflowPolicy);
+        return this;
+    }
+
+    public AdmissionControl getAdmissionControl() {
+        return admissionControl;
+    }
+
+    /**
+     * Retries failed attempts after an exponential backoff with jitter, or after the
+     * {@code Retry-After} of a 429 or 503 response, instead of right away on the same
+     * dispatcher thread. In the meantime the dispatcher serves other requests. The number of
+     * attempts is still bound by the {@link RetryPolicy} of the request.
+     *
+     * @param baseDelay the delay before the first retry
+     * @param maxDelay  the max delay before a retry
+     * @param unit      the unit of the delays
+     * @see RetryScheduler
+     */
+    public RequestQueue withScheduledRetries(long baseDelay, long maxDelay, TimeUnit unit) {
+        if (retryScheduler != null) {
+            retryScheduler.stop();
+        }
+        this.retryScheduler = new RetryScheduler(this, baseDelay, maxDelay, unit);
+        return this;
+    }
+
+    public RetryScheduler getRetryScheduler() {
+        return retryScheduler;
+    }
+
+    /**
+     * Parses responses, writes them to the cache and delivers them on the given executor
+     * instead of the network dispatcher threads. Cache hits are parsed there as well instead of
+     * on the cache dispatcher threads. This way a slow parse of a large body does not hold a
+     * dispatcher, and the number of dispatchers, bound by I/O, can be tuned separately from
+     * the parse parallelism, bound by the CPU cores.
+     *
+     * @param parseExecutor the executor or null to parse on the dispatcher threads
+     * @see #withParseThreadPoolSize(int)
+     */
+    public RequestQueue withParseExecutor(Executor parseExecutor) {
+        this.parseExecutor = parseExecutor;
+        return this;
+    }
+
+    /**
+     * Parses responses and cache hits on a pool of the given number of threads, usually
+     * {@code Runtime.getRuntime().availableProcessors()}. The threads are daemons and
+     * each one is stopped after being idle for 10 seconds, so an idle queue holds no parse
+     * threads.
+     *
+     * @param threadPoolSize Number of parse threads
+     * @see #withParseExecutor(Executor)
+     */
+    public RequestQueue withParseThreadPoolSize(int threadPoolSize) {
+        if (threadPoolSize < 1) {
+            throw new IllegalArgumentException("threadPoolSize < 1");
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadPoolSize, threadPoolSize,
+                PARSE_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                Util.threadFactory("JusParseDispatcher", true));
+        executor.allowCoreThreadTimeOut(true);
+        return withParseExecutor(executor);
+    }
+
+    public Executor getParseExecutor() {
+        return parseExecutor;
+    }
+
+    /**
+     * Records the markers of the requests added to this queue in the given recorder, in
+     * addition to notifying their marker listeners. Unlike the listeners the recorder does not
+     * create a {@link Marker} per event, so it can be left on in production.
+     *
+     * @param markerRecorder the recorder or null to stop recording
+     */
+    public RequestQueue withMarkerRecorder(MarkerRecorder markerRecorder) {
+        this.markerRecorder = markerRecorder;
+        return this;
+    }
+
+    public MarkerRecorder getMarkerRecorder() {
+        return markerRecorder;
+    }
+
+    /**
+     * Replaces the cache and network queues with queues ordered by
+     * {@link Request#EARLIEST_DEADLINE_FIRST}, so requests with the nearest
+     * {@link Request#setDeadline(long, TimeUnit) deadline} are dispatched first regardless of
+     * their priority. Must be called before any dispatcher or dispatcher factory is set and
+     * before requests are added.
+     */
+    public RequestQueue withEarliestDeadlineFirst() {
+        withCacheQueue(new PriorityBlockingQueue<Request<?>>(11, Request.EARLIEST_DEADLINE_FIRST));
+        return withNetworkQueue(new PriorityBlockingQueue<Request<?>>(11,
+                Request.EARLIEST_DEADLINE_FIRST));
+    }
+
+    private void checkQueueReplaceable() {
+        if (cacheDispatcher != null || networkDispatcherFactory != null
+                || !currentRequests.isEmpty()) {
+            throw new IllegalStateException("Queues must be set before dispatchers and " +
+                    "requests");
+        }
+    }
+
     public RequestQueue withCacheDispatcher(CacheDispatcher cacheDispatcher) {
         if (this.cacheDispatcher != null) {
             this.cacheDispatcher.quit();
@@ -198,6 +455,31 @@ public class RequestQueue {
         return this;
     }
 
+    public RequestQueue withCacheDispatcherFactory(CacheDispatcher.CacheDispatcherFactory
+                                                           cacheDispatcherFactory) {
+        quitCacheDispatchers();
+        this.cacheDispatcherFactory = cacheDispatcherFactory;
+        return this;
+    }
+
+    /**
+     * Sets the number of cache dispatchers, 1 by default. Requests are still taken in priority
+     * order, while cache reads and parsing of hits run in parallel. Requests with the same
+     * cache key are not affected as they are staged in {@link #waitingRequests} until the
+     * first one is done.
+     * If the queue is already running it needs to be restarted via {@link #start()}.
+     *
+     * @param threadPoolSize Number of cache dispatcher threads to create
+     */
+    public RequestQueue withCacheThreadPoolSize(int threadPoolSize) {
+        if (threadPoolSize < 1) {
+            throw new IllegalArgumentException("threadPoolSize < 1");
+        }
+        quitCacheDispatchers();
+        this.cacheDispatchers = new CacheDispatcher[threadPoolSize];
+        return this;
+    }
+
     public RequestQueue withNetworkDispatcherFactory(NetworkDispatcher.NetworkDispatcherFactory
                                                              networkDispatcherFactory) {
         for (NetworkDispatcher networkDispatcher : networkDispatchers) {
@@ -209,6 +491,42 @@ public class RequestQueue {
         return this;
     }
 
+    /**
+     * Performs each network request on its own thread created by the given factory instead of
+     * a fixed pool of network dispatcher threads. The blocking {@link Network} is kept, so with
+     * a virtual thread factory (Java 21+), i.e. {@code Thread.ofVirtual().factory()}, slow
+     * requests do not need to be balanced against the thread pool size.
+     * If the queue is already running it needs to be restarted via {@link #start()}.
+     *
+     * @param threadFactory         factory creating a thread for each request
+     * @param maxConcurrentRequests maximum number of requests in flight
+     */
+    public RequestQueue withNetworkThreadFactory(ThreadFactory threadFactory,
+                                                 int maxConcurrentRequests) {
+        withNetworkDispatcherFactory(
+                new ThreadPerRequestNetworkDispatcher.ThreadPerRequestNetworkDispatcherFactory(
+                        networkQueue, network, cache, delivery, threadFactory,
+                        maxConcurrentRequests));
+        //a single dispatcher only takes requests from the queue
+        this.networkDispatchers = new NetworkDispatcher[1];
+        return this;
+    }
+
+    /**
+     * Uses an elastic pool of network dispatchers, growing and shrinking with the load of the
+     * network queue, instead of the fixed number of dispatchers.
+     * If the queue is already running it needs to be restarted via {@link #start()}.
+     *
+     * @param networkDispatcherPool the pool or null to use the fixed dispatchers
+     */
+    public RequestQueue withNetworkDispatcherPool(NetworkDispatcherPool networkDispatcherPool) {
+        if (this.networkDispatcherPool != null) {
+            this.networkDispatcherPool.stop();
+        }
+        this.networkDispatcherPool = networkDispatcherPool;
+        return this;
+    }
+
     /**
      * Create network dispatchers (and corresponding threads) up to the pool size.
      */
@@ -219,6 +537,11 @@ public class RequestQueue {
                             cache, delivery);
         }
 
+        if (networkDispatcherPool != null) {
+            networkDispatcherPool.start(this, networkDispatcherFactory);
+            return;
+        }
+
         for (int i = 0; i < networkDispatchers.length; i++) {
             networkDispatchers[i] = networkDispatcherFactory.create();
             networkDispatchers[i].start();
@@ -227,22 +550,52 @@ public class RequestQueue {
         }
     }
 
+    /**
+     * Create cache dispatchers (and corresponding threads) up to the pool size.
+     */
+    private void setUpCacheDispatchers() {
+        if (cacheDispatcherFactory == null) {
+            cacheDispatcherFactory = new CacheDispatcher.CacheDispatcherFactory(cacheQueue,
+                    networkQueue, cache, delivery);
+        }
+        //threads cannot be restarted
+        if (cacheDispatcher == null || cacheDispatcher.getState() != Thread.State.NEW) {
+            cacheDispatcher = cacheDispatcherFactory.create();
+        }
+        cacheDispatchers[0] = cacheDispatcher;
+        for (int i = 1; i < cacheDispatchers.length; i++) {
+            cacheDispatchers[i] = cacheDispatcherFactory.create();
+        }
+        for (CacheDispatcher dispatcher : cacheDispatchers) {
+            dispatcher.start();
+            addMarker(EVENT_CACHE_DISPATCHER_START, dispatcher);
+        }
+    }
+
+    private void quitCacheDispatchers() {
+        for (CacheDispatcher dispatcher : cacheDispatchers) {
+            //a dispatcher which is not started yet is kept to be started later
+            if (dispatcher != null && dispatcher.getState() != Thread.State.NEW) {
+                dispatcher.quit();
+                addMarker(EVENT_CACHE_DISPATCHER_STOP, dispatcher);
+            }
+        }
+    }
+
     /**
      * Starts the dispatchers in this queue.
      */
     public void start() {
         stop();  // Make sure any currently running dispatchers are stopped.
-        // Create the cache dispatcher and start it.
-
-
-        if (cacheDispatcher == null) {
-            cacheDispatcher = new CacheDispatcher(cacheQueue, networkQueue, cache, delivery);
-        }
-        cacheDispatcher.start();
-        addMarker(EVENT_CACHE_DISPATCHER_START, cacheDispatcher);
+        // Create the cache dispatchers and start them.
+        setUpCacheDispatchers();
 
         // Create network dispatchers (and corresponding threads) up to the pool size.
         setUpNetworkDispatchers();
+
+        if (retryScheduler != null) {
+            retryScheduler.start();
+        }
     }
 
     /**
@@ -317,11 +670,7 @@ public class RequestQueue {
      * Stops the cache and network dispatchers.
      */
     public void stop() {
-        if (cacheDispatcher != null) {
-            cacheDispatcher.quit();
-            addMarker(EVENT_CACHE_DISPATCHER_STOP, cacheDispatcher);
-
-        }
+        quitCacheDispatchers();
         for (NetworkDispatcher netDispatcher : networkDispatchers) {
             if (netDispatcher != null) {
                 netDispatcher.quit();
@@ -329,6 +678,12 @@ public class RequestQueue {
 
             }
         }
+        if (networkDispatcherPool != null) {
+            networkDispatcherPool.stop();
+        }
+        if (retryScheduler != null) {
+            retryScheduler.stop();
+        }
     }
 
     /**
@@ -351,29 +706,110 @@ public class RequestQueue {
      * @param filter The filtering function to use
      */
     public void cancelAll(RequestFilter filter) {
-        synchronized (currentRequests) {
-            for (Request<?> request : currentRequests) {
-                if (filter.apply(request)) {
-                    request.cancel();
-                }
+        List<Request<?>> canceled = new ArrayList<>();
+        for (Request<?> request : currentRequests) {
+            if (filter.apply(request)) {
+                request.cancel();
+                canceled.add(request);
             }
         }
+        removeCanceled(canceled);
     }
 
     /**
      * Cancels all requests in this queue with the given tag. Tag must be non-null
      * and equality is by identity.
+     * <p>
+     * Only the requests with the tag are visited. Canceled requests waiting in a
+     * {@link PurgeableQueue} are removed and finished right away.
+     * </p>
      */
     public void cancelAll(final Object tag) {
         if (tag == null) {
             throw new IllegalArgumentException("Cannot cancelAll with a null tag");
         }
-        cancelAll(new RequestFilter() {
-            @Override
-            public boolean apply(Request<?> request) {
-                return request.getTag() == tag;
+        Set<Request<?>> tagged = taggedRequests.get(tag);
+        if (tagged == null) {
+            return;
+        }
+        List<Request<?>> requests;
+        synchronized (tagged) {
+            requests = new ArrayList<>(tagged);
+        }
+        List<Request<?>> canceled = new ArrayList<>(requests.size());
+        for (Request<?> request : requests) {
+            if (request.getTag() == tag) {
+                request.cancel();
+                canceled.add(request);
             }
-        });
+        }
+        removeCanceled(canceled);
+    }
+
+    /**
+     * Removes the just canceled requests from the cache or network queue if it is a
+     * {@link PurgeableQueue} and finishes them, like the dispatchers would when taking them.
+     */
+    private void removeCanceled(List<Request<?>> canceled) {
+        PurgeableQueue purgeableCacheQueue = cacheQueue instanceof PurgeableQueue
+                ? (PurgeableQueue) cacheQueue : null;
+        PurgeableQueue purgeableNetworkQueue = networkQueue instanceof PurgeableQueue
+                ? (PurgeableQueue) networkQueue : null;
+        if (purgeableCacheQueue == null && purgeableNetworkQueue == null) {
+            return;
+        }
+        for (Request<?> request : canceled) {
+            if (purgeableCacheQueue != null && purgeableCacheQueue.removeCanceled(request)) {
+                request.finish(Request.EVENT_ID_CACHE_DISCARD_CANCELED);
+            } else if (purgeableNetworkQueue != null
+                    && purgeableNetworkQueue.removeCanceled(request)) {
+                request.finish(Request.EVENT_ID_NETWORK_DISCARD_CANCELED);
+            }
+        }
+    }
+
+    private void addCurrent(Request<?> request) {
+        currentRequests.add(request);
+        Object tag = request.getTag();
+        if (tag == null) {
+            return;
+        }
+        while (true) {
+            Set<Request<?>> tagged = taggedRequests.get(tag);
+            if (tagged == null) {
+                tagged = new HashSet<>();
+                Set<Request<?>> existing = taggedRequests.putIfAbsent(tag, tagged);
+                if (existing != null) {
+                    tagged = existing;
+                }
+            }
+            synchronized (tagged) {
+                // An emptied set is removed from the map, so retry with a new one.
+                if (taggedRequests.get(tag) == tagged) {
+                    tagged.add(request);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the request was current
+     */
+    private boolean removeCurrent(Request<?> request) {
+        if (!currentRequests.remove(request)) {
+            return false;
+        }
+        Object tag = request.getTag();
+        Set<Request<?>> tagged = tag == null ? null : taggedRequests.get(tag);
+        if (tagged != null) {
+            synchronized (tagged) {
+                if (tagged.remove(request) && tagged.isEmpty()) {
+                    taggedRequests.remove(tag, tagged);
+                }
+            }
+        }
+        return true;
     }
 
     /**
@@ -383,6 +819,94 @@ public class RequestQueue {
      * @return The passed-in request
      */
     public <R extends Request<T>, T> R add(R request) {
+        prepare(request);
+        BlockingQueue<Request<?>> queue = admit(request, getSequenceNumber());
+        if (queue != null) {
+            queue.add(request);
+        }
+        return request;
+    }
+
+    /**
+     * Adds Requests to the dispatch queue in bulk. The requests are processed in the order of
+     * the collection. Their sequence numbers are reserved in one step and they are inserted into
+     * the cache and network queues with one {@link BlockingQueue#addAll(Collection)} each, which
+     * wakes up the dispatchers only once for queues supporting it, e.g.
+     * {@link io.apptik.comm.jus.toolbox.PriorityLaneQueue}.
+     * <p>
+     * Each request is prepared and admitted before the next one, so if a request throws, e.g.
+     * because it was added already, the requests before it are still queued and the ones after
+     * it are left untouched.
+     * </p>
+     *
+     * @param requests The requests to service
+     */
+    public void addAll(Collection<? extends Request<?>> requests) {
+        // Same numbers as the same requests added one by one via getSequenceNumber().
+        int sequence = sequenceGenerator.getAndAdd(requests.size()) + 1;
+        List<Request<?>> toCache = new ArrayList<>(requests.size());
+        List<Request<?>> toNetwork = new ArrayList<>();
+        try {
+            for (Request<?> request : requests) {
+                prepare(request);
+                BlockingQueue<Request<?>> queue = admit(request, sequence++);
+                if (queue == cacheQueue) {
+                    toCache.add(request);
+                } else if (queue == networkQueue) {
+                    toNetwork.add(request);
+                }
+            }
+        } finally {
+            if (!toCache.isEmpty()) {
+                cacheQueue.addAll(toCache);
+            }
+            if (!toNetwork.isEmpty()) {
+                networkQueue.addAll(toNetwork);
+            }
+        }
+    }
+
+    /**
+     * Adds the requests and gathers all their results, see
+     * {@link #gather(Collection, int, long, TimeUnit)}.
+     */
+    public <T> Gather<T> gather(Collection<? extends Request<T>> requests, long timeout,
+                                TimeUnit unit) {
+        return gather(requests, requests.size(), timeout, unit);
+    }
+
+    /**
+     * Adds the requests in bulk and gathers their results without blocking a thread per
+     * request. The gather is done when all requests are done, when {@code quorum} of them
+     * succeeded or at the deadline, whichever comes first, and the outstanding requests are
+     * canceled. Requests which are still queued at the deadline are not sent, as it is set as
+     * their {@link Request#setDeadline(long, TimeUnit) deadline} too.
+     *
+     * @param requests the requests to add, not yet added to a queue
+     * @param quorum   the number of successful responses enough for the gather
+     * @param timeout  the time until the deadline of the gather
+     * @param unit     the unit of the timeout
+     * @return the gather to get the {@link Gather.Result} from, via {@link Gather#get()} or
+     * a {@link Gather.Listener}
+     */
+    public <T> Gather<T> gather(Collection<? extends Request<T>> requests, int quorum,
+                                long timeout, TimeUnit unit) {
+        Gather<T> gather = new Gather<>(requests, quorum, timeout, unit);
+        try {
+            addAll(requests);
+        } catch (RuntimeException e) {
+            gather.abandon();
+            throw e;
+        }
+        return gather;
+    }
+
+    /**
+     * Sets up the request with the listeners, authenticators, transformers and policies of this
+     * queue.
+     */
+    private void prepare(Request<?> request) {
+        request.markerRecorder = markerRecorder;
         //Listener factories should be first so client can listen to events
         for (ListenerFactory listenerFactory : listenerFactories) {
             RequestListener.ResponseListener qResponseListener = listenerFactory
@@ -413,7 +937,7 @@ public class RequestQueue {
         if (JusLog.MarkerLog.isOn()) {
             request.addMarkerListener(JusLog.MarkerLog.getLogger(request));
         }
-        request.addMarker(Request.EVENT_PRE_ADD_TO_QUEUE);
+        request.addMarker(Request.EVENT_ID_PRE_ADD_TO_QUEUE);
         Authenticator serverAuthenticator = null;
         Authenticator proxyAuthenticator = null;
         for (Authenticator.Factory factory : authenticatorFactories) {
@@ -457,49 +981,86 @@ public class RequestQueue {
         if (noConnectionPolicyFactory != null) {
             request.setNoConnectionPolicy(noConnectionPolicyFactory.get(request));
         }
+        if (circuitBreakerFactory != null) {
+            request.setCircuitBreaker(circuitBreakerFactory.get(request));
+        }
+    }
 
-        synchronized (currentRequests) {
-            //check if not already cancelled
-            if (request.isCanceled()) {
-                request.finish(Request.EVENT_ADD_DISCARD_CANCELED);
-            }
-            // Process requests in the order they are added.
-            request.setSequence(getSequenceNumber());
-            // Tag the request as belonging to this queue and add it to the set of current requests.
-            request.setRequestQueue(this);
-            currentRequests.add(request);
+    /**
+     * Admits the request to this queue and stages it if a duplicate is in flight.
+     *
+     * @return the queue the request must be inserted to, or null if it was staged or rejected
+     */
+    private BlockingQueue<Request<?>> admit(Request<?> request, int sequence) {
+        //check if not already cancelled
+        if (request.isCanceled()) {
+            request.finish(Request.EVENT_ID_ADD_DISCARD_CANCELED);
         }
-        request.addMarker(Request.EVENT_ADD_TO_QUEUE);
+        // Process requests in the order they are added.
+        request.setSequence(sequence);
+        // Tag the request as belonging to this queue and add it to the set of current requests.
+        request.setRequestQueue(this);
+        if (admissionControl != null && !admissionControl.admit(request)) {
+            reject(request, "RequestQueue is full");
+            return null;
+        }
+        addCurrent(request);
+        request.addMarker(Request.EVENT_ID_ADD_TO_QUEUE);
 
-        // If the request is uncacheable, skip the cache queue and go straight to the network.
+        // If the request is uncacheable, skip the cache queue and go straight to the network,
+        // unless an identical request is already in flight.
         if (!request.shouldCache()) {
-            networkQueue.add(request);
-            return request;
+            String coalescingKey = request.getCoalescingKey();
+            if (coalescingKey == null || !stage(coalescedRequests, coalescingKey, request)) {
+                return networkQueue;
+            }
+            return null;
         }
 
         // Insert request into stage if there's already a request with the same cache key in flight.
-        synchronized (waitingRequests) {
-            String cacheKey = request.getCacheKey();
-            if (waitingRequests.containsKey(cacheKey)) {
-                // There is already a request in flight. Queue up.
-                Queue<Request<?>> stagedRequests = waitingRequests.get(cacheKey);
-                if (stagedRequests == null) {
-                    stagedRequests = new LinkedList<>();
+        if (!stage(waitingRequests, request.getCacheKey(), request)) {
+            return cacheQueue;
+        }
+        return null;
+    }
+
+    /**
+     * Stages the request if there is already a request with the same key in flight, otherwise
+     * inserts an empty stage for the key, indicating there is now a request in flight.
+     *
+     * @return true if the request was staged, false if it is now in flight
+     */
+    private static boolean stage(ConcurrentMap<String, Stage> stages, String key,
+                                 Request<?> request) {
+        while (true) {
+            Stage stage = stages.get(key);
+            if (stage == null) {
+                stage = stages.putIfAbsent(key, new Stage(request));
+                if (stage == null) {
+                    return false;
                 }
-                stagedRequests.add(request);
-                waitingRequests.put(cacheKey, stagedRequests);
-//                if (JusLog.DEBUG) {
-//                    JusLog.v("Request for cacheKey=%s is in flight, putting on hold.", cacheKey);
-//                }
-                //todo add queue markers
-            } else {
-                // Insert 'empty list' queue for this cacheKey, indicating there is now a request in
-                // flight.
-                waitingRequests.put(cacheKey, new LinkedList<Request<?>>());
-                cacheQueue.add(request);
             }
-            return request;
+            // There is already a request in flight. Queue up, unless the stage was released in
+            // the meantime.
+            //todo add queue markers
+            if (stage.stage(request)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the requests waiting for the given in flight request, or null if it is not the
+     * in flight request for the key
+     */
+    private static List<Request<?>> release(ConcurrentMap<String, Stage> stages, String key,
+                                            Request<?> request) {
+        Stage stage = stages.get(key);
+        // Only the in flight request releases the stage, not the ones released before.
+        if (stage != null && stage.inFlight == request && stages.remove(key, stage)) {
+            return stage.release();
         }
+        return null;
     }
 
     public final NetworkResponse transformResponse(Request<?> request, NetworkResponse response) {
@@ -522,27 +1083,138 @@ public class RequestQueue {
      */
     <T> void finish(Request<T> request) {
         // Remove from the set of requests currently being processed.
-        synchronized (currentRequests) {
-            currentRequests.remove(request);
+        if (removeCurrent(request) && admissionControl != null) {
+            admissionControl.release();
+        }
+        if (networkQueue instanceof InFlightQueue) {
+            ((InFlightQueue) networkQueue).release(request);
         }
         if (request.shouldCache()) {
-            synchronized (waitingRequests) {
-                String cacheKey = request.getCacheKey();
-                Queue<Request<?>> waitingRequests = this.waitingRequests.remove(cacheKey);
-                if (waitingRequests != null) {
-                    //todo add queue markers
-//                    if (JusLog.DEBUG) {
-//                        JusLog.v("Releasing %d waiting requests for cacheKey=%s.",
-//                                waitingRequests.size(), cacheKey);
-//                    }
-                    // Process all queued up requests. They won't be considered as in flight, but
-                    // that's not a problem as the cache has been primed by 'request'.
-                    cacheQueue.addAll(waitingRequests);
+            List<Request<?>> waiting = release(waitingRequests, request.getCacheKey(), request);
+            if (waiting != null) {
+                //todo add queue markers
+                releaseWaiting(request, waiting);
+            }
+        } else {
+            String coalescingKey = request.getCoalescingKey();
+            if (coalescingKey != null) {
+                List<Request<?>> coalesced = release(coalescedRequests, coalescingKey, request);
+                if (coalesced != null) {
+                    releaseCoalesced(request, coalesced);
                 }
             }
         }
     }
 
+    /**
+     * Delivers the response of the finished request to the waiting requests which can share it
+     * and puts the rest in the cache queue.
+     */
+    private void releaseWaiting(Request<?> request, List<Request<?>> waiting) {
+        Response<?> response = shareResponses ? request.getRawResponse() : null;
+        if (response == null || !response.isSuccess() || response.intermediate) {
+            // Process all queued up requests. They won't be considered as in flight, but
+            // that's not a problem as the cache has been primed by 'request'.
+            cacheQueue.addAll(waiting);
+            return;
+        }
+        for (Request<?> waitingRequest : waiting) {
+            if (waitingRequest.canShareResponse(request)) {
+                waitingRequest.addMarker(Request.EVENT_ID_SHARED_RESPONSE);
+                delivery.postResponse(waitingRequest, response);
+            } else {
+                cacheQueue.add(waitingRequest);
+            }
+        }
+    }
+
+    /**
+     * Delivers the response or error of the finished request to the coalesced requests. The
+     * ones which cannot share the response, or all of them if the finished request got none,
+     * e.g. because it was canceled, are sent to the network.
+     */
+    private void releaseCoalesced(Request<?> request, List<Request<?>> coalesced) {
+        Response<?> response = request.getRawResponse();
+        for (Request<?> coalescedRequest : coalesced) {
+            if (response == null || response.intermediate) {
+                networkQueue.add(coalescedRequest);
+            } else if (!response.isSuccess()) {
+                coalescedRequest.addMarker(Request.EVENT_ID_SHARED_RESPONSE);
+                delivery.postError(coalescedRequest, response.error);
+            } else if (coalescedRequest.canShareResponse(request)) {
+                coalescedRequest.addMarker(Request.EVENT_ID_SHARED_RESPONSE);
+                delivery.postResponse(coalescedRequest, response);
+            } else {
+                networkQueue.add(coalescedRequest);
+            }
+        }
+    }
+
+    /**
+     * Removes the queued request with the lowest priority from the cache or network queue, if
+     * it is lower than the priority of the given request, and hands its slot over to it.
+     *
+     * @return true if a request was dropped
+     */
+    boolean dropLowerPriority(Request<?> request) {
+        if (request.getPriority().ordinal() == 0) {
+            //nothing has a lower priority
+            return false;
+        }
+        BlockingQueue<Request<?>> queue = networkQueue;
+        Request<?> victim = lowestPriority(networkQueue);
+        Request<?> cacheVictim = lowestPriority(cacheQueue);
+        if (victim == null || (cacheVictim != null && compare(cacheVictim, victim) > 0)) {
+            queue = cacheQueue;
+            victim = cacheVictim;
+        }
+        if (victim == null
+                || victim.getPriority().ordinal() >= request.getPriority().ordinal()
+                || !queue.remove(victim)) {
+            return false;
+        }
+        if (!removeCurrent(victim)) {
+            // Already finished, so its slot was released already.
+            return false;
+        }
+        reject(victim, "Dropped for a request with higher priority");
+        return true;
+    }
+
+    /**
+     * @return the request sorted last by {@link Request#compareTo(Request)}, i.e. the newest
+     * one with the lowest priority. Only queues which are not a {@link LaneQueue} are scanned.
+     */
+    private static Request<?> lowestPriority(BlockingQueue<Request<?>> queue) {
+        if (queue instanceof LaneQueue) {
+            return ((LaneQueue) queue).peekLowest();
+        }
+        Request<?> lowest = null;
+        for (Request<?> request : queue) {
+            if (lowest == null || compare(request, lowest) > 0) {
+                lowest = request;
+            }
+        }
+        return lowest;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Request<?> left, Request<?> right) {
+        return ((Request) left).compareTo(right);
+    }
+
+    /**
+     * Puts a request back to the network queue when its scheduled retry is due.
+     */
+    void retry(Request<?> request) {
+        networkQueue.add(request);
+    }
+
+    private void reject(Request<?> request, String reason) {
+        addMarker(EVENT_REQUEST_REJECTED, request);
+        delivery.postError(request, new RejectedError(reason));
+    }
+
     public RetryPolicy.Factory getRetryPolicyFactory() {
         return retryPolicyFactory;
     }
@@ -581,6 +1253,20 @@ public class RequestQueue {
         return this;
     }
 
+    public CircuitBreaker.Factory getCircuitBreakerFactory() {
+        return circuitBreakerFactory;
+    }
+
+    /**
+     * Sets the factory providing the {@link CircuitBreaker} of each request, e.g.
+     * {@code new CircuitBreaker.Factory() {}} for one
+     * {@link CircuitBreaker.DefaultCircuitBreaker} per host.
+     */
+    public RequestQueue setCircuitBreakerFactory(CircuitBreaker.Factory circuitBreakerFactory) {
+        this.circuitBreakerFactory = circuitBreakerFactory;
+        return this;
+    }
+
     public RequestQueue addAuthenticatorFactory(Authenticator.Factory factory) {
         synchronized (authenticatorFactories) {
             authenticatorFactories.add(factory);
@@ -600,6 +1286,8 @@ public class RequestQueue {
     public RequestQueue addConverterFactory(Factory factory) {
         synchronized (converterFactories) {
             converterFactories.add(factory);
+            converterFactoriesVersion++;
+            responseConverters.clear();
         }
 
         return this;
@@ -609,6 +1297,8 @@ public class RequestQueue {
     public RequestQueue removeConverterFactory(Factory factory) {
         synchronized (converterFactories) {
             converterFactories.remove(factory);
+            converterFactoriesVersion++;
+            responseConverters.clear();
         }
 
         return this;
@@ -684,16 +1374,138 @@ public class RequestQueue {
         throw new IllegalArgumentException(builder.toString());
     }
 
+    /**
+     * Returns the {@link Converter} for the responses of a request. Converters are resolved
+     * once per request class and response type, so adding requests does not need reflection
+     * after the first request of a kind.
+     *
+     * @return the converter or null if there is none but the request class overrides
+     * {@link Request#parseNetworkResponse(NetworkResponse)}
+     * @throws IllegalArgumentException if there is no converter and the request class does not
+     *                                  override {@link Request#parseNetworkResponse(NetworkResponse)}
+     */
+    Converter<NetworkResponse, ?> getResponseConverter(Request<?> request) {
+        ConverterKey key = new ConverterKey(request.getClass(), request.getResponseType());
+        Converter<NetworkResponse, ?> converter = responseConverters.get(key);
+        if (converter == null) {
+            int version = converterFactoriesVersion;
+            converter = resolveResponseConverter(request);
+            synchronized (converterFactories) {
+                //the factories changed while resolving, the converter might be stale
+                if (version == converterFactoriesVersion) {
+                    responseConverters.putIfAbsent(key, converter);
+                }
+            }
+        }
+        return converter == PARSED_BY_REQUEST ? null : converter;
+    }
 
-    public int getCurrentRequests() {
-        synchronized (currentRequests) {
-            return currentRequests.size();
+    private Converter<NetworkResponse, ?> resolveResponseConverter(Request<?> request) {
+        Type type = request.getResponseType();
+        if (type == null) {
+            type = Utils.tryIdentifyResultType(request);
+        }
+        if (type == null) {
+            throw new IllegalArgumentException("Cannot resolve Response type in order to " +
+                    "identify Response Converter for Request : " + request);
+        }
+        try {
+            return getResponseConverter(type, NO_ANNOTATIONS);
+        } catch (IllegalArgumentException ex) {
+            //check if parseNetworkResponse is overridden
+            if (!overridesParse(request.getClass())) {
+                //it is not so it is for sure that we cannot parse response thus throw
+                throw ex;
+            }
+            //else keep quiet as conversion can probably be handled by the overridden method.
+            // if it fails parse exception will be thrown.
+            return PARSED_BY_REQUEST;
+        }
+    }
+
+    private static boolean overridesParse(Class<?> requestClass) {
+        if (requestClass.equals(Request.class)) {
+            return false;
         }
+        try {
+            requestClass.getDeclaredMethod("parseNetworkResponse", NetworkResponse.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+
+    public int getCurrentRequests() {
+        return currentRequests.size();
     }
 
     public int getWaitingRequests() {
-        synchronized (waitingRequests) {
-            return waitingRequests.size();
+        return waitingRequests.size();
+    }
+
+    /**
+     * Request class and response type the response converters are cached for.
+     */
+    private static final class ConverterKey {
+        private final Class<?> requestClass;
+        private final Type responseType;
+
+        ConverterKey(Class<?> requestClass, Type responseType) {
+            this.requestClass = requestClass;
+            this.responseType = responseType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ConverterKey)) return false;
+            ConverterKey other = (ConverterKey) o;
+            return requestClass.equals(other.requestClass)
+                    && (responseType == null ? other.responseType == null
+                    : responseType.equals(other.responseType));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * requestClass.hashCode()
+                    + (responseType == null ? 0 : responseType.hashCode());
+        }
+    }
+
+    /**
+     * The request in flight for a cache key and the duplicate requests waiting for it.
+     */
+    private static final class Stage {
+        final Request<?> inFlight;
+        final Queue<Request<?>> waiting = new ConcurrentLinkedQueue<>();
+        /**
+         * Set before the waiting requests are drained. A request which made it into a released
+         * stage and can still take itself out must retry with a new stage.
+         */
+        volatile boolean released = false;
+
+        Stage(Request<?> inFlight) {
+            this.inFlight = inFlight;
+        }
+
+        /**
+         * @return true if the request is staged or was already picked up by
+         * {@link #release()}, false if the stage was released and the request should retry
+         */
+        boolean stage(Request<?> request) {
+            waiting.add(request);
+            return !released || !waiting.remove(request);
+        }
+
+        List<Request<?>> release() {
+            released = true;
+            List<Request<?>> requests = new ArrayList<>();
+            Request<?> request;
+            while ((request = waiting.poll()) != null) {
+                requests.add(request);
+            }
+            return requests;
         }
     }
 
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.error.JusError;
+import io.apptik.comm.jus.http.HttpDate;
+import io.apptik.comm.jus.http.Util;
+
+/**
+ * Puts requests with a failed attempt back to the network queue after a delay, so the
+ * dispatcher is free to serve other requests in the meantime.
+ * <p>
+ * The delay grows exponentially with the retry count of the {@link RetryPolicy} and is
+ * randomized between 0 and its current value (full jitter), so retries of many requests failing
+ * at the same time are spread out. A {@code Retry-After} header of a 429 or 503 response is
+ * honored as long as it is not above the max delay, otherwise the request fails right away.
+ * </p>
+ * Use it via {@link RequestQueue#withScheduledRetries(long, long, TimeUnit)}.
+ */
+public class RetryScheduler {
+
+    public static final long DEFAULT_BASE_DELAY_MS = 100;
+    public static final long DEFAULT_MAX_DELAY_MS = 30000;
+
+    private final RequestQueue requestQueue;
+    private final long baseDelayNs;
+    private final long maxDelayNs;
+    private final Set<Request<?>> pending =
+            Collections.newSetFromMap(new ConcurrentHashMap<Request<?>, Boolean>());
+    private ScheduledThreadPoolExecutor executor;
+
+    RetryScheduler(RequestQueue requestQueue, long baseDelay, long maxDelay, TimeUnit unit) {
+        if (baseDelay < 1) {
+            throw new IllegalArgumentException("baseDelay < 1");
+        }
+        if (maxDelay < baseDelay) {
+            throw new IllegalArgumentException("maxDelay < baseDelay");
+        }
+        this.requestQueue = requestQueue;
+        this.baseDelayNs = unit.toNanos(baseDelay);
+        this.maxDelayNs = unit.toNanos(maxDelay);
+    }
+
+    public long getBaseDelayNs() {
+        return baseDelayNs;
+    }
+
+    public long getMaxDelayNs() {
+        return maxDelayNs;
+    }
+
+    /**
+     * @return the number of requests waiting for their retry
+     */
+    public int getPendingRetries() {
+        return pending.size();
+    }
+
+    /**
+     * Computes the delay before the next attempt of a request.
+     *
+     * @param request the request with a failed attempt
+     * @param error   the error of the attempt
+     * @return the delay in nanoseconds, negative if the request should not be retried as the
+     * server asked to wait longer than the max delay
+     */
+    public long getDelayNs(Request<?> request, JusError error) {
+        long retryAfterNs = retryAfterNs(error);
+        if (retryAfterNs >= 0) {
+            return retryAfterNs > maxDelayNs ? -1 : retryAfterNs;
+        }
+        int retryCount = request.getRetryPolicy() == null
+                ? 1 : Math.max(1, request.getRetryPolicy().getCurrentRetryCount());
+        long delayNs = baseDelayNs << Math.min(retryCount - 1, 30);
+        if (delayNs <= 0 || delayNs > maxDelayNs) {
+            delayNs = maxDelayNs;
+        }
+        return ThreadLocalRandom.current().nextLong(delayNs + 1);
+    }
+
+    /**
+     * @return the delay requested by the server in nanoseconds, -1 if none
+     */
+    static long retryAfterNs(JusError error) {
+        NetworkResponse response = error.networkResponse;
+        if (response == null || response.headers == null
+                || (response.statusCode != 429 && response.statusCode != 503)) {
+            return -1;
+        }
+        String retryAfter = response.headers.get("Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+        retryAfter = retryAfter.trim();
+        try {
+            return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(retryAfter)));
+        } catch (NumberFormatException e) {
+            Date date = HttpDate.parse(retryAfter);
+            if (date == null) {
+                return -1;
+            }
+            return TimeUnit.MILLISECONDS.toNanos(
+                    Math.max(0, date.getTime() - System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Puts the request back to the network queue after the delay. If the scheduler is not
+     * running it is put back right away.
+     */
+    void schedule(final Request<?> request, long delayNs) {
+        synchronized (this) {
+            if (executor != null) {
+                pending.add(request);
+                try {
+                    executor.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (pending.remove(request)) {
+                                requestQueue.retry(request);
+                            }
+                        }
+                    }, delayNs, TimeUnit.NANOSECONDS);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    //shut down in the meantime
+                    pending.remove(request);
+                }
+            }
+        }
+        requestQueue.retry(request);
+    }
+
+    synchronized void start() {
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(1,
+                    Util.threadFactory("JusRetryScheduler", true));
+        }
+    }
+
+    /**
+     * Stops the scheduler and puts the pending requests back to the network queue right away.
+     */
+    void stop() {
+        synchronized (this) {
+            if (executor == null) {
+                return;
+            }
+            executor.shutdownNow();
+            executor = null;
+        }
+        for (Request<?> request : pending) {
+            if (pending.remove(request)) {
+                requestQueue.retry(request);
+            }
+        }
+    }
+}
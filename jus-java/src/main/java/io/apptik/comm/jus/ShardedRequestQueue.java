@@ -0,0 +1,509 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.auth.Authenticator;
+import io.apptik.comm.jus.http.HttpUrl;
+
+import static io.apptik.comm.jus.toolbox.Utils.checkNotNull;
+
+/**
+ * A queue made of independent shards, each a {@link RequestQueue} with its own cache and
+ * network queues, dispatchers and delivery. Requests are routed to a shard by their
+ * cache key or host, see {@link Router}, so the sequence numbers, staging of duplicates and
+ * queue locks are only contended by the requests of the same shard.
+ * <p>
+ * The {@link Cache} and {@link Network} are shared by all shards. Configuration, e.g.
+ * converter factories, transformers or policies, is applied to every shard, and cancellation
+ * and the request counts span all shards. {@link Request#getRequestQueue()} returns the shard
+ * of the request.
+ * </p>
+ * It is not a {@link RequestQueue} itself and only offers the operations which apply to all
+ * shards; the queues and dispatchers of each shard are set by its {@link ShardFactory}.
+ */
+public class ShardedRequestQueue {
+
+    /**
+     * Creates the {@link RequestQueue} of a shard.
+     */
+    public abstract static class ShardFactory {
+        /**
+         * @param index   the index of the shard
+         * @param cache   the shared cache
+         * @param network the shared network
+         * @return a new queue, not started yet
+         */
+        public abstract RequestQueue create(int index, Cache cache, Network network);
+    }
+
+    /**
+     * Selects the shard of a request.
+     */
+    public abstract static class Router {
+
+        /**
+         * Routes by {@link Request#getCacheKey()}, so duplicate requests are staged in the
+         * same shard.
+         */
+        public static final Router BY_CACHE_KEY = new Router() {
+            @Override
+            public int shardOf(Request<?> request, int shardCount) {
+                return indexOf(request.getCacheKey().hashCode(), shardCount);
+            }
+        };
+
+        /**
+         * Routes by the host of the request url, so the requests to a host share the
+         * dispatchers of a shard and one host cannot take over all of them.
+         * Duplicate requests are in the same shard as well.
+         */
+        public static final Router BY_HOST = new Router() {
+            @Override
+            public int shardOf(Request<?> request, int shardCount) {
+                HttpUrl url = request.getUrl();
+                return indexOf(url == null ? 0 : url.host().hashCode(), shardCount);
+            }
+        };
+
+        /**
+         * @return the index of the shard in [0, shardCount)
+         */
+        public abstract int shardOf(Request<?> request, int shardCount);
+
+        /**
+         * Spreads the higher bits of the hash and maps it to a shard index.
+         */
+        protected static int indexOf(int hash, int shardCount) {
+            hash ^= hash >>> 16;
+            return (hash & 0x7fffffff) % shardCount;
+        }
+    }
+
+    private final RequestQueue[] shards;
+    private volatile Router router = Router.BY_CACHE_KEY;
+
+    /**
+     * Creates the shards. Processing will not begin until {@link #start()} is called.
+     *
+     * @param cache          A Cache shared by the shards
+     * @param network        A Network shared by the shards
+     * @param shardCount     Number of shards
+     * @param threadPoolSize Number of network dispatcher threads of each shard
+     */
+    public ShardedRequestQueue(Cache cache, Network network, int shardCount,
+                               final int threadPoolSize) {
+        this(cache, network, shardCount, new ShardFactory() {
+            @Override
+            public RequestQueue create(int index, Cache cache, Network network) {
+                return new RequestQueue(cache, network, threadPoolSize);
+            }
+        });
+    }
+
+    /**
+     * Creates the shards. Processing will not begin until {@link #start()} is called.
+     *
+     * @param cache        A Cache shared by the shards
+     * @param network      A Network shared by the shards
+     * @param shardCount   Number of shards
+     * @param shardFactory Factory creating the queue of each shard
+     */
+    public ShardedRequestQueue(Cache cache, Network network, int shardCount,
+                               ShardFactory shardFactory) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount < 1");
+        }
+        checkNotNull(shardFactory, "shardFactory==null");
+        this.shards = new RequestQueue[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = checkNotNull(shardFactory.create(i, cache, network), "shard==null");
+        }
+    }
+
+    /**
+     * Sets how requests are routed to the shards, {@link Router#BY_CACHE_KEY} by default.
+     * Must be called before requests are added.
+     */
+    public ShardedRequestQueue withRouter(Router router) {
+        if (getCurrentRequests() > 0) {
+            throw new IllegalStateException("Router must be set before requests are added");
+        }
+        this.router = checkNotNull(router, "router==null");
+        return this;
+    }
+
+    public Router getRouter() {
+        return router;
+    }
+
+    public List<RequestQueue> getShards() {
+        return Collections.unmodifiableList(Arrays.asList(shards));
+    }
+
+    /**
+     * @return the shard the request is routed to
+     */
+    public RequestQueue getShard(Request<?> request) {
+        int index = router.shardOf(request, shards.length);
+        if (index < 0 || index >= shards.length) {
+            throw new IllegalStateException("Router returned shard " + index + " of "
+                    + shards.length);
+        }
+        return shards[index];
+    }
+
+    /**
+     * Adds a Request to the shard it is routed to.
+     *
+     * @param request The request to service
+     * @return The passed-in request
+     */
+    public <R extends Request<T>, T> R add(R request) {
+        return getShard(request).add(request);
+    }
+
+    /**
+     * Adds Requests in bulk, with one {@link RequestQueue#addAll(Collection)} per shard.
+     * The order of the requests is kept within each shard.
+     */
+    public void addAll(Collection<? extends Request<?>> requests) {
+        List<List<Request<?>>> perShard = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            perShard.add(null);
+        }
+        for (Request<?> request : requests) {
+            int index = router.shardOf(request, shards.length);
+            List<Request<?>> list = perShard.get(index);
+            if (list == null) {
+                list = new ArrayList<>();
+                perShard.set(index, list);
+            }
+            list.add(request);
+        }
+        for (int i = 0; i < shards.length; i++) {
+            if (perShard.get(i) != null) {
+                shards[i].addAll(perShard.get(i));
+            }
+        }
+    }
+
+    /**
+     * Adds the requests and gathers all their results, see
+     * {@link #gather(Collection, int, long, TimeUnit)}.
+     */
+    public <T> Gather<T> gather(Collection<? extends Request<T>> requests, long timeout,
+                                TimeUnit unit) {
+        return gather(requests, requests.size(), timeout, unit);
+    }
+
+    /**
+     * Adds the requests in bulk to their shards and gathers their results, see
+     * {@link RequestQueue#gather(Collection, int, long, TimeUnit)}.
+     */
+    public <T> Gather<T> gather(Collection<? extends Request<T>> requests, int quorum,
+                                long timeout, TimeUnit unit) {
+        Gather<T> gather = new Gather<>(requests, quorum, timeout, unit);
+        try {
+            addAll(requests);
+        } catch (RuntimeException e) {
+            gather.abandon();
+            throw e;
+        }
+        return gather;
+    }
+
+    /**
+     * Starts the dispatchers of all shards.
+     */
+    public void start() {
+        for (RequestQueue shard : shards) {
+            shard.start();
+        }
+    }
+
+    /**
+     * Stops the dispatchers of all shards.
+     */
+    public void stop() {
+        for (RequestQueue shard : shards) {
+            shard.stop();
+        }
+    }
+
+    /**
+     * Stops all shards once each of them has no more requests, see
+     * {@link RequestQueue#stopWhenDone()}.
+     */
+    public void stopWhenDone() {
+        for (RequestQueue shard : shards) {
+            shard.stopWhenDone();
+        }
+    }
+
+    public void cancelAll(RequestQueue.RequestFilter filter) {
+        for (RequestQueue shard : shards) {
+            shard.cancelAll(filter);
+        }
+    }
+
+    public void cancelAll(Object tag) {
+        if (tag == null) {
+            throw new IllegalArgumentException("Cannot cancelAll with a null tag");
+        }
+        for (RequestQueue shard : shards) {
+            shard.cancelAll(tag);
+        }
+    }
+
+    public int getCurrentRequests() {
+        int res = 0;
+        for (RequestQueue shard : shards) {
+            res += shard.getCurrentRequests();
+        }
+        return res;
+    }
+
+    public int getWaitingRequests() {
+        int res = 0;
+        for (RequestQueue shard : shards) {
+            res += shard.getWaitingRequests();
+        }
+        return res;
+    }
+
+    public ShardedRequestQueue addQueueMarkerListener(
+            RequestListener.MarkerListener markerListener) {
+        for (RequestQueue shard : shards) {
+            shard.addQueueMarkerListener(markerListener);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue removeQueueMarkerListener(
+            RequestListener.MarkerListener markerListener) {
+        for (RequestQueue shard : shards) {
+            shard.removeQueueMarkerListener(markerListener);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue withSharedResponses(boolean shareResponses) {
+        for (RequestQueue shard : shards) {
+            shard.withSharedResponses(shareResponses);
+        }
+        return this;
+    }
+
+    /**
+     * Bounds the number of requests of each shard.
+     */
+    public ShardedRequestQueue withMaxRequests(int maxRequests, OverflowPolicy overflowPolicy) {
+        for (RequestQueue shard : shards) {
+            shard.withMaxRequests(maxRequests, overflowPolicy);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue withScheduledRetries(long baseDelay, long maxDelay,
+                                                    TimeUnit unit) {
+        for (RequestQueue shard : shards) {
+            shard.withScheduledRetries(baseDelay, maxDelay, unit);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the parse executor of all shards.
+     */
+    public ShardedRequestQueue withParseExecutor(Executor parseExecutor) {
+        for (RequestQueue shard : shards) {
+            shard.withParseExecutor(parseExecutor);
+        }
+        return this;
+    }
+
+    /**
+     * Parses responses and cache hits of all shards on a single pool of the given number of
+     * threads, see {@link RequestQueue#withParseThreadPoolSize(int)}.
+     *
+     * @param threadPoolSize Number of parse threads
+     */
+    public ShardedRequestQueue withParseThreadPoolSize(int threadPoolSize) {
+        shards[0].withParseThreadPoolSize(threadPoolSize);
+        return withParseExecutor(shards[0].getParseExecutor());
+    }
+
+    public ShardedRequestQueue withMarkerRecorder(MarkerRecorder markerRecorder) {
+        for (RequestQueue shard : shards) {
+            shard.withMarkerRecorder(markerRecorder);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue withEarliestDeadlineFirst() {
+        for (RequestQueue shard : shards) {
+            shard.withEarliestDeadlineFirst();
+        }
+        return this;
+    }
+
+    /**
+     * Sets the number of cache dispatchers of each shard.
+     */
+    public ShardedRequestQueue withCacheThreadPoolSize(int threadPoolSize) {
+        for (RequestQueue shard : shards) {
+            shard.withCacheThreadPoolSize(threadPoolSize);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the thread factory of each shard, each bound to {@code maxConcurrentRequests}.
+     */
+    public ShardedRequestQueue withNetworkThreadFactory(ThreadFactory threadFactory,
+                                                        int maxConcurrentRequests) {
+        for (RequestQueue shard : shards) {
+            shard.withNetworkThreadFactory(threadFactory, maxConcurrentRequests);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue setRetryPolicyFactory(RetryPolicy.Factory retryPolicyFactory) {
+        for (RequestQueue shard : shards) {
+            shard.setRetryPolicyFactory(retryPolicyFactory);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue setRedirectPolicyFactory(RedirectPolicy.Factory
+                                                                redirectPolicyFactory) {
+        for (RequestQueue shard : shards) {
+            shard.setRedirectPolicyFactory(redirectPolicyFactory);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue setConnectivityManagerFactory(ConnectivityManager.Factory
+                                                                     connectivityManagerFactory) {
+        for (RequestQueue shard : shards) {
+            shard.setConnectivityManagerFactory(connectivityManagerFactory);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue setNoConnectionPolicyFactory(NoConnectionPolicy.Factory
+                                                                    noConnectionPolicyFactory) {
+        for (RequestQueue shard : shards) {
+            shard.setNoConnectionPolicyFactory(noConnectionPolicyFactory);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the circuit breaker factory of all shards, so the breakers are shared by the
+     * requests to the same backend across shards if the factory keeps them by host.
+     */
+    public ShardedRequestQueue setCircuitBreakerFactory(CircuitBreaker.Factory
+                                                                circuitBreakerFactory) {
+        for (RequestQueue shard : shards) {
+            shard.setCircuitBreakerFactory(circuitBreakerFactory);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue addAuthenticatorFactory(Authenticator.Factory factory) {
+        for (RequestQueue shard : shards) {
+            shard.addAuthenticatorFactory(factory);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue removeAuthenticatorFactory(Authenticator.Factory factory) {
+        for (RequestQueue shard : shards) {
+            shard.removeAuthenticatorFactory(factory);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue addConverterFactory(Converter.Factory factory) {
+        for (RequestQueue shard : shards) {
+            shard.addConverterFactory(factory);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue removeConverterFactory(Converter.Factory factory) {
+        for (RequestQueue shard : shards) {
+            shard.removeConverterFactory(factory);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue addRequestTransformer(Transformer.RequestTransformer transformer) {
+        for (RequestQueue shard : shards) {
+            shard.addRequestTransformer(transformer);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue removeRequestTransformer(Transformer.RequestTransformer
+                                                        transformer) {
+        for (RequestQueue shard : shards) {
+            shard.removeRequestTransformer(transformer);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue addResponseTransformer(Transformer.ResponseTransformer transformer) {
+        for (RequestQueue shard : shards) {
+            shard.addResponseTransformer(transformer);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue removeResponseTransformer(Transformer.ResponseTransformer
+                                                         transformer) {
+        for (RequestQueue shard : shards) {
+            shard.removeResponseTransformer(transformer);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue addListenerFactory(RequestListener.ListenerFactory listenerFactory) {
+        for (RequestQueue shard : shards) {
+            shard.addListenerFactory(listenerFactory);
+        }
+        return this;
+    }
+
+    public ShardedRequestQueue removeListenerFactory(RequestListener.ListenerFactory
+                                                     listenerFactory) {
+        for (RequestQueue shard : shards) {
+            shard.removeListenerFactory(listenerFactory);
+        }
+        return this;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A {@link NetworkDispatcher} which performs each request taken from the queue on its own
+ * thread created by a {@link ThreadFactory}.
+ * <p>
+ * The blocking {@link Network} is still used, so existing stacks keep working. With a virtual
+ * thread factory (Java 21+), i.e. {@code Thread.ofVirtual().factory()}, thousands of slow
+ * requests can be in flight without a big pool of platform threads.
+ * The number of concurrent requests is bounded by a {@link Semaphore} shared between all
+ * dispatchers created by the same {@link ThreadPerRequestNetworkDispatcherFactory}.
+ * </p>
+ *
+ * @see RequestQueue#withNetworkThreadFactory(ThreadFactory, int)
+ */
+public class ThreadPerRequestNetworkDispatcher extends NetworkDispatcher {
+
+    /**
+     * Creates the threads performing the requests.
+     */
+    protected final ThreadFactory mThreadFactory;
+    /**
+     * Permits for requests in flight.
+     */
+    protected final Semaphore mPermits;
+    /**
+     * Threads currently performing requests.
+     */
+    protected final Set<Thread> mWorkers =
+            Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+    /**
+     * Creates a new network dispatcher threadId.  You must call {@link #start()}
+     * in order to begin processing.
+     *
+     * @param queue         Queue of incoming requests for triage
+     * @param network       Network interface to use for performing requests
+     * @param cache         Cache interface to use for writing responses to cache
+     * @param delivery      Delivery interface to use for posting responses
+     * @param threadFactory Factory creating a thread for each request
+     * @param permits       Permits limiting the number of requests in flight
+     */
+    public ThreadPerRequestNetworkDispatcher(BlockingQueue<Request<?>> queue,
+                                             Network network, Cache cache,
+                                             ResponseDelivery delivery,
+                                             ThreadFactory threadFactory, Semaphore permits) {
+        super(queue, network, cache, delivery);
+        mThreadFactory = threadFactory;
+        mPermits = permits;
+    }
+
+    /**
+     * Forces this dispatcher to quit immediately. Requests in flight are interrupted the
+     * same way as with {@link NetworkDispatcher}.
+     */
+    @Override
+    public void quit() {
+        super.quit();
+        for (Thread worker : mWorkers) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * @return the number of requests currently in flight from this dispatcher
+     */
+    public int getActiveCount() {
+        return mWorkers.size();
+    }
+
+    @Override
+    public void run() {
+        setThreadPriority();
+        while (true) {
+            try {
+                mPermits.acquire();
+            } catch (InterruptedException e) {
+                if (mQuit) {
+                    return;
+                }
+                continue;
+            }
+            final long startTimeMs = System.nanoTime();
+            final Request<?> request;
+            try {
+                // Take a request from the queue.
+                request = mQueue.take();
+            } catch (InterruptedException e) {
+                mPermits.release();
+                // We may have been interrupted because it was time to quit.
+                if (mQuit) {
+                    return;
+                }
+                continue;
+            }
+
+            try {
+                Thread worker = mThreadFactory.newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (!mQuit) {
+                                dispatch(request, startTimeMs);
+                            } else {
+                                // Put it back for the dispatchers of the next start,
+                                // like the requests still waiting in the queue. It was
+                                // never sent, so it must not hold an in flight slot.
+                                if (mQueue instanceof InFlightQueue) {
+                                    ((InFlightQueue) mQueue).release(request);
+                                }
+                                mQueue.add(request);
+                            }
+                        } finally {
+                            mWorkers.remove(Thread.currentThread());
+                            mPermits.release();
+                        }
+                    }
+                });
+                mWorkers.add(worker);
+                worker.start();
+            } catch (Exception e) {
+                handleUnexpectedError(request, e, startTimeMs);
+                mPermits.release();
+            }
+        }
+    }
+
+    public static class ThreadPerRequestNetworkDispatcherFactory extends NetworkDispatcherFactory {
+
+        /**
+         * Creates the threads performing the requests.
+         */
+        protected final ThreadFactory mThreadFactory;
+        /**
+         * Permits shared between all created dispatchers.
+         */
+        protected final Semaphore mPermits;
+
+        /**
+         * Creates a new thread per request network dispatcher factory.  You must call
+         * {@link #create()} in order to create {@link ThreadPerRequestNetworkDispatcher}.
+         *
+         * @param queue         Queue of incoming requests for triage
+         * @param network       Network interface to use for performing requests
+         * @param cache         Cache interface to use for writing responses to cache
+         * @param delivery      Delivery interface to use for posting responses
+         * @param threadFactory Factory creating a thread for each request
+         * @param maxRequests   Maximum number of requests in flight
+         */
+        public ThreadPerRequestNetworkDispatcherFactory(BlockingQueue<Request<?>> queue,
+                                                        Network network, Cache cache,
+                                                        ResponseDelivery delivery,
+                                                        ThreadFactory threadFactory,
+                                                        int maxRequests) {
+            super(queue, network, cache, delivery);
+            if (threadFactory == null) {
+                throw new NullPointerException("threadFactory==null");
+            }
+            if (maxRequests < 1) {
+                throw new IllegalArgumentException("maxRequests < 1");
+            }
+            mThreadFactory = threadFactory;
+            mPermits = new Semaphore(maxRequests);
+        }
+
+        @Override
+        public NetworkDispatcher create() {
+            return new ThreadPerRequestNetworkDispatcher(mQueue, mNetwork, mCache, mDelivery,
+                    mThreadFactory, mPermits);
+        }
+    }
+}
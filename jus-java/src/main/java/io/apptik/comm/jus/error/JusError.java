@@ -77,6 +77,14 @@ public class JusError extends Exception {
         return networkTimeMs;
     }
 
+    /**
+     * @return the time spent on the network until the error, as set by
+     * {@link #setNetworkTimeNs(long)}
+     */
+    public long getNetworkTimeNs() {
+        return networkTimeMs;
+    }
+
     @Override
     public String toString() {
         return "JusError{" +
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus.error;
+
+/**
+ * Error thrown by the network when a failed attempt should be retried after a delay on the
+ * {@link io.apptik.comm.jus.RetryScheduler} of the queue instead of right away. It is not
+ * delivered, the dispatcher schedules the retry and the cause is the error of the attempt.
+ */
+@SuppressWarnings("serial")
+public class RetryLaterError extends JusError {
+
+    private final long delayNs;
+
+    public RetryLaterError(JusError cause, long delayNs) {
+        super(cause.networkResponse, cause);
+        this.delayNs = delayNs;
+    }
+
+    /**
+     * @return the time to wait before the retry
+     */
+    public long getDelayNs() {
+        return delayNs;
+    }
+
+    @Override
+    public JusError getCause() {
+        return (JusError) super.getCause();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus.stack;
+
+import java.io.IOException;
+
+import io.apptik.comm.jus.NetworkResponse;
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.http.Headers;
+import io.apptik.comm.jus.toolbox.ByteArrayPool;
+
+/**
+ * An HTTP stack abstraction which does not block the calling thread.
+ * The result of the request is reported to the given {@link Callback} once available.
+ *
+ * @see ExecutorHttpStack for adapting a blocking {@link HttpStack}
+ */
+public interface AsyncHttpStack {
+
+    /**
+     * Starts an HTTP request with the given parameters.
+     * Exactly one of the {@link Callback} methods must be called once the request completes.
+     *
+     * @param request           the request to perform
+     * @param additionalHeaders additional headers to be sent together with
+     *                          {@link Request#getHeadersMap()}
+     * @param callback          the callback to be notified with the HTTP response
+     */
+    void performRequest(Request<?> request,
+                        Headers additionalHeaders,
+                        ByteArrayPool byteArrayPool,
+                        Callback callback);
+
+    interface Callback {
+        /**
+         * Called when the HTTP response was received.
+         */
+        void onResponse(NetworkResponse response);
+
+        /**
+         * Called when the request could not be executed or the response could not be read.
+         */
+        void onFailure(IOException e);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus.stack;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import io.apptik.comm.jus.NetworkResponse;
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.error.AuthError;
+import io.apptik.comm.jus.http.Headers;
+import io.apptik.comm.jus.toolbox.ByteArrayPool;
+import io.apptik.comm.jus.toolbox.Utils;
+
+/**
+ * An {@link AsyncHttpStack} running a blocking {@link HttpStack} on an {@link Executor}.
+ * This way existing stacks can be used with {@link io.apptik.comm.jus.AsyncNetworkDispatcher}.
+ */
+public class ExecutorHttpStack implements AsyncHttpStack {
+
+    protected final HttpStack httpStack;
+    protected final Executor executor;
+
+    /**
+     * @param httpStack the blocking stack performing the requests
+     * @param executor  the executor on which requests are performed
+     */
+    public ExecutorHttpStack(HttpStack httpStack, Executor executor) {
+        this.httpStack = Utils.checkNotNull(httpStack, "httpStack==null");
+        this.executor = Utils.checkNotNull(executor, "executor==null");
+    }
+
+    @Override
+    public void performRequest(final Request<?> request, final Headers additionalHeaders,
+                               final ByteArrayPool byteArrayPool, final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                NetworkResponse response;
+                try {
+                    response = httpStack.performRequest(request, additionalHeaders,
+                            byteArrayPool);
+                } catch (IOException e) {
+                    callback.onFailure(e);
+                    return;
+                } catch (AuthError authError) {
+                    callback.onFailure(new IOException(authError));
+                    return;
+                }
+                callback.onResponse(response);
+            }
+        });
+    }
+}
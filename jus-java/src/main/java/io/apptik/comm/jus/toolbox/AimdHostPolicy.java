@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus.toolbox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.NetworkResponse;
+import io.apptik.comm.jus.error.JusError;
+import io.apptik.comm.jus.error.NetworkError;
+import io.apptik.comm.jus.error.NoConnectionError;
+import io.apptik.comm.jus.error.ServerError;
+import io.apptik.comm.jus.error.TimeoutError;
+
+/**
+ * An {@link HostPartitionedQueue.AdaptiveHostPolicy} limiting the requests in flight per host
+ * with additive increase/multiplicative decrease (AIMD).
+ * <p>
+ * The limit of a host grows by one over a window of successful responses, i.e. by one divided
+ * by the limit per response, while at least half of it is used. It is multiplied by the backoff
+ * ratio on overload, i.e. a timeout, a server error, a 429 or 503 response, or a response or
+ * error slower than the latency threshold. Network errors without a response from the host,
+ * e.g. {@link NoConnectionError}, are on the client side and do not count as overload.
+ * </p>
+ * <p>
+ * The requests in flight when a host gets overloaded all tend to fail, so the limit is
+ * decreased at most once per latency window, i.e. the smoothed latency of the host.
+ * </p>
+ * Use it via {@code new HostPartitionedQueue(new AimdHostPolicy(4, 64))}.
+ */
+public class AimdHostPolicy implements HostPartitionedQueue.AdaptiveHostPolicy {
+
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    public static final long DEFAULT_LATENCY_THRESHOLD_MS = 5000;
+
+    private static final class Limit {
+        double value;
+        /**
+         * Smoothed latency of the responses and errors
+         */
+        long latencyNs;
+        long lastDecreaseNs;
+        boolean decreased;
+
+        Limit(double value) {
+            this.value = value;
+        }
+    }
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThresholdNs;
+    private final ConcurrentMap<String, Limit> limits = new ConcurrentHashMap<>();
+
+    /**
+     * @param initialLimit the limit of a host before any outcome is known
+     * @param maxLimit     the highest limit of a host
+     */
+    public AimdHostPolicy(int initialLimit, int maxLimit) {
+        this(initialLimit, 1, maxLimit, DEFAULT_BACKOFF_RATIO, DEFAULT_LATENCY_THRESHOLD_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param initialLimit     the limit of a host before any outcome is known
+     * @param minLimit         the lowest limit of a host
+     * @param maxLimit         the highest limit of a host
+     * @param backoffRatio     the ratio the limit is multiplied by on overload
+     * @param latencyThreshold responses slower than this count as overload
+     * @param unit             the unit of the latency threshold
+     */
+    public AimdHostPolicy(int initialLimit, int minLimit, int maxLimit, double backoffRatio,
+                          long latencyThreshold, TimeUnit unit) {
+        if (minLimit < 1) {
+            throw new IllegalArgumentException("minLimit < 1");
+        }
+        if (maxLimit < minLimit) {
+            throw new IllegalArgumentException("maxLimit < minLimit");
+        }
+        if (initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("initialLimit not in [minLimit, maxLimit]");
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be in (0, 1)");
+        }
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyThresholdNs = unit.toNanos(latencyThreshold);
+    }
+
+    @Override
+    public int getMaxInFlight(String host) {
+        return getLimit(host);
+    }
+
+    @Override
+    public int getWeight(String host) {
+        return 1;
+    }
+
+    @Override
+    public void onResponse(String host, NetworkResponse response, int inFlight) {
+        if (response.networkTimeNs > latencyThresholdNs
+                || response.statusCode == 429 || response.statusCode == 503) {
+            decrease(host, response.networkTimeNs);
+        } else {
+            increase(host, response.networkTimeNs, inFlight);
+        }
+    }
+
+    @Override
+    public void onError(String host, JusError error, int inFlight) {
+        long latencyNs = error.getNetworkTimeNs();
+        if (latencyNs > latencyThresholdNs || isOverload(error)) {
+            decrease(host, latencyNs);
+        } else {
+            onLatency(limitOf(host), latencyNs);
+        }
+    }
+
+    /**
+     * @return the current limit of requests in flight for the host
+     */
+    public int getLimit(String host) {
+        Limit limit = limits.get(host);
+        if (limit == null) {
+            return initialLimit;
+        }
+        synchronized (limit) {
+            return (int) limit.value;
+        }
+    }
+
+    /**
+     * @return a snapshot of the current limits of the hosts with known outcomes
+     */
+    public Map<String, Integer> getLimits() {
+        Map<String, Integer> res = new HashMap<>();
+        for (String host : limits.keySet()) {
+            res.put(host, getLimit(host));
+        }
+        return res;
+    }
+
+    /**
+     * @return true if the error indicates that the host is overloaded. Network errors count
+     * only if they are timeouts or the host responded, the others, e.g.
+     * {@link NoConnectionError} or an unknown host, are on the client side.
+     */
+    protected boolean isOverload(JusError error) {
+        if (error instanceof ServerError || error instanceof TimeoutError) {
+            return true;
+        }
+        if (error.networkResponse == null) {
+            return false;
+        }
+        if (error instanceof NetworkError) {
+            //e.g. the body of the response was cut off
+            return !(error instanceof NoConnectionError);
+        }
+        return error.networkResponse.statusCode == 429
+                || error.networkResponse.statusCode == 503;
+    }
+
+    private void increase(String host, long latencyNs, int inFlight) {
+        Limit limit = limitOf(host);
+        synchronized (limit) {
+            onLatency(limit, latencyNs);
+            //grow only if the limit is actually used
+            if (inFlight * 2 >= limit.value) {
+                limit.value = Math.min(maxLimit, limit.value + 1 / limit.value);
+            }
+        }
+    }
+
+    private void decrease(String host, long latencyNs) {
+        Limit limit = limitOf(host);
+        long now = System.nanoTime();
+        synchronized (limit) {
+            onLatency(limit, latencyNs);
+            //the other requests in flight of the same window are hit by the same overload
+            if (limit.decreased && now - limit.lastDecreaseNs < limit.latencyNs) {
+                return;
+            }
+            limit.value = Math.max(minLimit, limit.value * backoffRatio);
+            limit.lastDecreaseNs = now;
+            limit.decreased = true;
+        }
+    }
+
+    private static void onLatency(Limit limit, long latencyNs) {
+        if (latencyNs <= 0) {
+            return;
+        }
+        synchronized (limit) {
+            if (limit.latencyNs == 0) {
+                limit.latencyNs = latencyNs;
+            } else {
+                limit.latencyNs += (latencyNs - limit.latencyNs) / 8;
+            }
+        }
+    }
+
+    private Limit limitOf(String host) {
+        Limit limit = limits.get(host);
+        if (limit == null) {
+            limit = new Limit(initialLimit);
+            Limit existing = limits.putIfAbsent(host, limit);
+            if (existing != null) {
+                limit = existing;
+            }
+        }
+        return limit;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus.toolbox;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import io.apptik.comm.jus.AsyncNetwork;
+import io.apptik.comm.jus.CircuitBreaker;
+import io.apptik.comm.jus.NetworkResponse;
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.error.CircuitOpenError;
+import io.apptik.comm.jus.error.JusError;
+import io.apptik.comm.jus.error.NetworkError;
+import io.apptik.comm.jus.error.RetryLaterError;
+import io.apptik.comm.jus.http.Headers;
+import io.apptik.comm.jus.stack.AsyncHttpStack;
+
+/**
+ * An {@link AsyncNetwork} performing Jus requests over an {@link AsyncHttpStack}.
+ * <p>
+ * It follows the same steps as {@link HttpNetwork}, i.e. circuit breaking, redirects,
+ * authentication, retries and cache validation, however each step is continued from the stack
+ * callback instead of blocking a thread while waiting for the response.
+ * </p>
+ */
+public class AsyncHttpNetwork implements AsyncNetwork {
+
+    protected final AsyncHttpStack httpStack;
+
+    protected final ByteArrayPool pool;
+
+    /**
+     * @param httpStack HTTP stack to be used
+     */
+    public AsyncHttpNetwork(AsyncHttpStack httpStack) {
+        this(httpStack, new ByteArrayPool(HttpNetwork.DEFAULT_POOL_SIZE));
+    }
+
+    /**
+     * @param httpStack HTTP stack to be used
+     * @param pool      a buffer pool that improves GC performance in copy operations
+     */
+    public AsyncHttpNetwork(AsyncHttpStack httpStack, ByteArrayPool pool) {
+        this.httpStack = httpStack;
+        this.pool = pool;
+    }
+
+    @Override
+    public void performRequest(Request<?> request, Callback callback) {
+        CircuitBreaker circuitBreaker;
+        try {
+            circuitBreaker = HttpNetwork.acquireCircuit(request);
+        } catch (CircuitOpenError error) {
+            callback.onError(error);
+            return;
+        }
+        if (circuitBreaker != null) {
+            callback = new CircuitBreakerCallback(request, circuitBreaker, callback);
+        }
+        new Call(request, callback).send();
+    }
+
+    /**
+     * Reports the outcome of a request to its {@link CircuitBreaker}.
+     */
+    private static final class CircuitBreakerCallback implements Callback {
+        private final Request<?> request;
+        private final CircuitBreaker circuitBreaker;
+        private final Callback callback;
+        private final long requestStart = System.nanoTime();
+
+        CircuitBreakerCallback(Request<?> request, CircuitBreaker circuitBreaker,
+                               Callback callback) {
+            this.request = request;
+            this.circuitBreaker = circuitBreaker;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onResponse(NetworkResponse response) {
+            circuitBreaker.onSuccess(request, System.nanoTime() - requestStart);
+            callback.onResponse(response);
+        }
+
+        @Override
+        public void onError(JusError error) {
+            JusError failure = error instanceof RetryLaterError
+                    ? ((RetryLaterError) error).getCause() : error;
+            circuitBreaker.onError(request, failure, System.nanoTime() - requestStart);
+            callback.onError(error);
+        }
+    }
+
+    /**
+     * The state of a single request going through the network.
+     */
+    private final class Call implements AsyncHttpStack.Callback {
+        private final Request<?> request;
+        private final Callback callback;
+        private final long requestStart = System.nanoTime();
+        private boolean serverAuthRequested = false;
+        private boolean proxyAuthRequested = false;
+        /**
+         * The last response received from the stack
+         */
+        private NetworkResponse httpResponse;
+        /**
+         * The redirect request currently being performed if any
+         */
+        private Request<?> redirectRequest;
+
+        Call(Request<?> request, Callback callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+
+        void send() {
+            if (request.isCanceled()) {
+                //it will be handled/ignored later
+                callback.onResponse(null);
+                return;
+            }
+            httpResponse = null;
+            redirectRequest = null;
+            Headers extraHeaders;
+            try {
+                HttpNetwork.checkConnection(request);
+                extraHeaders = HttpNetwork.prepareHeaders(request);
+            } catch (JusError error) {
+                callback.onError(error);
+                return;
+            }
+            perform(request, extraHeaders);
+        }
+
+        private void perform(Request<?> r, Headers extraHeaders) {
+            try {
+                httpStack.performRequest(r, extraHeaders, pool, this);
+            } catch (RuntimeException e) {
+                callback.onError(new JusError(e));
+            }
+        }
+
+        @Override
+        public void onResponse(NetworkResponse response) {
+            NetworkResponse finalResponse;
+            try {
+                if (redirectRequest != null) {
+                    request.addMarker(Request.EVENT_ID_NETWORK_STACK_REDIRECT_COMPLETE, response);
+                } else if (response == null) {
+                    throw new NetworkError("No Response");
+                }
+                httpResponse = response;
+
+                //Check for redirects
+                if (request.getRedirectPolicy() != null) {
+                    Request<?> newR = request.getRedirectPolicy().verifyRedirect(request,
+                            httpResponse);
+                    if (newR != null) {
+                        redirectRequest = newR;
+                        request.addMarker(Request.EVENT_ID_NETWORK_STACK_REDIRECT_SEND, newR);
+                        perform(newR, new Headers.Builder().build());
+                        return;
+                    }
+                }
+                redirectRequest = null;
+
+                httpResponse = HttpNetwork.processStackResponse(request, httpResponse);
+
+                //Check for Auth
+                if (httpResponse.statusCode == HttpURLConnection.HTTP_UNAUTHORIZED) {
+                    serverAuthRequested = HttpNetwork.resendWithServerAuth(request,
+                            httpResponse, serverAuthRequested);
+                    finalResponse = null;
+                } else if (httpResponse.statusCode == HttpURLConnection.HTTP_PROXY_AUTH) {
+                    proxyAuthRequested = HttpNetwork.resendWithProxyAuth(request,
+                            httpResponse, proxyAuthRequested);
+                    finalResponse = null;
+                } else {
+                    finalResponse = HttpNetwork.completeResponse(request, httpResponse,
+                            requestStart);
+                }
+            } catch (IOException e) {
+                onFailure(e);
+                return;
+            } catch (JusError error) {
+                callback.onError(error);
+                return;
+            } catch (RuntimeException e) {
+                callback.onError(new JusError(e));
+                return;
+            }
+            if (finalResponse == null) {
+                //resend with the refreshed auth
+                send();
+            } else {
+                callback.onResponse(finalResponse);
+            }
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            try {
+                HttpNetwork.retryOrThrow(request, httpResponse, e);
+            } catch (JusError error) {
+                callback.onError(error);
+                return;
+            } catch (RuntimeException re) {
+                callback.onError(new JusError(re));
+                return;
+            }
+            send();
+        }
+    }
+}
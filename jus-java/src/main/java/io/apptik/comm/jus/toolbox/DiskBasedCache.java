@@ -65,6 +65,11 @@ public class DiskBasedCache implements Cache {
      */
     private final int mMaxCacheSizeInBytes;
 
+    /**
+     * Whether the entries on disk were already scanned.
+     */
+    private boolean mInitialized = false;
+
     /**
      * Default maximum disk usage in bytes.
      */
@@ -171,8 +176,14 @@ public class DiskBasedCache implements Cache {
                         .getAbsolutePath());
             }
             //we have an empty cache so we just return
+            mInitialized = true;
+            return;
+        }
+        //may be called by several cache dispatchers
+        if (mInitialized) {
             return;
         }
+        mInitialized = true;
 
         File[] files = mRootDirectory.listFiles();
         if (files == null) {
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus.toolbox;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.CircuitBreaker;
+import io.apptik.comm.jus.DefaultRetryPolicy;
+import io.apptik.comm.jus.Network;
+import io.apptik.comm.jus.NetworkResponse;
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.RetryPolicy;
+import io.apptik.comm.jus.error.JusError;
+import io.apptik.comm.jus.http.Util;
+
+import static io.apptik.comm.jus.toolbox.Utils.checkNotNull;
+
+/**
+ * A {@link Network} sending a duplicate of slow requests to cut the tail latency.
+ * <p>
+ * If a request, whose method {@link Request.Method#canRetry(String) can be retried}, has no
+ * response within the delay given by the {@link HedgePolicy}, a {@link Request#clone() clone}
+ * of it is sent as well. The first successful {@link NetworkResponse} wins and the other
+ * attempt is cancelled. An error is returned only if both attempts failed.
+ * </p>
+ * <p>
+ * The attempts run on the executor while the calling dispatcher waits for them.
+ * </p>
+ * Use it as the network of a {@link io.apptik.comm.jus.RequestQueue}, e.g.
+ * {@code new HedgingNetwork(new HttpNetwork(stack), new PercentileHedgePolicy(0.95, 100,
+ * TimeUnit.MILLISECONDS))}.
+ */
+public class HedgingNetwork implements Network {
+
+    /**
+     * Decides when to send the duplicate of a request.
+     */
+    public interface HedgePolicy {
+        /**
+         * @return the time in nanoseconds to wait for a response before sending a duplicate,
+         * negative to never send one for this request
+         */
+        long getHedgeDelayNs(Request<?> request);
+
+        /**
+         * Called with the latency of every successful attempt.
+         */
+        void onResponse(Request<?> request, long latencyNs);
+    }
+
+    /**
+     * Hedges every request after the same delay.
+     */
+    public static class FixedHedgePolicy implements HedgePolicy {
+        private final long delayNs;
+
+        public FixedHedgePolicy(long delay, TimeUnit unit) {
+            if (delay < 0) {
+                throw new IllegalArgumentException("delay < 0");
+            }
+            this.delayNs = unit.toNanos(delay);
+        }
+
+        @Override
+        public long getHedgeDelayNs(Request<?> request) {
+            return delayNs;
+        }
+
+        @Override
+        public void onResponse(Request<?> request, long latencyNs) {
+        }
+    }
+
+    /**
+     * Hedges after the given percentile of the latencies observed for the host of the request,
+     * e.g. 0.95 sends duplicates for the slowest 5% of the requests. Until there are enough
+     * latencies for a host the initial delay is used.
+     */
+    public static class PercentileHedgePolicy implements HedgePolicy {
+        private static final int DEFAULT_WINDOW_SIZE = 100;
+
+        private final double percentile;
+        private final long initialDelayNs;
+        private final int windowSize;
+        private final ConcurrentMap<String, LatencyWindow> windows = new ConcurrentHashMap<>();
+
+        public PercentileHedgePolicy(double percentile, long initialDelay, TimeUnit unit) {
+            this(percentile, initialDelay, unit, DEFAULT_WINDOW_SIZE);
+        }
+
+        /**
+         * @param windowSize the number of latest latencies per host the percentile is
+         *                   computed from
+         */
+        public PercentileHedgePolicy(double percentile, long initialDelay, TimeUnit unit,
+                                     int windowSize) {
+            if (percentile <= 0 || percentile > 1) {
+                throw new IllegalArgumentException("percentile must be in (0, 1]");
+            }
+            if (initialDelay < 0) {
+                throw new IllegalArgumentException("initialDelay < 0");
+            }
+            if (windowSize < 1) {
+                throw new IllegalArgumentException("windowSize < 1");
+            }
+            this.percentile = percentile;
+            this.initialDelayNs = unit.toNanos(initialDelay);
+            this.windowSize = windowSize;
+        }
+
+        @Override
+        public long getHedgeDelayNs(Request<?> request) {
+            LatencyWindow window = windows.get(HostPartitionedQueue.hostOf(request));
+            long delayNs = window == null ? -1 : window.percentile(percentile);
+            return delayNs < 0 ? initialDelayNs : delayNs;
+        }
+
+        @Override
+        public void onResponse(Request<?> request, long latencyNs) {
+            String host = HostPartitionedQueue.hostOf(request);
+            LatencyWindow window = windows.get(host);
+            if (window == null) {
+                window = new LatencyWindow(windowSize);
+                LatencyWindow existing = windows.putIfAbsent(host, window);
+                if (existing != null) {
+                    window = existing;
+                }
+            }
+            window.add(latencyNs);
+        }
+    }
+
+    /**
+     * The latest latencies of a host in a ring buffer.
+     */
+    private static class LatencyWindow {
+        private final long[] latencies;
+        private final int minSamples;
+        private int next;
+        private int count;
+
+        LatencyWindow(int size) {
+            latencies = new long[size];
+            minSamples = Math.min(size, 10);
+        }
+
+        synchronized void add(long latencyNs) {
+            latencies[next] = latencyNs;
+            next = (next + 1) % latencies.length;
+            if (count < latencies.length) {
+                count++;
+            }
+        }
+
+        /**
+         * @return the latency at the percentile, -1 if there are not enough samples yet
+         */
+        synchronized long percentile(double percentile) {
+            if (count < minSamples) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+
+    protected final Network network;
+    protected final HedgePolicy hedgePolicy;
+    private final ExecutorService executor;
+
+    public HedgingNetwork(Network network, HedgePolicy hedgePolicy) {
+        this(network, hedgePolicy,
+                Executors.newCachedThreadPool(Util.threadFactory("JusHedgingNetwork", true)));
+    }
+
+    /**
+     * @param network     the network performing the attempts
+     * @param hedgePolicy the policy deciding when to send a duplicate
+     * @param executor    the executor running the attempts, it must not queue them
+     */
+    public HedgingNetwork(Network network, HedgePolicy hedgePolicy, ExecutorService executor) {
+        this.network = checkNotNull(network, "network==null");
+        this.hedgePolicy = checkNotNull(hedgePolicy, "hedgePolicy==null");
+        this.executor = checkNotNull(executor, "executor==null");
+    }
+
+    public HedgePolicy getHedgePolicy() {
+        return hedgePolicy;
+    }
+
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws JusError {
+        long delayNs = Request.Method.canRetry(request.getMethod())
+                ? hedgePolicy.getHedgeDelayNs(request) : -1;
+        if (delayNs < 0) {
+            long start = System.nanoTime();
+            NetworkResponse response = network.performRequest(request);
+            hedgePolicy.onResponse(request, System.nanoTime() - start);
+            return response;
+        }
+
+        CompletionService<NetworkResponse> attempts = new ExecutorCompletionService<>(executor);
+        Future<NetworkResponse> primary = attempts.submit(new Attempt(request));
+        Request<?> hedge = null;
+        Future<NetworkResponse> secondary = null;
+        try {
+            Future<NetworkResponse> done = attempts.poll(delayNs, TimeUnit.NANOSECONDS);
+            if (done == null) {
+                if (!request.isCanceled() && !request.isExpired() && isCircuitClosed(request)) {
+                    hedge = hedgeOf(request);
+                    request.addMarker(Request.EVENT_ID_NETWORK_HEDGE, delayNs);
+                    secondary = attempts.submit(new Attempt(hedge));
+                }
+                done = attempts.take();
+            }
+            int pending = secondary == null ? 1 : 2;
+            JusError error = null;
+            while (true) {
+                pending--;
+                try {
+                    NetworkResponse response = done.get();
+                    if (done == secondary) {
+                        primary.cancel(true);
+                        request.addMarker(Request.EVENT_ID_NETWORK_HEDGE_WON);
+                        //the clone is not in the queue, so its response was not transformed
+                        if (request.getRequestQueue() != null) {
+                            response = request.getRequestQueue()
+                                    .transformResponse(request, response);
+                        }
+                    } else if (secondary != null) {
+                        cancel(hedge, secondary);
+                    }
+                    return response;
+                } catch (ExecutionException e) {
+                    //prefer the error of the original request
+                    if (error == null || done == primary) {
+                        error = toJusError(e.getCause());
+                    }
+                    if (pending == 0) {
+                        throw error;
+                    }
+                }
+                done = attempts.take();
+            }
+        } catch (InterruptedException e) {
+            primary.cancel(true);
+            if (secondary != null) {
+                cancel(hedge, secondary);
+            }
+            Thread.currentThread().interrupt();
+            throw new JusError(e);
+        }
+    }
+
+    /**
+     * A backend which is failing or probed after failing gets no duplicates.
+     */
+    private static boolean isCircuitClosed(Request<?> request) {
+        CircuitBreaker circuitBreaker = request.getCircuitBreaker();
+        return circuitBreaker == null || circuitBreaker.getState() == CircuitBreaker.State.CLOSED;
+    }
+
+    /**
+     * Creates the duplicate of the request. It has the same network request and policies,
+     * including the {@link CircuitBreaker} recording its outcome, but only one attempt with the
+     * current timeout of the original.
+     */
+    protected Request<?> hedgeOf(Request<?> request) {
+        Request<?> hedge = request.clone();
+        hedge.setPriority(request.getPriority());
+        hedge.setTag(request.getTag());
+        hedge.setCacheEntry(request.getCacheEntry());
+        hedge.setServerAuthenticator(request.getServerAuthenticator());
+        hedge.setProxyAuthenticator(request.getProxyAuthenticator());
+        hedge.setRedirectPolicy(request.getRedirectPolicy());
+        hedge.setNoConnectionPolicy(request.getNoConnectionPolicy());
+        hedge.setConnectivityManager(request.getConnectivityManager());
+        hedge.setCircuitBreaker(request.getCircuitBreaker());
+        RetryPolicy retryPolicy = request.getRetryPolicy();
+        if (retryPolicy != null) {
+            hedge.setRetryPolicy(new DefaultRetryPolicy(
+                    Math.max(retryPolicy.getCurrentConnectTimeout(),
+                            retryPolicy.getCurrentReadTimeout()), 0, 1f));
+        }
+        if (request.hasDeadline()) {
+            hedge.setDeadlineNs(request.getDeadlineNs());
+        }
+        return hedge;
+    }
+
+    private static void cancel(Request<?> hedge, Future<NetworkResponse> attempt) {
+        hedge.cancel();
+        attempt.cancel(true);
+    }
+
+    private static JusError toJusError(Throwable t) {
+        if (t instanceof JusError) {
+            return (JusError) t;
+        }
+        return new JusError(t);
+    }
+
+    private class Attempt implements Callable<NetworkResponse> {
+        private final Request<?> request;
+
+        Attempt(Request<?> request) {
+            this.request = request;
+        }
+
+        @Override
+        public NetworkResponse call() throws Exception {
+            long start = System.nanoTime();
+            NetworkResponse response = network.performRequest(request);
+            hedgePolicy.onResponse(request, System.nanoTime() - start);
+            return response;
+        }
+    }
+}
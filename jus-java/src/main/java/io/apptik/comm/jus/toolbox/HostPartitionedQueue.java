@@ -0,0 +1,704 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus.toolbox;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.apptik.comm.jus.InFlightQueue;
+import io.apptik.comm.jus.NetworkResponse;
+import io.apptik.comm.jus.PurgeableQueue;
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.error.JusError;
+import io.apptik.comm.jus.http.HttpUrl;
+
+/**
+ * A network queue partitioned by the host of the requests.
+ * <p>
+ * Each host has its own sub-queue ordered like {@link Request#compareTo(Request)}, by the
+ * priority and sequence of the requests read once when they are added. Hosts are
+ * served round-robin, or weighted-fair when {@link HostPolicy#getWeight(String)} is greater
+ * than 1, and a host is skipped while it has {@link HostPolicy#getMaxInFlight(String)}
+ * requests in flight. This way a slow host cannot occupy all the network dispatchers and
+ * starve requests to healthy hosts.
+ * </p>
+ * <p>
+ * A request is in flight from the moment it is taken from the queue until it is done or
+ * scheduled for a retry, see {@link InFlightQueue}. Requests which are taken but not finished
+ * via a {@link io.apptik.comm.jus.RequestQueue} must be released manually with
+ * {@link #release(Request)}.
+ * </p>
+ * <p>
+ * With an {@link AdaptiveHostPolicy}, e.g. {@link AimdHostPolicy}, the max in flight of each
+ * host follows its latency and errors, so requests wait in the queue instead of piling up on a
+ * struggling host.
+ * </p>
+ * Use it via {@link io.apptik.comm.jus.RequestQueue#withNetworkQueue(BlockingQueue)}.
+ */
+public class HostPartitionedQueue extends AbstractQueue<Request<?>>
+        implements BlockingQueue<Request<?>>, PurgeableQueue, InFlightQueue {
+
+    /**
+     * Provides the limits per host.
+     */
+    public interface HostPolicy {
+        /**
+         * @return the maximum number of requests in flight for the host
+         */
+        int getMaxInFlight(String host);
+
+        /**
+         * @return the number of requests taken for the host in one round, 1 for round-robin
+         */
+        int getWeight(String host);
+    }
+
+    /**
+     * A {@link HostPolicy} adapting the limits to the outcome of the requests. It is notified
+     * about every request taken from the queue once it reached the network, via
+     * {@link InFlightQueue#onNetworkResponse(Request, NetworkResponse)} and
+     * {@link InFlightQueue#onNetworkError(Request, JusError)}.
+     *
+     * @see AimdHostPolicy
+     */
+    public interface AdaptiveHostPolicy extends HostPolicy {
+        /**
+         * @param host     the host of the request
+         * @param response the network response, see {@link NetworkResponse#networkTimeNs}
+         * @param inFlight the number of requests in flight for the host including this one
+         */
+        void onResponse(String host, NetworkResponse response, int inFlight);
+
+        /**
+         * @param host     the host of the request
+         * @param error    the error, see {@link JusError#getNetworkTimeNs()}
+         * @param inFlight the number of requests in flight for the host including this one
+         */
+        void onError(String host, JusError error, int inFlight);
+    }
+
+    /**
+     * A {@link HostPolicy} with a default max in flight and weight, which can be overridden
+     * for specific hosts.
+     */
+    public static class SimpleHostPolicy implements HostPolicy {
+        private final int defaultMaxInFlight;
+        private final int defaultWeight;
+        private final Map<String, Integer> maxInFlight = new ConcurrentHashMap<>();
+        private final Map<String, Integer> weights = new ConcurrentHashMap<>();
+
+        public SimpleHostPolicy(int defaultMaxInFlight) {
+            this(defaultMaxInFlight, 1);
+        }
+
+        public SimpleHostPolicy(int defaultMaxInFlight, int defaultWeight) {
+            if (defaultMaxInFlight < 1) {
+                throw new IllegalArgumentException("defaultMaxInFlight < 1");
+            }
+            if (defaultWeight < 1) {
+                throw new IllegalArgumentException("defaultWeight < 1");
+            }
+            this.defaultMaxInFlight = defaultMaxInFlight;
+            this.defaultWeight = defaultWeight;
+        }
+
+        public SimpleHostPolicy setMaxInFlight(String host, int max) {
+            if (max < 1) {
+                throw new IllegalArgumentException("max < 1");
+            }
+            maxInFlight.put(host, max);
+            return this;
+        }
+
+        public SimpleHostPolicy setWeight(String host, int weight) {
+            if (weight < 1) {
+                throw new IllegalArgumentException("weight < 1");
+            }
+            weights.put(host, weight);
+            return this;
+        }
+
+        @Override
+        public int getMaxInFlight(String host) {
+            Integer max = maxInFlight.get(host);
+            return max == null ? defaultMaxInFlight : max;
+        }
+
+        @Override
+        public int getWeight(String host) {
+            Integer weight = weights.get(host);
+            return weight == null ? defaultWeight : weight;
+        }
+    }
+
+    private static final class Lane {
+        final String host;
+        /**
+         * Slots of the pending requests, including the ones removed but not yet skipped
+         */
+        final PriorityQueue<Slot> pending = new PriorityQueue<>();
+        /**
+         * The number of pending requests which are not removed
+         */
+        int pendingCount = 0;
+        int inFlight = 0;
+        /**
+         * Requests taken in the current round
+         */
+        int served = 0;
+        /**
+         * Whether the lane is in the round-robin ring
+         */
+        boolean active = false;
+
+        Lane(String host) {
+            this.host = host;
+        }
+    }
+
+    /**
+     * Holds a pending request in its lane. It is kept on the request, so the request can be
+     * removed without searching the lane. The slot keeps its own ordering, so the request can
+     * be released as soon as it is taken or removed.
+     */
+    private static final class Slot implements Comparable<Slot> {
+        final HostPartitionedQueue queue;
+        final Lane lane;
+        final Request.Priority priority;
+        final int sequence;
+        /**
+         * The pending request, null once it was taken or removed. Must hold the lock.
+         */
+        Request<?> request;
+
+        Slot(HostPartitionedQueue queue, Lane lane, Request<?> request) {
+            this.queue = queue;
+            this.lane = lane;
+            this.priority = request.getPriority();
+            this.sequence = request.getSequence();
+            this.request = request;
+        }
+
+        /**
+         * Same order as {@link Request#compareTo(Request)}.
+         */
+        @Override
+        public int compareTo(Slot other) {
+            return priority == other.priority
+                    ? sequence - other.sequence
+                    : other.priority.ordinal() - priority.ordinal();
+        }
+    }
+
+    private final HostPolicy hostPolicy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Map<String, Lane> lanes = new HashMap<>();
+    /**
+     * Lanes with pending requests in round-robin order
+     */
+    private final ArrayDeque<Lane> ring = new ArrayDeque<>();
+    private final Map<Request<?>, Lane> inFlight = new IdentityHashMap<>();
+    private int size = 0;
+
+    /**
+     * @param maxInFlightPerHost maximum number of requests in flight for each host
+     */
+    public HostPartitionedQueue(int maxInFlightPerHost) {
+        this(new SimpleHostPolicy(maxInFlightPerHost));
+    }
+
+    /**
+     * @param hostPolicy provides the limits per host
+     */
+    public HostPartitionedQueue(HostPolicy hostPolicy) {
+        this.hostPolicy = Utils.checkNotNull(hostPolicy, "hostPolicy==null");
+    }
+
+    public HostPolicy getHostPolicy() {
+        return hostPolicy;
+    }
+
+    /**
+     * @return the host a request is partitioned by
+     */
+    public static String hostOf(Request<?> request) {
+        HttpUrl url = request.getUrl();
+        return url == null ? "" : url.host();
+    }
+
+    /**
+     * @return the number of requests in flight for the host
+     */
+    public int getInFlight(String host) {
+        lock.lock();
+        try {
+            Lane lane = lanes.get(host);
+            return lane == null ? 0 : lane.inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of pending requests for the host
+     */
+    public int getPending(String host) {
+        lock.lock();
+        try {
+            Lane lane = lanes.get(host);
+            return lane == null ? 0 : lane.pendingCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the in flight slot taken by the request. Called by the
+     * {@link io.apptik.comm.jus.RequestQueue} when the request is done and by the network
+     * dispatchers when a retry is scheduled.
+     *
+     * @return true if the request was in flight
+     */
+    @Override
+    public boolean release(Request<?> request) {
+        lock.lock();
+        try {
+            Lane lane = inFlight.remove(request);
+            if (lane == null) {
+                return false;
+            }
+            lane.inFlight--;
+            if (lane.pendingCount > 0) {
+                available.signal();
+            } else {
+                discardIfUnused(lane);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Signals waiting takers that the limits of the {@link HostPolicy} may have changed.
+     */
+    public void onPolicyChanged() {
+        lock.lock();
+        try {
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Request<?> request) {
+        Utils.checkNotNull(request, "request==null");
+        lock.lock();
+        try {
+            enqueue(request);
+            available.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds all requests under one lock and wakes up the waiting takers at once.
+     */
+    @Override
+    public boolean addAll(Collection<? extends Request<?>> requests) {
+        if (requests == this) {
+            throw new IllegalArgumentException();
+        }
+        for (Request<?> request : requests) {
+            Utils.checkNotNull(request, "request==null");
+        }
+        lock.lock();
+        try {
+            for (Request<?> request : requests) {
+                enqueue(request);
+            }
+            available.signalAll();
+            return !requests.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Request<?> request) {
+        offer(request);
+    }
+
+    @Override
+    public boolean offer(Request<?> request, long timeout, TimeUnit unit) {
+        return offer(request);
+    }
+
+    @Override
+    public Request<?> take() throws InterruptedException {
+        Request<?> request;
+        lock.lockInterruptibly();
+        try {
+            while ((request = dequeue()) == null) {
+                available.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return request;
+    }
+
+    @Override
+    public Request<?> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        Request<?> request;
+        lock.lockInterruptibly();
+        try {
+            while ((request = dequeue()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = available.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return request;
+    }
+
+    @Override
+    public Request<?> poll() {
+        Request<?> request;
+        lock.lock();
+        try {
+            request = dequeue();
+        } finally {
+            lock.unlock();
+        }
+        return request;
+    }
+
+    @Override
+    public Request<?> peek() {
+        lock.lock();
+        try {
+            for (Lane lane : ring) {
+                if (isEligible(lane)) {
+                    return head(lane).request;
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof Request)) {
+            return false;
+        }
+        Request<?> request = (Request<?>) o;
+        lock.lock();
+        try {
+            return unlink(request);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the slot of the canceled request as removed, it stays in its lane until it is
+     * skipped when taking.
+     */
+    @Override
+    public boolean removeCanceled(Request<?> request) {
+        if (!request.isCanceled()) {
+            return false;
+        }
+        lock.lock();
+        try {
+            return unlink(request);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            for (Lane lane : ring) {
+                for (Slot slot : lane.pending) {
+                    slot.request = null;
+                }
+                lane.pending.clear();
+                lane.pendingCount = 0;
+                lane.active = false;
+                lane.served = 0;
+            }
+            ring.clear();
+            size = 0;
+            Iterator<Lane> it = lanes.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().inFlight == 0) {
+                    it.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Iterates over a snapshot of the pending requests.
+     */
+    @Override
+    public Iterator<Request<?>> iterator() {
+        final List<Request<?>> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Lane lane : ring) {
+                for (Slot slot : lane.pending) {
+                    if (slot.request != null) {
+                        snapshot.add(slot.request);
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        final Iterator<Request<?>> it = snapshot.iterator();
+        return new Iterator<Request<?>>() {
+            Request<?> last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Request<?> next() {
+                last = it.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                HostPartitionedQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    @Override
+    public int drainTo(Collection<? super Request<?>> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Request<?>> c, int maxElements) {
+        Utils.checkNotNull(c, "c==null");
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int n = 0;
+        Request<?> request;
+        while (n < maxElements && (request = poll()) != null) {
+            c.add(request);
+            n++;
+        }
+        return n;
+    }
+
+    private boolean isEligible(Lane lane) {
+        return lane.pendingCount > 0
+                && lane.inFlight < hostPolicy.getMaxInFlight(lane.host);
+    }
+
+    /**
+     * Picks the next request from the first eligible lane of the ring. Must hold the lock.
+     */
+    private Request<?> dequeue() {
+        int lanesToCheck = ring.size();
+        while (lanesToCheck-- > 0) {
+            Lane lane = ring.peekFirst();
+            if (!isEligible(lane)) {
+                lane.served = 0;
+                ring.addLast(ring.pollFirst());
+                continue;
+            }
+            Slot slot = head(lane);
+            lane.pending.poll();
+            Request<?> request = slot.request;
+            slot.request = null;
+            lane.pendingCount--;
+            size--;
+            lane.inFlight++;
+            lane.served++;
+            inFlight.put(request, lane);
+            if (lane.pendingCount == 0) {
+                deactivate(lane);
+            } else if (lane.served >= hostPolicy.getWeight(lane.host)) {
+                lane.served = 0;
+                ring.addLast(ring.pollFirst());
+            }
+            if (size > 0) {
+                //there may be other eligible lanes
+                available.signal();
+            }
+            return request;
+        }
+        return null;
+    }
+
+    /**
+     * Adds the request to the lane of its host. Must hold the lock.
+     */
+    private void enqueue(Request<?> request) {
+        String host = hostOf(request);
+        Lane lane = lanes.get(host);
+        if (lane == null) {
+            lane = new Lane(host);
+            lanes.put(host, lane);
+        }
+        Slot slot = new Slot(this, lane, request);
+        request.setQueueSlot(slot);
+        lane.pending.offer(slot);
+        lane.pendingCount++;
+        size++;
+        if (!lane.active) {
+            lane.active = true;
+            ring.addLast(lane);
+        }
+    }
+
+    /**
+     * Returns the slot of the next pending request of the lane, dropping the removed slots
+     * before it. Must hold the lock.
+     */
+    private Slot head(Lane lane) {
+        Slot slot;
+        while ((slot = lane.pending.peek()) != null && slot.request == null) {
+            lane.pending.poll();
+        }
+        return slot;
+    }
+
+    /**
+     * Removes the request if it is pending in this queue. Must hold the lock.
+     */
+    private boolean unlink(Request<?> request) {
+        Object queueSlot = request.getQueueSlot();
+        if (!(queueSlot instanceof Slot)) {
+            return false;
+        }
+        Slot slot = (Slot) queueSlot;
+        if (slot.queue != this || slot.request != request) {
+            return false;
+        }
+        slot.request = null;
+        slot.lane.pendingCount--;
+        size--;
+        if (slot.lane.pendingCount == 0) {
+            deactivate(slot.lane);
+        }
+        return true;
+    }
+
+    /**
+     * Takes the lane, which has no pending requests, out of the ring. Must hold the lock.
+     */
+    private void deactivate(Lane lane) {
+        //only removed slots are left
+        lane.pending.clear();
+        ring.remove(lane);
+        lane.active = false;
+        lane.served = 0;
+        discardIfUnused(lane);
+    }
+
+    private void discardIfUnused(Lane lane) {
+        if (lane.inFlight == 0 && lane.pendingCount == 0 && !lane.active) {
+            lanes.remove(lane.host);
+        }
+    }
+
+    @Override
+    public void onNetworkResponse(Request<?> request, NetworkResponse response) {
+        if (hostPolicy instanceof AdaptiveHostPolicy) {
+            onOutcome((AdaptiveHostPolicy) hostPolicy, request, response, null);
+        }
+    }
+
+    @Override
+    public void onNetworkError(Request<?> request, JusError error) {
+        //errors without network time never reached the network
+        if (hostPolicy instanceof AdaptiveHostPolicy && error.getNetworkTimeNs() > 0) {
+            onOutcome((AdaptiveHostPolicy) hostPolicy, request, null, error);
+        }
+    }
+
+    private void onOutcome(AdaptiveHostPolicy adaptivePolicy, Request<?> request,
+                           NetworkResponse response, JusError error) {
+        String host = hostOf(request);
+        int limit = adaptivePolicy.getMaxInFlight(host);
+        if (error == null) {
+            adaptivePolicy.onResponse(host, response, getInFlight(host));
+        } else {
+            adaptivePolicy.onError(host, error, getInFlight(host));
+        }
+        if (adaptivePolicy.getMaxInFlight(host) > limit) {
+            onPolicyChanged();
+        }
+    }
+}
@@ -25,18 +25,23 @@ import java.net.SocketTimeoutException;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import io.apptik.comm.jus.Cache;
 import io.apptik.comm.jus.Cache.Entry;
+import io.apptik.comm.jus.CircuitBreaker;
 import io.apptik.comm.jus.Network;
 import io.apptik.comm.jus.NetworkResponse;
 import io.apptik.comm.jus.Request;
 import io.apptik.comm.jus.RetryPolicy;
+import io.apptik.comm.jus.RetryScheduler;
 import io.apptik.comm.jus.auth.Authenticator;
 import io.apptik.comm.jus.error.AuthError;
+import io.apptik.comm.jus.error.CircuitOpenError;
 import io.apptik.comm.jus.error.JusError;
 import io.apptik.comm.jus.error.NetworkError;
 import io.apptik.comm.jus.error.RequestError;
+import io.apptik.comm.jus.error.RetryLaterError;
 import io.apptik.comm.jus.error.ServerError;
 import io.apptik.comm.jus.error.TimeoutError;
 import io.apptik.comm.jus.http.DateUtils;
@@ -75,6 +80,27 @@ public class HttpNetwork implements Network {
     @Override
     public NetworkResponse performRequest(Request<?> request) throws JusError {
         long requestStart = System.nanoTime();
+        CircuitBreaker circuitBreaker = acquireCircuit(request);
+        if (circuitBreaker == null) {
+            return perform(request, requestStart);
+        }
+        NetworkResponse response;
+        try {
+            response = perform(request, requestStart);
+        } catch (JusError e) {
+            circuitBreaker.onError(request,
+                    e instanceof RetryLaterError ? ((RetryLaterError) e).getCause() : e,
+                    System.nanoTime() - requestStart);
+            throw e;
+        } catch (RuntimeException e) {
+            circuitBreaker.onError(request, new JusError(e), System.nanoTime() - requestStart);
+            throw e;
+        }
+        circuitBreaker.onSuccess(request, System.nanoTime() - requestStart);
+        return response;
+    }
+
+    private NetworkResponse perform(Request<?> request, long requestStart) throws JusError {
         boolean serverAuthRequested = false;
         boolean proxyAuthRequested = false;
         while (true) {
@@ -82,27 +108,10 @@ public class HttpNetwork implements Network {
                 //it will be handled/ignored later
                 return null;
             }
-            if (request.getNoConnectionPolicy() != null
-                    && request.getConnectivityManager() != null) {
-                if (request.getConnectivityManager().getActiveNetwork() == null
-                        || !request.getConnectivityManager().getActiveNetwork().isConnected()) {
-                    JusError error = request.getNoConnectionPolicy().throwOnNoConnection(request);
-                    if (error != null) {
-                        throw error;
-                    }
-                }
-            }
+            checkConnection(request);
             NetworkResponse httpResponse = null;
             try {
-                // Gather headers.
-                Headers.Builder headers = new Headers.Builder();
-                addCacheHeaders(headers, request.getCacheEntry());
-                addServerAuthHeaders(request.getServerAuthenticator(), headers);
-                addProxyAuthHeaders(request.getProxyAuthenticator(), headers);
-
-                Headers extraHeaders = headers.build();
-                request.addMarker(Request.EVENT_NETWORK_STACK_SEND, request.getNetworkRequest(),
-                        extraHeaders);
+                Headers extraHeaders = prepareHeaders(request);
                 httpResponse = httpStack.performRequest(request, extraHeaders, pool);
                 if (httpResponse == null) {
                     throw new NetworkError("No Response");
@@ -114,176 +123,274 @@ public class HttpNetwork implements Network {
                             httpResponse);
                     Headers rHeaders = new Headers.Builder().build();
                     while (newR != null) {
-                        request.addMarker(Request.EVENT_NETWORK_STACK_REDIRECT_SEND, newR);
+                        request.addMarker(Request.EVENT_ID_NETWORK_STACK_REDIRECT_SEND, newR);
                         httpResponse = httpStack.performRequest(newR, rHeaders, pool);
-                        request.addMarker(Request.EVENT_NETWORK_STACK_REDIRECT_COMPLETE,
+                        request.addMarker(Request.EVENT_ID_NETWORK_STACK_REDIRECT_COMPLETE,
                                 httpResponse);
                         newR = request.getRedirectPolicy().verifyRedirect(request, httpResponse);
                     }
                 }
 
-                request.addMarker(Request.EVENT_NETWORK_STACK_COMPLETE, httpResponse);
+                httpResponse = processStackResponse(request, httpResponse);
 
-                //currently all requests that came to here normally needs to be attached to the
-                // queue
-                //however due the complete decoupling of the components in Jus a Network may be set
-                //to perform internal requests, i.e. which was not passed to the queue, possibly
-                // auth
-                //requests. So we shall check
-                if (request.getRequestQueue() != null) {
-                    httpResponse = request.getRequestQueue().transformResponse(request,
-                            httpResponse);
-                    request.addMarker(Request.EVENT_NETWORK_TRANSFORM_COMPLETE, httpResponse);
+                //Check for Auth
+                if (httpResponse.statusCode == HttpURLConnection.HTTP_UNAUTHORIZED) {
+                    serverAuthRequested = resendWithServerAuth(request, httpResponse,
+                            serverAuthRequested);
+                    continue;
+                } else if (httpResponse.statusCode == HttpURLConnection.HTTP_PROXY_AUTH) {
+                    proxyAuthRequested = resendWithProxyAuth(request, httpResponse,
+                            proxyAuthRequested);
+                    continue;
                 }
 
-                //check completeness of body
-                if (httpResponse != null && httpResponse.headers != null) {
-                    String contentLen = httpResponse.headers.get(HTTP.CONTENT_LEN);
-                    if (contentLen != null) {
-                        int cLen = Integer.parseInt(contentLen);
-                        if (cLen > httpResponse.data.length
-                                && request.getMethod() != Request.Method.HEAD) {
-                            throw new NetworkError(httpResponse, "Response Body not completely " +
-                                    "received");
-                        }
-                    }
+                return completeResponse(request, httpResponse, requestStart);
+            } catch (IOException e) {
+                retryOrThrow(request, httpResponse, e);
+            }
+        }
+    }
+
+    /**
+     * @return the retry scheduler of the queue of the request, null if retries are not
+     * scheduled
+     */
+    private static RetryScheduler retrySchedulerOf(Request<?> request) {
+        return request.getRequestQueue() == null
+                ? null : request.getRequestQueue().getRetryScheduler();
+    }
+
+    /**
+     * Asks the {@link CircuitBreaker} of the request for a permit to send it.
+     *
+     * @return the circuit breaker to report the outcome to, null if the request has none
+     * @throws CircuitOpenError if the circuit is open
+     */
+    static CircuitBreaker acquireCircuit(Request<?> request) throws CircuitOpenError {
+        CircuitBreaker circuitBreaker = request.getCircuitBreaker();
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire(request)) {
+            request.addMarker(Request.EVENT_ID_CIRCUIT_OPEN);
+            throw new CircuitOpenError("Circuit open for: " + request.getUrlString());
+        }
+        return circuitBreaker;
+    }
+
+    /**
+     * Applies the {@link io.apptik.comm.jus.NoConnectionPolicy} of the request if there is no
+     * active network.
+     */
+    static void checkConnection(Request<?> request) throws JusError {
+        if (request.getNoConnectionPolicy() != null
+                && request.getConnectivityManager() != null) {
+            if (request.getConnectivityManager().getActiveNetwork() == null
+                    || !request.getConnectivityManager().getActiveNetwork().isConnected()) {
+                JusError error = request.getNoConnectionPolicy().throwOnNoConnection(request);
+                if (error != null) {
+                    throw error;
                 }
+            }
+        }
+    }
 
-                //Check for Auth
-                if (httpResponse.statusCode == HttpURLConnection.HTTP_UNAUTHORIZED) {
-                    request.addMarker(Request.EVENT_NETWORK_STACK_AUTH_ERROR,
-                            httpResponse);
-                    if (request.getServerAuthenticator() != null && !serverAuthRequested) {
-                        request.getServerAuthenticator().clearAuthValue();
-                        try {
-                            //typical implementation would try to refresh the token
-                            //after being set to invalid
-                            request.getServerAuthenticator().getAuthValue();
-                        } catch (AuthError authError) {
-                            //finally we didn't succeed
-                            throw authError;
-                        }
-                        //retry the request
-                        request.addMarker(Request.EVENT_NETWORK_STACK_AUTH_ERROR_RESEND,
-                                httpResponse);
-                        serverAuthRequested = true;
-                        continue;
-                    } else {
-                        //or if another way of auth is used
-                        throw new AuthError(httpResponse);
-                    }
-                } else if (httpResponse.statusCode == HttpURLConnection.HTTP_PROXY_AUTH) {
-                    request.addMarker(Request.EVENT_NETWORK_STACK_AUTH_PROXY_ERROR,
-                            httpResponse);
-                    if (request.getProxyAuthenticator() != null && !proxyAuthRequested) {
-                        request.getProxyAuthenticator().clearAuthValue();
-                        try {
-                            //typical implementation would try to refresh the token
-                            //after being set to invalid
-                            request.getProxyAuthenticator().getAuthValue();
-                        } catch (AuthError authError) {
-                            //finally we didn't succeed
-                            throw authError;
-                        }
-                        //retry the request
-                        request.addMarker(Request.EVENT_NETWORK_STACK_AUTH_ERROR_RESEND,
-                                httpResponse);
-                        proxyAuthRequested = true;
-                        continue;
-                    } else {
-                        //or if another way of auth is used
-                        throw new AuthError(httpResponse);
-                    }
+    /**
+     * Gathers the cache and auth headers to be sent together with the request.
+     */
+    static Headers prepareHeaders(Request<?> request) throws AuthError {
+        Headers.Builder headers = new Headers.Builder();
+        addCacheHeaders(headers, request.getCacheEntry());
+        addServerAuthHeaders(request.getServerAuthenticator(), headers);
+        addProxyAuthHeaders(request.getProxyAuthenticator(), headers);
+
+        Headers extraHeaders = headers.build();
+        request.addMarker(Request.EVENT_ID_NETWORK_STACK_SEND, request.getNetworkRequest(),
+                extraHeaders);
+        return extraHeaders;
+    }
+
+    /**
+     * Transforms the final (after redirects) response from the stack and checks that the body
+     * is complete.
+     */
+    static NetworkResponse processStackResponse(Request<?> request,
+                                                NetworkResponse httpResponse)
+            throws NetworkError {
+        request.addMarker(Request.EVENT_ID_NETWORK_STACK_COMPLETE, httpResponse);
+
+        //currently all requests that came to here normally needs to be attached to the
+        // queue
+        //however due the complete decoupling of the components in Jus a Network may be set
+        //to perform internal requests, i.e. which was not passed to the queue, possibly
+        // auth
+        //requests. So we shall check
+        if (request.getRequestQueue() != null) {
+            httpResponse = request.getRequestQueue().transformResponse(request,
+                    httpResponse);
+            request.addMarker(Request.EVENT_ID_NETWORK_TRANSFORM_COMPLETE, httpResponse);
+        }
+
+        //check completeness of body
+        if (httpResponse != null && httpResponse.headers != null) {
+            String contentLen = httpResponse.headers.get(HTTP.CONTENT_LEN);
+            if (contentLen != null) {
+                int cLen = Integer.parseInt(contentLen);
+                if (cLen > httpResponse.data.length
+                        && request.getMethod() != Request.Method.HEAD) {
+                    throw new NetworkError(httpResponse, "Response Body not completely " +
+                            "received");
                 }
+            }
+        }
+        return httpResponse;
+    }
 
-                // if the request is slow, log it.
-                long requestLifetime = System.nanoTime() - requestStart;
-                logSlowRequests(requestLifetime, request, httpResponse.data, httpResponse
-                        .statusCode);
-
-                // Handle cache validation.
-                if (httpResponse.statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
-
-                    Entry entry = request.getCacheEntry();
-                    if (entry != null) {
-
-                        // A HTTP 304 response does not have all header fields. We
-                        // have to use the header fields from the cache entry plus
-                        // the new ones from the response.
-                        // http://www.w3.org/Protocols/rfc2616/rfc2616-sec10.html#sec10.3.5
-                        final Map<String, List<String>> responseHeaders = httpResponse.headers.toMultimap();
-                        final Map<String, List<String>> cacheHeaders = entry.responseHeaders.toMultimap();
-                        Headers.Builder hBuilder = new Headers.Builder();
-                        hBuilder.addMMap(responseHeaders);
-                        if (cacheHeaders != null) {
-                            for (Map.Entry<String, List<String>> hentry : cacheHeaders.entrySet()) {
-                                //could be status line
-                                if (hentry.getKey() != null
-                                        && !responseHeaders.containsKey(hentry.getKey())) {
-                                    hBuilder.add(hentry.getKey(), hentry.getValue());
-                                }
-                            }
-                        }
+    /**
+     * Handles HTTP_UNAUTHORIZED. Returns true if the server authenticator was refreshed and the
+     * request should be resent, otherwise throws {@link AuthError}.
+     */
+    static boolean resendWithServerAuth(Request<?> request, NetworkResponse httpResponse,
+                                        boolean serverAuthRequested) throws AuthError {
+        request.addMarker(Request.EVENT_ID_NETWORK_STACK_AUTH_ERROR,
+                httpResponse);
+        return resendWithAuth(request, request.getServerAuthenticator(), httpResponse,
+                serverAuthRequested);
+    }
+
+    /**
+     * Handles HTTP_PROXY_AUTH. Returns true if the proxy authenticator was refreshed and the
+     * request should be resent, otherwise throws {@link AuthError}.
+     */
+    static boolean resendWithProxyAuth(Request<?> request, NetworkResponse httpResponse,
+                                       boolean proxyAuthRequested) throws AuthError {
+        request.addMarker(Request.EVENT_ID_NETWORK_STACK_AUTH_PROXY_ERROR,
+                httpResponse);
+        return resendWithAuth(request, request.getProxyAuthenticator(), httpResponse,
+                proxyAuthRequested);
+    }
+
+    private static boolean resendWithAuth(Request<?> request, Authenticator authenticator,
+                                          NetworkResponse httpResponse,
+                                          boolean authRequested) throws AuthError {
+        if (authenticator != null && !authRequested) {
+            authenticator.clearAuthValue();
+            try {
+                //typical implementation would try to refresh the token
+                //after being set to invalid
+                authenticator.getAuthValue();
+            } catch (AuthError authError) {
+                //finally we didn't succeed
+                throw authError;
+            }
+            //retry the request
+            request.addMarker(Request.EVENT_ID_NETWORK_STACK_AUTH_ERROR_RESEND,
+                    httpResponse);
+            return true;
+        } else {
+            //or if another way of auth is used
+            throw new AuthError(httpResponse);
+        }
+    }
+
+    /**
+     * Handles cache validation and produces the final response of the request.
+     *
+     * @throws IOException if the response status code is not a successful one
+     */
+    static NetworkResponse completeResponse(Request<?> request, NetworkResponse httpResponse,
+                                            long requestStart) throws IOException {
+        // if the request is slow, log it.
+        long requestLifetime = System.nanoTime() - requestStart;
+        logSlowRequests(requestLifetime, request, httpResponse.data, httpResponse
+                .statusCode);
 
-                        httpResponse = new NetworkResponse(
-                                httpResponse.statusCode,
-                                entry.data, hBuilder.build(),
-                                System.nanoTime() - requestStart
-                        );
-                    } else {
-                        httpResponse = new NetworkResponse(
-                                httpResponse.statusCode,
-                                null,
-                                httpResponse.headers,
-                                System.nanoTime() - requestStart
-                        );
+        // Handle cache validation.
+        if (httpResponse.statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+
+            Entry entry = request.getCacheEntry();
+            if (entry != null) {
+
+                // A HTTP 304 response does not have all header fields. We
+                // have to use the header fields from the cache entry plus
+                // the new ones from the response.
+                // http://www.w3.org/Protocols/rfc2616/rfc2616-sec10.html#sec10.3.5
+                final Map<String, List<String>> responseHeaders = httpResponse.headers.toMultimap();
+                final Map<String, List<String>> cacheHeaders = entry.responseHeaders.toMultimap();
+                Headers.Builder hBuilder = new Headers.Builder();
+                hBuilder.addMMap(responseHeaders);
+                if (cacheHeaders != null) {
+                    for (Map.Entry<String, List<String>> hentry : cacheHeaders.entrySet()) {
+                        //could be status line
+                        if (hentry.getKey() != null
+                                && !responseHeaders.containsKey(hentry.getKey())) {
+                            hBuilder.add(hentry.getKey(), hentry.getValue());
+                        }
                     }
-                } else if (httpResponse.statusCode < 200 || httpResponse.statusCode > 299) {
-                    //todo Not really nice throw better
-                    throw new IOException();
                 }
-                return httpResponse;
-            } catch (SocketTimeoutException e) {
-                attemptRetryOnException("socket", request, new TimeoutError("socket Timeout", e));
-            } catch (MalformedURLException e) {
-                throw new RuntimeException("Bad URL " + request.getUrlString(), e);
-            } catch (IOException e) {
-                NetworkResponse networkResponse;
-                if (httpResponse != null) {
-                    networkResponse = httpResponse;
-                } else {
-                    throw new NetworkError(e);
-                }
-                //todo add queue markers
+
+                httpResponse = new NetworkResponse(
+                        httpResponse.statusCode,
+                        entry.data, hBuilder.build(),
+                        System.nanoTime() - requestStart
+                );
+            } else {
+                httpResponse = new NetworkResponse(
+                        httpResponse.statusCode,
+                        null,
+                        httpResponse.headers,
+                        System.nanoTime() - requestStart
+                );
+            }
+        } else if (httpResponse.statusCode < 200 || httpResponse.statusCode > 299) {
+            //todo Not really nice throw better
+            throw new IOException();
+        }
+        return httpResponse;
+    }
+
+    /**
+     * Classifies a failed attempt. Returns normally if the request should be attempted again,
+     * otherwise throws the error to be delivered.
+     *
+     * @param httpResponse the last response received from the stack, or null if none
+     * @param e            the exception of the failed attempt
+     */
+    static void retryOrThrow(Request<?> request, NetworkResponse httpResponse, IOException e)
+            throws JusError {
+        if (e instanceof SocketTimeoutException) {
+            attemptRetryOnException("socket", request, new TimeoutError("socket Timeout",
+                    (SocketTimeoutException) e));
+        } else if (e instanceof MalformedURLException) {
+            throw new RuntimeException("Bad URL " + request.getUrlString(), e);
+        } else {
+            NetworkResponse networkResponse;
+            if (httpResponse != null) {
+                networkResponse = httpResponse;
+            } else {
+                throw new NetworkError(e);
+            }
+            //todo add queue markers
 //                JusLog.e("Unexpected response code %d for %s", networkResponse.statusCode,
 //                        request.getUrlString());
-                if (networkResponse != null) {
-                    if (networkResponse.statusCode == HttpURLConnection
-                            .HTTP_CLIENT_TIMEOUT) {
-                        attemptRetryOnException("http-client", request, new RequestError
-                                (networkResponse, "HTTP_CLIENT_TIMEOUT"));
-                    } else if (networkResponse.statusCode > 399 && networkResponse.statusCode <
-                            500) {
-                        //some request query error that does not make sense to retry, assuming
-                        // the service we use is deterministic
-                        throw new RequestError(networkResponse);
-                    } else if (networkResponse.statusCode > 499) {
-                        //some server error might not need to be retried
-                        //however retry policy set to this request should handle it as it needs.
-                        attemptRetryOnException("server",
-                                request, new ServerError(networkResponse));
-                    } else {
-                        //unclassified error
-                        throw new JusError(networkResponse, e);
-                    }
-                } else {
-                    //this can result doe to many reasons and the implementations may have some
-                    // means to know if a retry is needed
-                    attemptRetryOnException("network", request, new NetworkError());
-                }
-            } catch (AuthError authError) {
-                //we have failed to get a token so give it up
-                throw authError;
+            if (networkResponse.statusCode == HttpURLConnection
+                    .HTTP_CLIENT_TIMEOUT) {
+                attemptRetryOnException("http-client", request, new RequestError
+                        (networkResponse, "HTTP_CLIENT_TIMEOUT"));
+            } else if (networkResponse.statusCode == 429 && retrySchedulerOf(request) != null) {
+                //only worth retrying after a delay
+                attemptRetryOnException("too-many-requests", request, new RequestError
+                        (networkResponse, "TOO_MANY_REQUESTS"));
+            } else if (networkResponse.statusCode > 399 && networkResponse.statusCode <
+                    500) {
+                //some request query error that does not make sense to retry, assuming
+                // the service we use is deterministic
+                throw new RequestError(networkResponse);
+            } else if (networkResponse.statusCode > 499) {
+                //some server error might not need to be retried
+                //however retry policy set to this request should handle it as it needs.
+                attemptRetryOnException("server",
+                        request, new ServerError(networkResponse));
+            } else {
+                //unclassified error
+                throw new JusError(networkResponse, e);
             }
         }
     }
@@ -291,8 +398,8 @@ public class HttpNetwork implements Network {
     /**
      * Logs requests that took over SLOW_REQUEST_THRESHOLD_MS to complete.
      */
-    private void logSlowRequests(long requestLifetime, Request<?> request,
-                                 byte[] responseContents, int statusCode) {
+    private static void logSlowRequests(long requestLifetime, Request<?> request,
+                                        byte[] responseContents, int statusCode) {
         long SLOW_REQUEST_THRESHOLD_MS = 3000000000L;
         if (requestLifetime > SLOW_REQUEST_THRESHOLD_MS) {
             //todo add queue markers
@@ -316,35 +423,69 @@ public class HttpNetwork implements Network {
         if (retryPolicy == null) {
             throw exception;
         }
+        if (request.isExpired()) {
+            request.addMarker(Request.EVENT_ID_NETWORK_RETRY_FAILED, request.hasMarkerListeners()
+                    ? String.format("%s-deadline-giveup", logPrefix) : null);
+            throw exception;
+        }
+        if (request.getCircuitBreaker() != null
+                && request.getCircuitBreaker().getState() == CircuitBreaker.State.OPEN) {
+            request.addMarker(Request.EVENT_ID_NETWORK_RETRY_FAILED, request.hasMarkerListeners()
+                    ? String.format("%s-circuit-open-giveup", logPrefix) : null);
+            throw exception;
+        }
 
         try {
             retryPolicy.retry(exception);
         } catch (JusError e) {
-            request.addMarker(Request.EVENT_NETWORK_RETRY_FAILED,
-                    String.format("%s-timeout-giveup [conn-timeout=%s] [read-timeout=%s]",
+            request.addMarker(Request.EVENT_ID_NETWORK_RETRY_FAILED, request.hasMarkerListeners()
+                    ? String.format("%s-timeout-giveup [conn-timeout=%s] [read-timeout=%s]",
                             logPrefix, retryPolicy.getCurrentConnectTimeout(),
-                            retryPolicy.getCurrentReadTimeout()));
+                            retryPolicy.getCurrentReadTimeout()) : null);
             throw e;
         }
-        request.addMarker(Request.EVENT_NETWORK_RETRY,
-                String.format("%s-retry [conn-timeout=%s] [read-timeout=%s]",
+        RetryScheduler retryScheduler = retrySchedulerOf(request);
+        if (retryScheduler != null) {
+            long delayNs = retryScheduler.getDelayNs(request, exception);
+            if (delayNs < 0) {
+                request.addMarker(Request.EVENT_ID_NETWORK_RETRY_FAILED,
+                        request.hasMarkerListeners()
+                                ? String.format("%s-retry-after-giveup", logPrefix) : null);
+                throw exception;
+            }
+            if (request.hasDeadline()
+                    && System.nanoTime() + delayNs - request.getDeadlineNs() > 0) {
+                request.addMarker(Request.EVENT_ID_NETWORK_RETRY_FAILED,
+                        request.hasMarkerListeners()
+                                ? String.format("%s-deadline-giveup", logPrefix) : null);
+                throw exception;
+            }
+            request.addMarker(Request.EVENT_ID_NETWORK_RETRY, request.hasMarkerListeners()
+                    ? String.format("%s-retry [delay-ms=%s] [conn-timeout=%s] [read-timeout=%s]",
+                            logPrefix, TimeUnit.NANOSECONDS.toMillis(delayNs),
+                            retryPolicy.getCurrentConnectTimeout(),
+                            retryPolicy.getCurrentReadTimeout()) : null);
+            throw new RetryLaterError(exception, delayNs);
+        }
+        request.addMarker(Request.EVENT_ID_NETWORK_RETRY, request.hasMarkerListeners()
+                ? String.format("%s-retry [conn-timeout=%s] [read-timeout=%s]",
                         logPrefix, retryPolicy.getCurrentConnectTimeout(),
-                        retryPolicy.getCurrentReadTimeout()));
+                        retryPolicy.getCurrentReadTimeout()) : null);
     }
 
-    private void addServerAuthHeaders(Authenticator authenticator, Headers.Builder headers) throws
-            AuthError {
+    private static void addServerAuthHeaders(Authenticator authenticator,
+                                             Headers.Builder headers) throws AuthError {
         if (authenticator == null) return;
         headers.add("Authorization", authenticator.getAuthValue());
     }
 
-    private void addProxyAuthHeaders(Authenticator authenticator, Headers.Builder headers) throws
-            AuthError {
+    private static void addProxyAuthHeaders(Authenticator authenticator,
+                                            Headers.Builder headers) throws AuthError {
         if (authenticator == null) return;
         headers.add("Proxy-Authorization", authenticator.getAuthValue());
     }
 
-    private void addCacheHeaders(Headers.Builder headers, Cache.Entry entry) {
+    private static void addCacheHeaders(Headers.Builder headers, Cache.Entry entry) {
         // If there's no cache entry, we're done.
         if (entry == null) {
             return;
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus.toolbox;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.apptik.comm.jus.LaneQueue;
+import io.apptik.comm.jus.PurgeableQueue;
+import io.apptik.comm.jus.Request;
+
+/**
+ * A request queue with one lock-free FIFO lane per {@link Request.Priority}.
+ * <p>
+ * Requests are taken from the highest priority lane which is not empty and in insertion
+ * order within a lane. Unlike {@link java.util.concurrent.PriorityBlockingQueue} there is no
+ * single lock and no {@link Request#compareTo(Request)} on insert and take, so it scales
+ * better with many threads adding requests. Only takers waiting on an empty queue block.
+ * </p>
+ * <p>
+ * The priority of a request is read once when it is added. {@link #size()} and
+ * {@link #iterator()} are weakly consistent.
+ * </p>
+ * <p>
+ * Each request is held in a slot which is cleared by whoever takes or removes the request
+ * first, so removed and canceled requests are released right away. The slot is kept on the
+ * request, so {@link #removeCanceled(Request)} clears it without searching the lanes. Cleared
+ * slots are skipped and unlinked when taking.
+ * </p>
+ * Use it via {@link io.apptik.comm.jus.RequestQueue#withNetworkQueue(BlockingQueue)} and
+ * {@link io.apptik.comm.jus.RequestQueue#withCacheQueue(BlockingQueue)}.
+ */
+public class PriorityLaneQueue extends AbstractQueue<Request<?>>
+        implements BlockingQueue<Request<?>>, PurgeableQueue, LaneQueue {
+
+    private static final Request.Priority[] PRIORITIES = Request.Priority.values();
+
+    /**
+     * Lanes ordered from the highest to the lowest priority
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ConcurrentLinkedDeque<Slot>[] lanes =
+            new ConcurrentLinkedDeque[PRIORITIES.length];
+    /**
+     * One permit per request in the lanes. A taker which acquires a permit is guaranteed that
+     * a request was added, but not that it is still there, as it may have been removed.
+     */
+    private final Semaphore available = new Semaphore(0);
+    private final AtomicInteger count = new AtomicInteger();
+
+    public PriorityLaneQueue() {
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ConcurrentLinkedDeque<>();
+        }
+    }
+
+    /**
+     * @return the number of pending requests with the priority
+     */
+    public int size(Request.Priority priority) {
+        int size = 0;
+        for (Slot slot : laneOf(priority)) {
+            if (slot.get() != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean offer(Request<?> request) {
+        Utils.checkNotNull(request, "request==null");
+        laneOf(request.getPriority()).offer(slot(request));
+        count.incrementAndGet();
+        available.release();
+        return true;
+    }
+
+    /**
+     * Adds all requests and wakes up the waiting takers at once.
+     */
+    @Override
+    public boolean addAll(Collection<? extends Request<?>> requests) {
+        if (requests == this) {
+            throw new IllegalArgumentException();
+        }
+        int n = 0;
+        for (Request<?> request : requests) {
+            Utils.checkNotNull(request, "request==null");
+            laneOf(request.getPriority()).offer(slot(request));
+            n++;
+        }
+        if (n > 0) {
+            count.addAndGet(n);
+            available.release(n);
+        }
+        return n > 0;
+    }
+
+    @Override
+    public void put(Request<?> request) {
+        offer(request);
+    }
+
+    @Override
+    public boolean offer(Request<?> request, long timeout, TimeUnit unit) {
+        return offer(request);
+    }
+
+    @Override
+    public Request<?> take() throws InterruptedException {
+        Request<?> request;
+        do {
+            available.acquire();
+        } while ((request = dequeue()) == null);
+        return request;
+    }
+
+    @Override
+    public Request<?> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Request<?> request;
+        do {
+            if (!available.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return null;
+            }
+        } while ((request = dequeue()) == null);
+        return request;
+    }
+
+    @Override
+    public Request<?> poll() {
+        Request<?> request;
+        do {
+            if (!available.tryAcquire()) {
+                return null;
+            }
+        } while ((request = dequeue()) == null);
+        return request;
+    }
+
+    @Override
+    public Request<?> peek() {
+        for (ConcurrentLinkedDeque<Slot> lane : lanes) {
+            for (Slot slot : lane) {
+                Request<?> request = slot.get();
+                if (request != null) {
+                    return request;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return Math.max(0, count.get());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof Request)) {
+            return false;
+        }
+        Request<?> request = (Request<?>) o;
+        //most likely in its lane, where the newest requests are dropped for higher priority ones
+        Iterator<Slot> laneIt = laneOf(request.getPriority()).descendingIterator();
+        while (laneIt.hasNext()) {
+            Slot slot = laneIt.next();
+            if (slot.get() == request) {
+                return clear(slot, request, laneIt);
+            }
+        }
+        for (ConcurrentLinkedDeque<Slot> lane : lanes) {
+            Iterator<Slot> it = lane.iterator();
+            while (it.hasNext()) {
+                Slot slot = it.next();
+                if (slot.get() == request) {
+                    return clear(slot, request, it);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the newest request from the tail of the lowest priority lane which is not empty.
+     */
+    @Override
+    public Request<?> peekLowest() {
+        for (int i = lanes.length - 1; i >= 0; i--) {
+            Iterator<Slot> it = lanes[i].descendingIterator();
+            while (it.hasNext()) {
+                Request<?> request = it.next().get();
+                if (request != null) {
+                    return request;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Clears the slot of the canceled request, which stays in its lane until a taker skips it.
+     */
+    @Override
+    public boolean removeCanceled(Request<?> request) {
+        Object slot = request.getQueueSlot();
+        return request.isCanceled() && slot instanceof Slot && ((Slot) slot).queue == this
+                && clear((Slot) slot, request, null);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o == null) {
+            return false;
+        }
+        for (ConcurrentLinkedDeque<Slot> lane : lanes) {
+            for (Slot slot : lane) {
+                if (slot.get() == o) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        while (poll() != null) {
+            // drop it
+        }
+    }
+
+    /**
+     * Iterates over the pending requests from the highest to the lowest priority.
+     */
+    @Override
+    public Iterator<Request<?>> iterator() {
+        return new Iterator<Request<?>>() {
+            int laneIndex = 0;
+            Iterator<Slot> it = lanes[0].iterator();
+            Slot nextSlot;
+            Request<?> next;
+            Slot lastSlot;
+            Request<?> last;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    if (it.hasNext()) {
+                        nextSlot = it.next();
+                        next = nextSlot.get();
+                    } else if (laneIndex < lanes.length - 1) {
+                        it = lanes[++laneIndex].iterator();
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Request<?> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                lastSlot = nextSlot;
+                next = null;
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                //the slot is unlinked when it is polled
+                clear(lastSlot, last, null);
+                last = null;
+            }
+        };
+    }
+
+    @Override
+    public int drainTo(Collection<? super Request<?>> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Request<?>> c, int maxElements) {
+        Utils.checkNotNull(c, "c==null");
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int n = 0;
+        Request<?> request;
+        while (n < maxElements && (request = poll()) != null) {
+            c.add(request);
+            n++;
+        }
+        return n;
+    }
+
+    private Slot slot(Request<?> request) {
+        Slot slot = new Slot(this, request);
+        request.setQueueSlot(slot);
+        return slot;
+    }
+
+    private ConcurrentLinkedDeque<Slot> laneOf(Request.Priority priority) {
+        if (priority == null) {
+            priority = Request.Priority.NORMAL;
+        }
+        return lanes[PRIORITIES.length - 1 - priority.ordinal()];
+    }
+
+    /**
+     * Polls the highest priority lane which is not empty. Must hold a permit, which is
+     * consumed even if null is returned because the request was removed in the meantime.
+     */
+    private Request<?> dequeue() {
+        for (ConcurrentLinkedDeque<Slot> lane : lanes) {
+            Slot slot;
+            while ((slot = lane.poll()) != null) {
+                Request<?> request = slot.getAndSet(null);
+                if (request != null) {
+                    count.decrementAndGet();
+                    return request;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes a request by clearing its slot, unless it was taken or removed already, and
+     * consumes its permit. If a taker already holds the permit, the taker will find nothing for
+     * it and wait for the next one.
+     *
+     * @param it the lane iterator at the slot to unlink it, or null
+     * @return true if the request was removed
+     */
+    private boolean clear(Slot slot, Request<?> request, Iterator<Slot> it) {
+        if (!slot.compareAndSet(request, null)) {
+            return false;
+        }
+        if (it != null) {
+            //the slot is cleared already, so a taker polling it concurrently skips it
+            it.remove();
+        }
+        count.decrementAndGet();
+        available.tryAcquire();
+        return true;
+    }
+
+    /**
+     * Holds a request in a lane until it is taken or removed.
+     */
+    private static final class Slot extends AtomicReference<Request<?>> {
+        private static final long serialVersionUID = 1L;
+
+        final PriorityLaneQueue queue;
+
+        Slot(PriorityLaneQueue queue, Request<?> request) {
+            super(request);
+            this.queue = queue;
+        }
+    }
+}
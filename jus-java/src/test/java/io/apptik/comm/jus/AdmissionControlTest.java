@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.apptik.comm.jus.error.JusError;
+import io.apptik.comm.jus.error.RejectedError;
+import io.apptik.comm.jus.mock.MockNetwork;
+import io.apptik.comm.jus.mock.MockRequest;
+import io.apptik.comm.jus.toolbox.NoCache;
+import io.apptik.comm.jus.utils.ImmediateResponseDelivery;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControlTest {
+
+    private final AtomicInteger rejectedMarkers = new AtomicInteger();
+
+    private RequestQueue queue(OverflowPolicy overflowPolicy) {
+        // not started, so the requests stay queued
+        return new RequestQueue(new NoCache(), new MockNetwork(), 1,
+                new ImmediateResponseDelivery())
+                .withMaxRequests(2, overflowPolicy)
+                .addQueueMarkerListener(new RequestListener.MarkerListener() {
+                    @Override
+                    public void onMarker(Marker marker, Object... args) {
+                        if (RequestQueue.EVENT_REQUEST_REJECTED.equals(marker.name)) {
+                            rejectedMarkers.incrementAndGet();
+                        }
+                    }
+                });
+    }
+
+    private MockRequest request(Request.Priority priority, AtomicReference<JusError> error) {
+        MockRequest request = new MockRequest("http://foo.com/" + priority, null);
+        request.setPriority(priority);
+        final AtomicReference<JusError> errorRef = error;
+        request.addErrorListener(new RequestListener.ErrorListener() {
+            @Override
+            public void onError(JusError error) {
+                errorRef.set(error);
+            }
+        });
+        return request;
+    }
+
+    @Test
+    public void rejectWhenFull() throws Exception {
+        RequestQueue queue = queue(new OverflowPolicy.RejectOverflowPolicy());
+        AtomicReference<JusError> error = new AtomicReference<>();
+        queue.add(request(Request.Priority.NORMAL, error));
+        queue.add(request(Request.Priority.NORMAL, error));
+        assertNull(error.get());
+        assertEquals(0, queue.getAdmissionControl().getAvailableSlots());
+
+        queue.add(request(Request.Priority.IMMEDIATE, error));
+        assertTrue(error.get() instanceof RejectedError);
+        assertEquals(2, queue.getCurrentRequests());
+        assertEquals(1, rejectedMarkers.get());
+    }
+
+    @Test
+    public void dropLowestPriority() throws Exception {
+        RequestQueue queue = queue(new OverflowPolicy.DropLowestPriorityOverflowPolicy());
+        AtomicReference<JusError> lowError = new AtomicReference<>();
+        AtomicReference<JusError> normalError = new AtomicReference<>();
+        AtomicReference<JusError> highError = new AtomicReference<>();
+        AtomicReference<JusError> lateLowError = new AtomicReference<>();
+        queue.add(request(Request.Priority.LOW, lowError));
+        queue.add(request(Request.Priority.NORMAL, normalError));
+
+        queue.add(request(Request.Priority.HIGH, highError));
+        assertTrue(lowError.get() instanceof RejectedError);
+        assertNull(normalError.get());
+        assertNull(highError.get());
+        assertEquals(2, queue.getCurrentRequests());
+
+        // nothing queued with lower priority
+        queue.add(request(Request.Priority.LOW, lateLowError));
+        assertTrue(lateLowError.get() instanceof RejectedError);
+        assertEquals(2, queue.getCurrentRequests());
+        assertEquals(2, rejectedMarkers.get());
+    }
+
+    @Test
+    public void blockWithTimeout() throws Exception {
+        RequestQueue queue = queue(
+                new OverflowPolicy.BlockOverflowPolicy(100, TimeUnit.MILLISECONDS));
+        AtomicReference<JusError> error = new AtomicReference<>();
+        queue.add(request(Request.Priority.NORMAL, error));
+        queue.add(request(Request.Priority.NORMAL, error));
+        long start = System.nanoTime();
+        queue.add(request(Request.Priority.NORMAL, error));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(error.get() instanceof RejectedError);
+    }
+
+    @Test
+    public void slotsAreReleasedWhenFinished() throws Exception {
+        RequestQueue queue = queue(new OverflowPolicy.RejectOverflowPolicy());
+        queue.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                MockRequest request = new MockRequest();
+                RequestFuture<byte[]> future = request.getFuture();
+                queue.add(request);
+                future.get(5, SECONDS);
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (queue.getAdmissionControl().getAvailableSlots() < 2
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, queue.getAdmissionControl().getAvailableSlots());
+        } finally {
+            queue.stop();
+        }
+    }
+}
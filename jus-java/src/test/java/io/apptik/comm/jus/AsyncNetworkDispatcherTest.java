@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.http.Headers;
+import io.apptik.comm.jus.mock.MockCache;
+import io.apptik.comm.jus.mock.MockRequest;
+import io.apptik.comm.jus.mock.MockResponseDelivery;
+import io.apptik.comm.jus.mock.WaitableQueue;
+import io.apptik.comm.jus.stack.AsyncHttpStack;
+import io.apptik.comm.jus.toolbox.AsyncHttpNetwork;
+import io.apptik.comm.jus.toolbox.ByteArrayPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncNetworkDispatcherTest {
+    private AsyncNetworkDispatcher mDispatcher;
+    private MockResponseDelivery mDelivery;
+    private WaitableQueue mNetworkQueue;
+    private PendingHttpStack mStack;
+    private MockCache mCache;
+
+    private static final byte[] CANNED_DATA = "Ceci n'est pas une vraie reponse".getBytes();
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final int MAX_REQUESTS = 2;
+
+    @Before public void setUp() throws Exception {
+        mDelivery = new MockResponseDelivery();
+        mNetworkQueue = new WaitableQueue();
+        mStack = new PendingHttpStack();
+        mCache = new MockCache();
+        AsyncNetworkDispatcher.AsyncNetworkDispatcherFactory factory =
+                new AsyncNetworkDispatcher.AsyncNetworkDispatcherFactory(mNetworkQueue,
+                        new AsyncHttpNetwork(mStack), mCache, mDelivery, MAX_REQUESTS);
+        mDispatcher = (AsyncNetworkDispatcher) factory.create();
+        mDispatcher.start();
+    }
+
+    @After public void tearDown() throws Exception {
+        mDispatcher.quit();
+        mDispatcher.join();
+    }
+
+    @Test public void successPostsResponse() throws Exception {
+        MockRequest request = new MockRequest();
+        request.setShouldCache(true);
+        mNetworkQueue.add(request);
+        mStack.next().callback.onResponse(
+                new NetworkResponse(200, CANNED_DATA, new Headers.Builder().build(), 0));
+        mNetworkQueue.waitUntilEmpty(TIMEOUT_MILLIS);
+        assertFalse(mDelivery.postError_called);
+        assertTrue(mDelivery.postResponse_called);
+        Response<?> response = mDelivery.responsePosted;
+        assertNotNull(response);
+        assertTrue(response.isSuccess());
+        assertTrue(Arrays.equals((byte[]) response.result, CANNED_DATA));
+        assertTrue(mCache.putCalled);
+    }
+
+    @Test public void failurePostsError() throws Exception {
+        mNetworkQueue.add(new MockRequest());
+        mStack.next().callback.onFailure(new IOException());
+        mNetworkQueue.waitUntilEmpty(TIMEOUT_MILLIS);
+        assertFalse(mDelivery.postResponse_called);
+        assertTrue(mDelivery.postError_called);
+    }
+
+    @Test public void requestsInFlightAreBounded() throws Exception {
+        for (int i = 0; i < MAX_REQUESTS + 1; i++) {
+            MockRequest request = new MockRequest();
+            request.setSequence(i);
+            mNetworkQueue.add(request);
+        }
+        PendingCall first = mStack.next();
+        assertNotNull(mStack.next());
+        //no permits left
+        assertNull(mStack.calls.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, mNetworkQueue.size());
+
+        first.callback.onResponse(
+                new NetworkResponse(200, CANNED_DATA, new Headers.Builder().build(), 0));
+        assertNotNull(mStack.next());
+        assertEquals(0, mNetworkQueue.size());
+    }
+
+    static class PendingCall {
+        final Request<?> request;
+        final AsyncHttpStack.Callback callback;
+
+        PendingCall(Request<?> request, AsyncHttpStack.Callback callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Stack which keeps the calls pending until completed by the test.
+     */
+    static class PendingHttpStack implements AsyncHttpStack {
+        final BlockingQueue<PendingCall> calls = new LinkedBlockingQueue<>();
+
+        PendingCall next() throws InterruptedException {
+            PendingCall call = calls.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            assertNotNull(call);
+            return call;
+        }
+
+        @Override
+        public void performRequest(Request<?> request, Headers additionalHeaders,
+                                   ByteArrayPool byteArrayPool, Callback callback) {
+            calls.add(new PendingCall(request, callback));
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.error.ServerError;
+import io.apptik.comm.jus.mock.MockRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchingExecutorDeliveryTest {
+
+    /**
+     * Keeps the posted tasks until they are run by the test.
+     */
+    private static class QueueingExecutor implements Executor {
+        final List<Runnable> tasks = Collections.synchronizedList(new ArrayList<Runnable>());
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        int runAll() {
+            int count = 0;
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private final Response<byte[]> response = Response.success(new byte[16], null);
+
+    @Test
+    public void deliversPendingResponsesInOneTask() throws Exception {
+        QueueingExecutor executor = new QueueingExecutor();
+        BatchingExecutorDelivery delivery = new BatchingExecutorDelivery(executor);
+        List<MockRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            MockRequest request = new MockRequest();
+            requests.add(request);
+            if (i % 2 == 0) {
+                delivery.postResponse(request, response);
+            } else {
+                delivery.postError(request, new ServerError(null));
+            }
+        }
+        assertEquals(1, executor.tasks.size());
+        assertFalse(requests.get(0).deliverResponse_called);
+        assertEquals(1, executor.runAll());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i % 2 == 0, requests.get(i).deliverResponse_called);
+            assertEquals(i % 2 != 0, requests.get(i).deliverError_called);
+        }
+    }
+
+    @Test
+    public void limitsBatchSize() throws Exception {
+        QueueingExecutor executor = new QueueingExecutor();
+        BatchingExecutorDelivery delivery = new BatchingExecutorDelivery(executor, 4, 0,
+                TimeUnit.MILLISECONDS);
+        List<MockRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            MockRequest request = new MockRequest();
+            requests.add(request);
+            delivery.postResponse(request, response);
+        }
+        assertEquals(3, executor.runAll());
+        for (MockRequest request : requests) {
+            assertTrue(request.deliverResponse_called);
+        }
+    }
+
+    @Test
+    public void collectsResponsesDuringWindow() throws Exception {
+        QueueingExecutor executor = new QueueingExecutor();
+        BatchingExecutorDelivery delivery = new BatchingExecutorDelivery(executor, 64, 100,
+                TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 5; i++) {
+            delivery.postResponse(new MockRequest(), response);
+        }
+        assertEquals(0, executor.tasks.size());
+        Thread.sleep(300);
+        assertEquals(1, executor.runAll());
+    }
+
+    @Test
+    public void fullBatchDoesNotWaitForWindow() throws Exception {
+        final CountDownLatch delivered = new CountDownLatch(4);
+        BatchingExecutorDelivery delivery = new BatchingExecutorDelivery(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, 4, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 4; i++) {
+            MockRequest request = new MockRequest();
+            request.addResponseListener(new RequestListener.ResponseListener<byte[]>() {
+                @Override
+                public void onResponse(byte[] response) {
+                    delivered.countDown();
+                }
+            });
+            delivery.postResponse(request, response);
+        }
+        assertTrue(delivered.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void earlyBatchTimerDoesNotPostNextBatch() throws Exception {
+        QueueingExecutor executor = new QueueingExecutor();
+        BatchingExecutorDelivery delivery = new BatchingExecutorDelivery(executor, 4, 400,
+                TimeUnit.MILLISECONDS);
+        delivery.postResponse(new MockRequest(), response);
+        Thread.sleep(200);
+        for (int i = 0; i < 3; i++) {
+            delivery.postResponse(new MockRequest(), response);
+        }
+        assertEquals(1, executor.runAll());
+        //the window of this batch starts now, not with the first batch
+        delivery.postResponse(new MockRequest(), response);
+        Thread.sleep(300);
+        assertEquals(0, executor.tasks.size());
+        Thread.sleep(400);
+        assertEquals(1, executor.runAll());
+    }
+
+    @Test
+    public void postsRightAwayAfterShutdown() throws Exception {
+        QueueingExecutor executor = new QueueingExecutor();
+        BatchingExecutorDelivery delivery = new BatchingExecutorDelivery(executor, 64, 1,
+                TimeUnit.MINUTES);
+        delivery.shutdown();
+        MockRequest request = new MockRequest();
+        delivery.postResponse(request, response);
+        assertEquals(1, executor.runAll());
+        assertTrue(request.deliverResponse_called);
+    }
+
+    @Test
+    public void intermediateBeforeFinal() throws Exception {
+        QueueingExecutor executor = new QueueingExecutor();
+        final BatchingExecutorDelivery delivery = new BatchingExecutorDelivery(executor);
+        final List<String> events = new ArrayList<>();
+        final MockRequest request = new MockRequest();
+        request.addResponseListener(new RequestListener.ResponseListener<byte[]>() {
+            @Override
+            public void onResponse(byte[] response) {
+                events.add("response-" + response.length);
+            }
+        });
+        Response<byte[]> intermediate = Response.success(new byte[1], null);
+        intermediate.intermediate = true;
+        delivery.postResponse(request, intermediate, new Runnable() {
+            @Override
+            public void run() {
+                events.add("refresh");
+                //like the network dispatcher does after the refresh
+                delivery.postResponse(request, response);
+            }
+        });
+        executor.runAll();
+        assertEquals(3, events.size());
+        assertEquals("response-1", events.get(0));
+        assertEquals("refresh", events.get(1));
+        assertEquals("response-16", events.get(2));
+    }
+}
@@ -22,13 +22,23 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 import io.apptik.comm.jus.mock.MockCache;
+import io.apptik.comm.jus.mock.MockNetwork;
 import io.apptik.comm.jus.mock.MockRequest;
 import io.apptik.comm.jus.mock.MockResponseDelivery;
 import io.apptik.comm.jus.mock.WaitableQueue;
+import io.apptik.comm.jus.toolbox.NoCache;
 import io.apptik.comm.jus.utils.CacheTestUtils;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -70,6 +80,16 @@ public class CacheDispatcherTest {
         assertFalse(mDelivery.wasEitherResponseCalled());
     }
 
+    // An expired request fails without reading the cache.
+    @Test public void expiredRequest() throws Exception {
+        mRequest.setDeadlineNs(System.nanoTime() - 1);
+        mCacheQueue.add(mRequest);
+        mCacheQueue.waitUntilEmpty(TIMEOUT_MILLIS);
+        assertFalse(mCache.getCalled);
+        assertTrue(mDelivery.postError_called);
+        assertEquals(0, mNetworkQueue.size());
+    }
+
     // A cache miss does not post a response and puts the request on the network queue.
     @Test public void cacheMiss() throws Exception {
         mCacheQueue.add(mRequest);
@@ -114,4 +134,30 @@ public class CacheDispatcherTest {
         Request request = mNetworkQueue.take();
         assertSame(entry, request.getCacheEntry());
     }
+
+    // A cache hit is parsed and posted on the parse executor of the queue.
+    @Test public void cacheHitParsedOnParseExecutor() throws Exception {
+        ExecutorService parseExecutor = Executors.newSingleThreadExecutor();
+        ((Request<?>) mRequest).setRequestQueue(new RequestQueue(new NoCache(), new MockNetwork())
+                .withParseExecutor(parseExecutor));
+        final AtomicReference<Thread> parseThread = new AtomicReference<>();
+        mRequest.addMarkerListener(new RequestListener.MarkerListener() {
+            @Override
+            public void onMarker(Marker marker, Object... args) {
+                if (Request.EVENT_CACHE_HIT_PARSED.equals(marker.name)) {
+                    parseThread.set(Thread.currentThread());
+                }
+            }
+        });
+        Cache.Entry entry = CacheTestUtils.makeRandomCacheEntry(null, false, true);
+        mCache.setEntryToReturn(entry);
+        mCacheQueue.add(mRequest);
+        mCacheQueue.waitUntilEmpty(TIMEOUT_MILLIS);
+        parseExecutor.shutdown();
+        assertTrue(parseExecutor.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertNotNull(parseThread.get());
+        assertNotSame(mDispatcher, parseThread.get());
+        assertTrue(mDelivery.postResponse_called);
+        assertSame(entry, mNetworkQueue.take().getCacheEntry());
+    }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.error.CircuitOpenError;
+import io.apptik.comm.jus.error.RequestError;
+import io.apptik.comm.jus.error.ServerError;
+import io.apptik.comm.jus.error.TimeoutError;
+import io.apptik.comm.jus.http.Headers;
+import io.apptik.comm.jus.mock.MockHttpStack;
+import io.apptik.comm.jus.mock.MockNetwork;
+import io.apptik.comm.jus.mock.MockRequest;
+import io.apptik.comm.jus.toolbox.HttpNetwork;
+import io.apptik.comm.jus.toolbox.NoCache;
+
+import static io.apptik.comm.jus.CircuitBreaker.State.CLOSED;
+import static io.apptik.comm.jus.CircuitBreaker.State.HALF_OPEN;
+import static io.apptik.comm.jus.CircuitBreaker.State.OPEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    private final MockRequest request = new MockRequest();
+
+    private CircuitBreaker.DefaultCircuitBreaker circuitBreaker(long openDurationMs) {
+        return new CircuitBreaker.DefaultCircuitBreaker(0.5f, 0.5f, 100, 4, 4, openDurationMs, 2,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void opensOnFailureRate() throws Exception {
+        CircuitBreaker.DefaultCircuitBreaker circuitBreaker = circuitBreaker(10000);
+        circuitBreaker.onSuccess(request, 0);
+        circuitBreaker.onError(request, new ServerError(null), 0);
+        //client errors are not failures of the backend
+        circuitBreaker.onError(request, new RequestError(null), 0);
+        assertEquals(CLOSED, circuitBreaker.getState());
+        circuitBreaker.onError(request, new TimeoutError(), 0);
+        assertEquals(OPEN, circuitBreaker.getState());
+        assertEquals(0.5f, circuitBreaker.getFailureRate(), 0);
+        assertFalse(circuitBreaker.tryAcquire(request));
+    }
+
+    @Test
+    public void opensOnSlowCallRate() throws Exception {
+        CircuitBreaker.DefaultCircuitBreaker circuitBreaker = circuitBreaker(10000);
+        long slow = TimeUnit.MILLISECONDS.toNanos(200);
+        circuitBreaker.onSuccess(request, slow);
+        circuitBreaker.onSuccess(request, 0);
+        circuitBreaker.onSuccess(request, 0);
+        circuitBreaker.onSuccess(request, slow);
+        assertEquals(OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void probesWhenHalfOpen() throws Exception {
+        CircuitBreaker.DefaultCircuitBreaker circuitBreaker = circuitBreaker(50);
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.onError(request, new ServerError(null), 0);
+        }
+        assertEquals(OPEN, circuitBreaker.getState());
+        Thread.sleep(60);
+        assertEquals(HALF_OPEN, circuitBreaker.getState());
+
+        //a failed probe opens again
+        assertTrue(circuitBreaker.tryAcquire(request));
+        circuitBreaker.onError(request, new ServerError(null), 0);
+        assertEquals(OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquire(request));
+        Thread.sleep(60);
+
+        //only 2 probes pass, closes after both succeed
+        assertTrue(circuitBreaker.tryAcquire(request));
+        assertTrue(circuitBreaker.tryAcquire(request));
+        assertFalse(circuitBreaker.tryAcquire(request));
+        circuitBreaker.onSuccess(request, 0);
+        assertEquals(HALF_OPEN, circuitBreaker.getState());
+        circuitBreaker.onSuccess(request, 0);
+        assertEquals(CLOSED, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.getFailureRate(), 0);
+        assertTrue(circuitBreaker.tryAcquire(request));
+    }
+
+    @Test
+    public void factoryPerHost() throws Exception {
+        CircuitBreaker.Factory factory = new CircuitBreaker.Factory() {
+        };
+        CircuitBreaker foo = factory.get(new MockRequest("http://foo.com/1", null));
+        assertSame(foo, factory.get(new MockRequest("http://foo.com/2", null)));
+        assertNotSame(foo, factory.get(new MockRequest("http://bar.com/1", null)));
+        assertEquals(2, factory.getCircuitBreakers().size());
+    }
+
+    @Test
+    public void httpNetworkFailsFastWhenOpen() throws Exception {
+        MockHttpStack stack = new MockHttpStack();
+        stack.setResponseToReturn(new NetworkResponse(500, new byte[0],
+                new Headers.Builder().build(), 0));
+        HttpNetwork network = new HttpNetwork(stack);
+        CircuitBreaker circuitBreaker = circuitBreaker(10000);
+        for (int i = 0; i < 4; i++) {
+            MockRequest request = new MockRequest();
+            request.setCircuitBreaker(circuitBreaker);
+            try {
+                network.performRequest(request);
+                fail("expected error");
+            } catch (ServerError e) {
+                //expected
+            }
+        }
+        assertEquals(OPEN, circuitBreaker.getState());
+
+        MockRequest request = new MockRequest("http://foo.com/open", null);
+        request.setCircuitBreaker(circuitBreaker);
+        try {
+            network.performRequest(request);
+            fail("expected error");
+        } catch (CircuitOpenError e) {
+            //expected
+        }
+        //never reached the stack
+        assertEquals("http://foo.com/", stack.getLastUrl());
+    }
+
+    @Test
+    public void factoryFromRequestQueue() throws Exception {
+        CircuitBreaker.Factory factory = new CircuitBreaker.Factory() {
+        };
+        RequestQueue queue = new RequestQueue(new NoCache(), new MockNetwork())
+                .setCircuitBreakerFactory(factory);
+        MockRequest request = new MockRequest();
+        assertNull(request.getCircuitBreaker());
+        queue.add(request);
+        assertSame(factory.get(request), request.getCircuitBreaker());
+    }
+}
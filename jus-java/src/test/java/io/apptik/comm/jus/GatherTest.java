@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.apptik.comm.jus.error.JusError;
+import io.apptik.comm.jus.error.RequestError;
+import io.apptik.comm.jus.error.TimeoutError;
+import io.apptik.comm.jus.http.Headers;
+import io.apptik.comm.jus.mock.MockCache;
+import io.apptik.comm.jus.toolbox.NoCache;
+import io.apptik.comm.jus.utils.ImmediateResponseDelivery;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GatherTest {
+
+    /**
+     * Responds to "/slow" after a while and with 404 to "/missing".
+     */
+    private static class PathNetwork implements Network {
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws JusError {
+            String path = request.getUrl().encodedPath();
+            if (path.startsWith("/slow")) {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            NetworkResponse response = new NetworkResponse(path.startsWith("/missing") ? 404 : 200,
+                    path.getBytes(), new Headers.Builder().build(), 0);
+            if (response.statusCode == 404) {
+                throw new RequestError(response);
+            }
+            return response;
+        }
+    }
+
+    private RequestQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        queue = new RequestQueue(new NoCache(), new PathNetwork(), 8,
+                new ImmediateResponseDelivery());
+        queue.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        queue.stop();
+    }
+
+    private List<Request<String>> makeRequests(String path, int count) {
+        List<Request<String>> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            requests.add(new Request<>(Request.Method.GET, "http://foo.com/" + path + i,
+                    String.class));
+        }
+        return requests;
+    }
+
+    @Test
+    public void gathersResponsesAndErrors() throws Exception {
+        List<Request<String>> requests = makeRequests("ok", 5);
+        requests.addAll(makeRequests("missing", 3));
+        Gather.Result<String> result = queue.gather(requests, 5, SECONDS).get(5, SECONDS);
+
+        assertEquals(5, result.getResponses().size());
+        assertEquals(3, result.getErrors().size());
+        assertEquals("/ok0", result.getResponses().get(requests.get(0)));
+        assertTrue(result.getErrors().containsKey(requests.get(7)));
+        assertTrue(result.getCanceled().isEmpty());
+        assertFalse(result.isQuorumReached());
+        assertFalse(result.isTimedOut());
+    }
+
+    @Test
+    public void quorumCancelsStragglers() throws Exception {
+        List<Request<String>> requests = makeRequests("slow", 3);
+        requests.addAll(makeRequests("ok", 3));
+        long start = System.nanoTime();
+        Gather.Result<String> result = queue.gather(requests, 3, 10, SECONDS).get(5, SECONDS);
+
+        assertTrue(System.nanoTime() - start < SECONDS.toNanos(4));
+        assertTrue(result.isQuorumReached());
+        assertEquals(3, result.getResponses().size());
+        assertEquals(3, result.getCanceled().size());
+        for (Request<String> request : result.getCanceled()) {
+            assertTrue(request.isCanceled());
+        }
+    }
+
+    @Test
+    public void deadlineFailsOutstanding() throws Exception {
+        List<Request<String>> requests = makeRequests("ok", 2);
+        requests.addAll(makeRequests("slow", 2));
+        Gather.Result<String> result = queue.gather(requests, 300, MILLISECONDS)
+                .get(5, SECONDS);
+
+        assertTrue(result.isTimedOut());
+        assertEquals(2, result.getResponses().size());
+        assertEquals(2, result.getErrors().size());
+        for (JusError error : result.getErrors().values()) {
+            assertTrue(error instanceof TimeoutError);
+        }
+        //either failed by the gather or, if not dispatched in time, by their own deadline
+        assertTrue(result.getErrors().containsKey(requests.get(2)));
+        assertTrue(result.getErrors().containsKey(requests.get(3)));
+    }
+
+    @Test
+    public void cancelNotifiesListener() throws Exception {
+        final AtomicReference<Gather.Result<String>> gathered = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        Gather<String> gather = queue.gather(makeRequests("slow", 4), 10, SECONDS)
+                .addListener(new Gather.Listener<String>() {
+                    @Override
+                    public void onGathered(Gather.Result<String> result) {
+                        gathered.set(result);
+                        latch.countDown();
+                    }
+                });
+
+        assertTrue(gather.cancel(true));
+        assertTrue(latch.await(1, SECONDS));
+        assertTrue(gather.isCancelled());
+        assertEquals(4, gathered.get().getCanceled().size());
+        assertFalse(gather.cancel(true));
+    }
+
+    @Test
+    public void emptyGatherIsDone() throws Exception {
+        Gather<String> gather = queue.gather(Collections.<Request<String>>emptyList(),
+                1, SECONDS);
+        assertTrue(gather.isDone());
+        assertTrue(gather.get().getRequests().isEmpty());
+    }
+
+    @Test
+    public void ignoresIntermediateResponses() throws Exception {
+        //soft expired cache hits are delivered as intermediate responses before the refresh
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = "cached".getBytes();
+        entry.ttl = System.currentTimeMillis() + 60000;
+        entry.softTtl = 0;
+        MockCache cache = new MockCache();
+        cache.setEntryToReturn(entry);
+        RequestQueue cachingQueue = new RequestQueue(cache, new PathNetwork(), 1,
+                new ImmediateResponseDelivery());
+        cachingQueue.start();
+        try {
+            List<Request<String>> requests = makeRequests("ok", 2);
+            Gather.Result<String> result = cachingQueue.gather(requests, 1, 5, SECONDS)
+                    .get(5, SECONDS);
+            assertTrue(result.isQuorumReached());
+            for (String response : result.getResponses().values()) {
+                assertTrue(response.startsWith("/ok"));
+            }
+        } finally {
+            cachingQueue.stop();
+        }
+    }
+
+    @Test
+    public void abandonedWhenRequestsCannotBeAdded() throws Exception {
+        final List<Request<String>> requests = makeRequests("ok", 3);
+        queue.addRequestTransformer(new Transformer.RequestTransformer(
+                new RequestQueue.RequestFilter() {
+                    @Override
+                    public boolean apply(Request<?> request) {
+                        if (request == requests.get(1)) {
+                            throw new IllegalStateException("bad request");
+                        }
+                        return false;
+                    }
+                }) {
+            @Override
+            public NetworkRequest transform(NetworkRequest networkRequest) {
+                return networkRequest;
+            }
+        });
+        try {
+            queue.gather(requests, 1, SECONDS);
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        //the request which was not added is left as it was
+        assertFalse(requests.get(2).hasDeadline());
+        assertFalse(requests.get(0).isCanceled());
+    }
+}
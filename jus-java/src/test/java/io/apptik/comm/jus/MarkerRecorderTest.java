@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.apptik.comm.jus.error.AuthError;
+import io.apptik.comm.jus.http.Headers;
+import io.apptik.comm.jus.mock.MockRequest;
+import io.apptik.comm.jus.stack.HttpStack;
+import io.apptik.comm.jus.toolbox.ByteArrayPool;
+import io.apptik.comm.jus.toolbox.HttpNetwork;
+import io.apptik.comm.jus.toolbox.NoCache;
+import io.apptik.comm.jus.utils.ImmediateResponseDelivery;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MarkerRecorderTest {
+
+    @Test
+    public void markerIds() throws Exception {
+        int id = Marker.idOf(Request.EVENT_CACHE_HIT);
+        assertEquals(id, Marker.idOf(new String(Request.EVENT_CACHE_HIT)));
+        assertNotEquals(id, Marker.idOf(Request.EVENT_CACHE_MISS));
+        assertEquals(Request.EVENT_CACHE_HIT, Marker.nameOf(id));
+        assertEquals(id, new Marker(Request.EVENT_CACHE_HIT, 1, "main", 0).id);
+    }
+
+    @Test
+    public void customMarkersKeepTheirName() throws Exception {
+        assertEquals(Marker.NO_ID, Marker.idOf("custom"));
+        Marker marker = new Marker("custom", 1, "main", 0);
+        assertEquals(Marker.NO_ID, marker.id);
+        assertEquals("custom", marker.name);
+        MarkerRecorder recorder = new MarkerRecorder(4);
+        MockRequest request = new MockRequest();
+        request.setSequence(1);
+        recorder.record(request, "custom");
+        recorder.record(request, Request.EVENT_CACHE_HIT);
+        List<MarkerRecorder.Record> records = recorder.snapshot();
+        assertEquals(Marker.NO_ID, records.get(0).markerId);
+        assertEquals("custom", records.get(0).getMarkerName());
+        assertEquals(Request.EVENT_ID_CACHE_HIT, records.get(1).markerId);
+        assertEquals(Request.EVENT_CACHE_HIT, records.get(1).getMarkerName());
+    }
+
+    @Test
+    public void builtInEventIds() throws Exception {
+        for (Field field : Request.class.getFields()) {
+            if (field.getName().startsWith("EVENT_ID_")) {
+                String name = (String) Request.class
+                        .getField("EVENT_" + field.getName().substring(9)).get(null);
+                assertEquals(name, Marker.nameOf(field.getInt(null)));
+                assertEquals(field.getInt(null), Marker.idOf(name));
+            }
+        }
+    }
+
+    @Test
+    public void markersByIdReachListeners() throws Exception {
+        MockRequest request = new MockRequest();
+        final List<Marker> markers = new ArrayList<>();
+        final List<Object[]> args = new ArrayList<>();
+        request.addMarker(Request.EVENT_ID_CACHE_HIT, "no listener");
+        request.addMarkerListener(new RequestListener.MarkerListener() {
+            @Override
+            public void onMarker(Marker marker, Object... markerArgs) {
+                markers.add(marker);
+                args.add(markerArgs);
+            }
+        });
+        assertTrue(request.hasMarkerListeners());
+        request.addMarker(Request.EVENT_ID_CACHE_MISS);
+        request.addMarker(Request.EVENT_ID_NETWORK_HEDGE, 5L);
+        request.addMarker(Request.EVENT_ID_DELIVER_RESPONSE, "a", true);
+        assertEquals(3, markers.size());
+        assertEquals(Request.EVENT_CACHE_MISS, markers.get(0).name);
+        assertEquals(0, args.get(0).length);
+        assertEquals(Request.EVENT_NETWORK_HEDGE, markers.get(1).name);
+        assertEquals(5L, args.get(1)[0]);
+        assertEquals(Request.EVENT_ID_DELIVER_RESPONSE, markers.get(2).id);
+        assertEquals(2, args.get(2).length);
+    }
+
+    @Test
+    public void keepsLatestRecords() throws Exception {
+        MarkerRecorder recorder = new MarkerRecorder(3);
+        assertEquals(4, recorder.getCapacity());
+        MockRequest request = new MockRequest();
+        request.setSequence(7);
+        for (int i = 0; i < 10; i++) {
+            recorder.record(request, "marker-" + i);
+        }
+        assertEquals(10, recorder.getRecordedCount());
+        List<MarkerRecorder.Record> records = recorder.snapshot();
+        assertEquals(4, records.size());
+        for (int i = 0; i < 4; i++) {
+            MarkerRecorder.Record record = records.get(i);
+            assertEquals("marker-" + (i + 6), record.getMarkerName());
+            assertEquals(7, record.requestSequence);
+            assertEquals(Thread.currentThread().getId(), record.threadId);
+            if (i > 0) {
+                assertTrue(record.time >= records.get(i - 1).time);
+            }
+        }
+        assertEquals(Thread.currentThread().getName(),
+                recorder.getThreadName(Thread.currentThread().getId()));
+    }
+
+    @Test
+    public void recordsFromManyThreads() throws Exception {
+        final MarkerRecorder recorder = new MarkerRecorder(1024);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final MockRequest request = new MockRequest();
+            request.setSequence(t);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100; i++) {
+                        recorder.record(request, Request.EVENT_NETWORK_QUEUE_TAKE);
+                    }
+                }
+            }, "recorder-" + t);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400, recorder.snapshot().size());
+        for (int t = 0; t < 4; t++) {
+            MockRequest request = new MockRequest();
+            request.setSequence(t);
+            List<MarkerRecorder.Record> records = recorder.snapshot(request);
+            assertEquals(100, records.size());
+            assertEquals("recorder-" + t, recorder.getThreadName(records.get(0).threadId));
+        }
+    }
+
+    @Test
+    public void recordsRequestsOfQueue() throws Exception {
+        HttpStack stack = new HttpStack() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request,
+                                                  Headers additionalHeaders,
+                                                  ByteArrayPool byteArrayPool)
+                    throws IOException, AuthError {
+                return new NetworkResponse(200, new byte[0], new Headers.Builder().build(), 0);
+            }
+        };
+        MarkerRecorder recorder = new MarkerRecorder();
+        RequestQueue queue = new RequestQueue(new NoCache(), new HttpNetwork(stack), 1,
+                new ImmediateResponseDelivery())
+                .withMarkerRecorder(recorder);
+        queue.start();
+        try {
+            MockRequest request = new MockRequest();
+            RequestFuture<byte[]> future = request.getFuture();
+            queue.add(request);
+            future.get(5, SECONDS);
+            List<String> names = new ArrayList<>();
+            for (MarkerRecorder.Record record : recorder.snapshot(request)) {
+                names.add(record.getMarkerName());
+            }
+            assertTrue(names.contains(Request.EVENT_ADD_TO_QUEUE));
+            assertTrue(names.contains(Request.EVENT_NETWORK_HTTP_COMPLETE));
+        } finally {
+            queue.stop();
+        }
+    }
+}
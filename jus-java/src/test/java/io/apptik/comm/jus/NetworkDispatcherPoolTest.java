@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.apptik.comm.jus.mock.MockNetwork;
+import io.apptik.comm.jus.mock.MockRequest;
+import io.apptik.comm.jus.toolbox.NoCache;
+import io.apptik.comm.jus.utils.ImmediateResponseDelivery;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NetworkDispatcherPoolTest {
+    private static final long KEEP_ALIVE_MS = 300;
+
+    private RequestQueue queue;
+    private NetworkDispatcherPool pool;
+    private MockNetwork network;
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger stopped = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        network = new MockNetwork().setSlowness(50);
+        pool = new NetworkDispatcherPool(1, 4, KEEP_ALIVE_MS)
+                .setGrowQueueDepth(2)
+                .setMaxQueueWaitMs(10);
+        queue = new RequestQueue(new NoCache(), network, 1, new ImmediateResponseDelivery())
+                .withNetworkDispatcherPool(pool)
+                .addQueueMarkerListener(new RequestListener.MarkerListener() {
+                    @Override
+                    public void onMarker(Marker marker, Object... args) {
+                        if (args.length == 0 || !(args[0] instanceof NetworkDispatcher)) {
+                            return;
+                        }
+                        if (RequestQueue.EVENT_NETWORK_DISPATCHER_START.equals(marker.name)) {
+                            started.incrementAndGet();
+                        } else if (RequestQueue.EVENT_NETWORK_DISPATCHER_STOP
+                                .equals(marker.name)) {
+                            stopped.incrementAndGet();
+                        }
+                    }
+                });
+        queue.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        queue.stop();
+    }
+
+    @Test
+    public void startsWithMinSize() throws Exception {
+        assertEquals(1, pool.size());
+        assertEquals(1, started.get());
+    }
+
+    @Test
+    public void growsOnBacklogAndShrinksWhenIdle() throws Exception {
+        List<RequestFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            MockRequest request = new MockRequest();
+            futures.add(request.getFuture());
+            queue.add(request);
+        }
+        int maxSeen = 0;
+        for (RequestFuture<byte[]> future : futures) {
+            maxSeen = Math.max(maxSeen, pool.size());
+            future.get(10, SECONDS);
+        }
+        assertEquals(40, network.getRequestCnt());
+        assertTrue("pool did not grow", maxSeen > 1);
+        assertTrue(maxSeen <= pool.getMaxSize());
+        assertTrue(started.get() > 1);
+
+        long end = System.currentTimeMillis() + KEEP_ALIVE_MS * 10;
+        while (pool.size() > 1 && System.currentTimeMillis() < end) {
+            Thread.sleep(KEEP_ALIVE_MS / 3);
+        }
+        assertEquals(1, pool.size());
+        assertEquals(started.get() - 1, stopped.get());
+    }
+
+    @Test
+    public void growsWhenAllDispatchersAreStuck() throws Exception {
+        network.setSlowness(2000);
+        queue.add(new MockRequest("http://foo.com/1", null));
+        queue.add(new MockRequest("http://foo.com/2", null));
+        //no dispatcher takes a request for a while, the monitor has to grow the pool
+        long end = System.currentTimeMillis() + 1000;
+        while (pool.size() == 1 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void stopQuitsAllDispatchers() throws Exception {
+        queue.stop();
+        assertEquals(0, pool.size());
+        assertEquals(started.get(), stopped.get());
+    }
+}
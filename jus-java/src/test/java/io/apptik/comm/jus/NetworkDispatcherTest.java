@@ -23,16 +23,22 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import io.apptik.comm.jus.mock.MockCache;
 import io.apptik.comm.jus.mock.MockNetwork;
 import io.apptik.comm.jus.mock.MockRequest;
 import io.apptik.comm.jus.mock.MockResponseDelivery;
 import io.apptik.comm.jus.mock.WaitableQueue;
+import io.apptik.comm.jus.toolbox.NoCache;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 
 public class NetworkDispatcherTest {
@@ -82,6 +88,45 @@ public class NetworkDispatcherTest {
         assertTrue(mDelivery.postError_called);
     }
 
+    @Test public void failingMarkerListenerPostsError() throws Exception {
+        mNetwork.setDataToReturn(CANNED_DATA);
+        mRequest.addMarkerListener(new RequestListener.MarkerListener() {
+            @Override
+            public void onMarker(Marker marker, Object... args) {
+                if (Request.EVENT_NETWORK_HTTP_COMPLETE.equals(marker.name)) {
+                    throw new IllegalStateException("listener failed");
+                }
+            }
+        });
+        mNetworkQueue.add(mRequest);
+        //times out if the dispatcher died
+        mNetworkQueue.waitUntilEmpty(TIMEOUT_MILLIS);
+        assertFalse(mDelivery.postResponse_called);
+        assertTrue(mDelivery.postError_called);
+    }
+
+    @Test public void parseHereWhenParseExecutorRejects() throws Exception {
+        ExecutorService parseExecutor = Executors.newSingleThreadExecutor();
+        parseExecutor.shutdown();
+        ((Request<?>) mRequest).setRequestQueue(new RequestQueue(new NoCache(), mNetwork)
+                .withParseExecutor(parseExecutor));
+        mNetwork.setDataToReturn(CANNED_DATA);
+        mNetworkQueue.add(mRequest);
+        mNetworkQueue.waitUntilEmpty(TIMEOUT_MILLIS);
+        assertFalse(mDelivery.postError_called);
+        assertTrue(mDelivery.postResponse_called);
+    }
+
+    @Test public void expiredRequestPostsError() throws Exception {
+        mNetwork.setDataToReturn(CANNED_DATA);
+        mRequest.setDeadlineNs(System.nanoTime() - 1);
+        mNetworkQueue.add(mRequest);
+        mNetworkQueue.waitUntilEmpty(TIMEOUT_MILLIS);
+        assertFalse(mDelivery.postResponse_called);
+        assertTrue(mDelivery.postError_called);
+        assertEquals(0, mNetwork.getRequestCnt());
+    }
+
     @Test public void shouldCacheFalse() throws Exception {
         mRequest.setShouldCache(false);
         mNetworkQueue.add(mRequest);
@@ -100,4 +145,29 @@ public class NetworkDispatcherTest {
         assertTrue(Arrays.equals(mCache.entryPut.data, CANNED_DATA));
         assertEquals("bananaphone", mCache.keyPut);
     }
+
+    @Test public void parseOnParseExecutor() throws Exception {
+        ExecutorService parseExecutor = Executors.newSingleThreadExecutor();
+        ((Request<?>) mRequest).setRequestQueue(new RequestQueue(new NoCache(), mNetwork)
+                .withParseExecutor(parseExecutor));
+        final AtomicReference<Thread> parseThread = new AtomicReference<>();
+        mRequest.addMarkerListener(new RequestListener.MarkerListener() {
+            @Override
+            public void onMarker(Marker marker, Object... args) {
+                if (Request.EVENT_NETWORK_PARSE_COMPLETE.equals(marker.name)) {
+                    parseThread.set(Thread.currentThread());
+                }
+            }
+        });
+        mNetwork.setDataToReturn(CANNED_DATA);
+        mNetwork.setNumExceptionsToThrow(0);
+        mNetworkQueue.add(mRequest);
+        mNetworkQueue.waitUntilEmpty(TIMEOUT_MILLIS);
+        parseExecutor.shutdown();
+        assertTrue(parseExecutor.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertNotNull(parseThread.get());
+        assertNotSame(mDispatcher, parseThread.get());
+        assertTrue(mDelivery.postResponse_called);
+        assertTrue(Arrays.equals((byte[]) mDelivery.responsePosted.result, CANNED_DATA));
+    }
 }
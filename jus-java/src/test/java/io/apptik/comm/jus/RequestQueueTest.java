@@ -25,11 +25,14 @@ import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -39,11 +42,13 @@ import io.apptik.comm.jus.error.AuthError;
 import io.apptik.comm.jus.error.JusError;
 import io.apptik.comm.jus.http.Headers;
 import io.apptik.comm.jus.http.HttpUrl;
+import io.apptik.comm.jus.mock.MockCache;
 import io.apptik.comm.jus.mock.MockHttpStack;
 import io.apptik.comm.jus.mock.MockNetwork;
 import io.apptik.comm.jus.mock.MockRequest;
 import io.apptik.comm.jus.toolbox.HttpNetwork;
 import io.apptik.comm.jus.toolbox.NoCache;
+import io.apptik.comm.jus.toolbox.PriorityLaneQueue;
 import io.apptik.comm.jus.utils.CacheTestUtils;
 import io.apptik.comm.jus.utils.ImmediateResponseDelivery;
 
@@ -108,6 +113,335 @@ public class RequestQueueTest {
         queue.stopWhenDone();
     }
 
+    @Test
+    public void resolveResponseConvertersOnce() throws Exception {
+        final AtomicInteger resolved = new AtomicInteger();
+        Converter.Factory factory = new Converter.Factory() {
+            @Override
+            public Converter<NetworkResponse, ?> fromResponse(Type type, Annotation[] annotations) {
+                resolved.incrementAndGet();
+                return new Converter<NetworkResponse, byte[]>() {
+                    @Override
+                    public byte[] convert(NetworkResponse value) throws IOException {
+                        return value.data;
+                    }
+                };
+            }
+        };
+        RequestQueue queue = new RequestQueue(new NoCache(), new MockNetwork(), 1, mDelivery)
+                .addConverterFactory(factory);
+        for (int i = 0; i < 3; i++) {
+            queue.add(new Request<>(Request.Method.GET, "http://foo.com/" + i, byte[].class));
+        }
+        assertEquals(1, resolved.get());
+
+        //converters are resolved again when the factories change
+        queue.removeConverterFactory(factory).addConverterFactory(factory);
+        queue.add(new Request<>(Request.Method.GET, "http://foo.com/", byte[].class));
+        assertEquals(2, resolved.get());
+
+        //String is converted by the basic factory
+        queue.add(new Request<>(Request.Method.GET, "http://foo.com", String.class));
+        assertEquals(2, resolved.get());
+    }
+
+    @Test
+    public void staleResponseConverterIsNotCached() throws Exception {
+        final AtomicInteger resolved = new AtomicInteger();
+        final CountDownLatch resolving = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final RequestQueue queue = new RequestQueue(new NoCache(), new MockNetwork(), 1,
+                mDelivery).addConverterFactory(new Converter.Factory() {
+            @Override
+            public Converter<NetworkResponse, ?> fromResponse(Type type, Annotation[] annotations) {
+                if (resolved.incrementAndGet() == 1) {
+                    resolving.countDown();
+                    try {
+                        proceed.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return new Converter<NetworkResponse, byte[]>() {
+                    @Override
+                    public byte[] convert(NetworkResponse value) throws IOException {
+                        return value.data;
+                    }
+                };
+            }
+        });
+        Thread adding = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.add(new Request<>(Request.Method.GET, "http://foo.com/1", byte[].class));
+            }
+        });
+        adding.start();
+        assertTrue(resolving.await(5, SECONDS));
+        //the factories change while the first converter is being resolved
+        queue.addConverterFactory(new Converter.Factory() {
+        });
+        proceed.countDown();
+        adding.join();
+
+        queue.add(new Request<>(Request.Method.GET, "http://foo.com/2", byte[].class));
+        assertEquals(2, resolved.get());
+        queue.add(new Request<>(Request.Method.GET, "http://foo.com/3", byte[].class));
+        assertEquals(2, resolved.get());
+    }
+
+    @Test
+    public void useNetworkThreadFactory() throws Exception {
+        MockNetwork network = new MockNetwork();
+        byte[] dataToReturn = new byte[]{1, 2, 3, 4};
+        network.setDataToReturn(dataToReturn);
+        final AtomicInteger threadsCreated = new AtomicInteger();
+        RequestQueue queue = new RequestQueue(new NoCache(), network, 4, mDelivery)
+                .withNetworkThreadFactory(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        threadsCreated.incrementAndGet();
+                        return new Thread(r);
+                    }
+                }, 16);
+        queue.start();
+
+        List<RequestFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            MockRequest request = new MockRequest();
+            futures.add(request.getFuture());
+            queue.add(request);
+        }
+        for (RequestFuture<byte[]> future : futures) {
+            future.get(5, SECONDS);
+        }
+
+        assertEquals(10, threadsCreated.get());
+        assertEquals(10, network.getRequestCnt());
+
+        queue.stopWhenDone();
+    }
+
+    @Test
+    public void useCacheThreadPool() throws Exception {
+        MockNetwork network = new MockNetwork();
+        MockCache cache = new MockCache();
+        byte[] cachedData = new byte[]{5, 6, 7};
+        cache.setEntryToReturn(CacheTestUtils.makeRandomCacheEntry(cachedData));
+        final AtomicInteger cacheDispatchers = new AtomicInteger();
+        RequestQueue queue = new RequestQueue(cache, network, 1, mDelivery)
+                .withCacheThreadPoolSize(3)
+                .addQueueMarkerListener(new RequestListener.MarkerListener() {
+                    @Override
+                    public void onMarker(Marker marker, Object... args) {
+                        if (RequestQueue.EVENT_CACHE_DISPATCHER_START.equals(marker.name)) {
+                            cacheDispatchers.incrementAndGet();
+                        }
+                    }
+                });
+        queue.start();
+        assertEquals(3, cacheDispatchers.get());
+
+        List<RequestFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            MockRequest request = new MockRequest();
+            request.setCacheKey("key" + i);
+            futures.add(request.getFuture());
+            queue.add(request);
+        }
+        for (RequestFuture<byte[]> future : futures) {
+            assertTrue(Arrays.equals(cachedData, future.get(5, SECONDS)));
+        }
+        assertEquals(0, network.getRequestCnt());
+
+        queue.stop();
+    }
+
+    @Test
+    public void addDuplicatesConcurrently() throws Exception {
+        MockCache cache = new MockCache();
+        final byte[] cachedData = new byte[]{5, 6, 7};
+        cache.setEntryToReturn(CacheTestUtils.makeRandomCacheEntry(cachedData));
+        final RequestQueue queue = new RequestQueue(cache, new MockNetwork(), 1, mDelivery)
+                .withCacheThreadPoolSize(2);
+        queue.start();
+
+        final List<RequestFuture<byte[]>> futures =
+                Collections.synchronizedList(new ArrayList<RequestFuture<byte[]>>());
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            producers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 50; j++) {
+                        MockRequest request = new MockRequest();
+                        request.setCacheKey("key" + j % 3);
+                        futures.add(request.getFuture());
+                        queue.add(request);
+                    }
+                }
+            }));
+        }
+        for (Thread producer : producers) {
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertEquals(400, futures.size());
+        for (RequestFuture<byte[]> future : futures) {
+            assertTrue(Arrays.equals(cachedData, future.get(5, SECONDS)));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((queue.getCurrentRequests() > 0 || queue.getWaitingRequests() > 0)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, queue.getCurrentRequests());
+        assertEquals(0, queue.getWaitingRequests());
+
+        queue.stop();
+    }
+
+    @Test
+    public void shareResponseWithStagedRequests() throws Exception {
+        MockNetwork network = new MockNetwork().setSlowness(200);
+        network.setDataToReturn("shared".getBytes());
+        RequestQueue queue = new RequestQueue(new NoCache(), network, 2, mDelivery)
+                .withSharedResponses(true);
+        queue.start();
+
+        List<RequestFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Request<String> request =
+                    new Request<>(Request.Method.GET, "http://foo.com/shared", String.class);
+            futures.add(request.getFuture());
+            queue.add(request);
+        }
+        // a different converter cannot share the response and goes through the cache
+        MockRequest other = new MockRequest("http://foo.com/shared", null);
+        RequestFuture<byte[]> otherFuture = other.getFuture();
+        queue.add(other);
+
+        for (RequestFuture<String> future : futures) {
+            assertEquals("shared", future.get(5, SECONDS));
+        }
+        assertTrue(Arrays.equals("shared".getBytes(), otherFuture.get(5, SECONDS)));
+        // NoCache misses, so only the in flight request and the unshared one hit the network
+        assertEquals(2, network.getRequestCnt());
+
+        queue.stop();
+    }
+
+    @Test
+    public void coalesceUncachedRequests() throws Exception {
+        MockNetwork network = new MockNetwork().setSlowness(200);
+        network.setDataToReturn("coalesced".getBytes());
+        RequestQueue queue = new RequestQueue(new NoCache(), network, 4, mDelivery);
+        queue.start();
+
+        List<RequestFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Request<String> request =
+                    new Request<>(Request.Method.GET, "http://foo.com/c", String.class)
+                            .setShouldCache(false)
+                            .setCoalesce(true);
+            futures.add(request.getFuture());
+            queue.add(request);
+        }
+        // not opted in
+        Request<String> plain = new Request<>(Request.Method.GET, "http://foo.com/c", String.class)
+                .setShouldCache(false);
+        futures.add(plain.getFuture());
+        queue.add(plain);
+
+        for (RequestFuture<String> future : futures) {
+            assertEquals("coalesced", future.get(5, SECONDS));
+        }
+        assertEquals(2, network.getRequestCnt());
+
+        queue.stop();
+    }
+
+    @Test
+    public void coalesceUncachedRequestsError() throws Exception {
+        MockNetwork network = new MockNetwork().setSlowness(200);
+        network.setNumExceptionsToThrow(MockNetwork.ALWAYS_THROW_EXCEPTIONS);
+        RequestQueue queue = new RequestQueue(new NoCache(), network, 4, mDelivery);
+        queue.start();
+
+        final AtomicInteger errors = new AtomicInteger();
+        List<RequestFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Request<String> request =
+                    new Request<>(Request.Method.GET, "http://foo.com/c", String.class)
+                            .setShouldCache(false)
+                            .setCoalesce(true)
+                            .addErrorListener(new RequestListener.ErrorListener() {
+                                @Override
+                                public void onError(JusError error) {
+                                    errors.incrementAndGet();
+                                }
+                            });
+            futures.add(request.getFuture());
+            queue.add(request);
+        }
+        for (RequestFuture<String> future : futures) {
+            try {
+                future.get(5, SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                //expected
+            }
+        }
+        assertEquals(3, errors.get());
+
+        queue.stop();
+    }
+
+    @Test
+    public void coalesceOnlyRequestsWithSameCredentials() throws Exception {
+        MockNetwork network = new MockNetwork().setSlowness(200);
+        RequestQueue queue = new RequestQueue(new NoCache(), network, 4, mDelivery);
+        queue.start();
+
+        List<RequestFuture<String>> futures = new ArrayList<>();
+        for (String token : new String[]{"a", "a", "b"}) {
+            Request<String> request =
+                    new Request<>(Request.Method.GET, "http://foo.com/c", String.class)
+                            .setShouldCache(false)
+                            .setCoalesce(true)
+                            .setNetworkRequest(new NetworkRequest.Builder()
+                                    .setHeader("Authorization", token).build());
+            futures.add(request.getFuture());
+            queue.add(request);
+        }
+        Request<String> authenticated =
+                new Request<>(Request.Method.GET, "http://foo.com/c", String.class)
+                        .setShouldCache(false)
+                        .setCoalesce(true)
+                        .setServerAuthenticator(new Authenticator() {
+                            @Override
+                            public String getAuthValue() throws AuthError {
+                                return "c";
+                            }
+
+                            @Override
+                            public void clearAuthValue() {
+                            }
+                        });
+        assertEquals(null, authenticated.getCoalescingKey());
+        futures.add(authenticated.getFuture());
+        queue.add(authenticated);
+
+        for (RequestFuture<String> future : futures) {
+            future.get(5, SECONDS);
+        }
+        assertEquals(3, network.getRequestCnt());
+
+        queue.stop();
+    }
+
     @Test
     public void add_requestProcessedInCorrectOrder() throws Exception {
         int requestsToMake = 100;
@@ -124,6 +458,58 @@ public class RequestQueueTest {
         queue.stopWhenDone();
     }
 
+    @Test
+    public void addAll_requestProcessedInCorrectOrder() throws Exception {
+        OrderCheckingNetwork network = new OrderCheckingNetwork();
+        RequestQueue queue = new RequestQueue(new NoCache(), network, 1, mDelivery);
+
+        MockRequest single = queue.add(new MockRequest());
+        List<MockRequest> requests = makeRequests(100);
+        queue.addAll(requests);
+        assertEquals(101, queue.getCurrentRequests());
+        assertEquals(single.getSequence() + 1, requests.get(0).getSequence());
+        for (int i = 1; i < requests.size(); i++) {
+            assertEquals(requests.get(i - 1).getSequence() + 1, requests.get(i).getSequence());
+        }
+        assertEquals(requests.get(99).getSequence() + 1, queue.getSequenceNumber());
+
+        queue.start();
+
+        queue.stopWhenDone();
+    }
+
+    @Test
+    public void addAll_failingRequestKeepsEarlierOnesQueued() throws Exception {
+        PriorityLaneQueue cacheQueue = new PriorityLaneQueue();
+        RequestQueue queue = new RequestQueue(new NoCache(), new MockNetwork(), 1, mDelivery)
+                .withCacheQueue(cacheQueue);
+        final List<MockRequest> requests = makeRequests(3);
+        queue.addRequestTransformer(new Transformer.RequestTransformer(
+                new RequestQueue.RequestFilter() {
+                    @Override
+                    public boolean apply(Request<?> request) {
+                        if (request == requests.get(1)) {
+                            throw new IllegalStateException("bad request");
+                        }
+                        return false;
+                    }
+                }) {
+            @Override
+            public NetworkRequest transform(NetworkRequest networkRequest) {
+                return networkRequest;
+            }
+        });
+        try {
+            queue.addAll(requests);
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        assertEquals(1, queue.getCurrentRequests());
+        assertTrue(cacheQueue.contains(requests.get(0)));
+        assertEquals(null, requests.get(2).getRequestQueue());
+    }
+
     @Test
     public void add_dedupeByCacheKey() throws Exception {
         OrderCheckingNetwork network = new OrderCheckingNetwork();
@@ -176,6 +562,48 @@ public class RequestQueueTest {
 
     }
 
+    @Test
+    public void cancelAll_removesFromPurgeableQueues() throws Exception {
+        RequestQueue queue = new RequestQueue(new NoCache(), new MockNetwork(), 1, mDelivery)
+                .withCacheQueue(new PriorityLaneQueue())
+                .withNetworkQueue(new PriorityLaneQueue());
+        Object tagA = new Object();
+        Object tagB = new Object();
+        final List<String> markers = Collections.synchronizedList(new ArrayList<String>());
+        for (int i = 0; i < 10; i++) {
+            MockRequest request = new MockRequest();
+            request.setTag(i % 2 == 0 ? tagA : tagB);
+            request.setShouldCache(i < 4);
+            if (i % 2 == 0) {
+                request.addMarkerListener(new RequestListener.MarkerListener() {
+                    @Override
+                    public void onMarker(Marker marker, Object... args) {
+                        markers.add(marker.name);
+                    }
+                });
+            }
+            request.setCacheKey(String.valueOf(i));
+            queue.add(request);
+        }
+        assertEquals(10, queue.getCurrentRequests());
+
+        queue.cancelAll(tagA);
+        assertEquals(5, queue.getCurrentRequests());
+        assertEquals(2, Collections.frequency(markers, Request.EVENT_CACHE_DISCARD_CANCELED));
+        assertEquals(3, Collections.frequency(markers, Request.EVENT_NETWORK_DISCARD_CANCELED));
+        assertEquals(5, Collections.frequency(markers, Request.EVENT_DONE));
+
+        queue.cancelAll(tagA);
+        assertEquals(5, queue.getCurrentRequests());
+        queue.cancelAll(new RequestQueue.RequestFilter() {
+            @Override
+            public boolean apply(Request<?> request) {
+                return true;
+            }
+        });
+        assertEquals(0, queue.getCurrentRequests());
+    }
+
     @Test
     public void authFactoryTest() throws Exception {
         MockHttpStack httpStack = new MockHttpStack();
@@ -20,7 +20,16 @@ package io.apptik.comm.jus;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import io.apptik.comm.jus.Request.Priority;
+import io.apptik.comm.jus.error.JusError;
+import io.apptik.comm.jus.error.ServerError;
+import io.apptik.comm.jus.mock.MockRequest;
+import io.apptik.comm.jus.utils.ImmediateResponseDelivery;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -47,6 +56,38 @@ public class RequestTest {
         assertTrue(immediate.compareTo(high) < 0);
     }
 
+    @Test public void earliestDeadlineFirst() {
+        long now = System.nanoTime();
+        TestRequest immediate = new TestRequest(Priority.IMMEDIATE);
+        immediate.setSequence(0);
+        TestRequest late = new TestRequest(Priority.LOW);
+        late.setSequence(1);
+        late.setDeadlineNs(now + 2000);
+        TestRequest early = new TestRequest(Priority.LOW);
+        early.setSequence(2);
+        early.setDeadlineNs(now + 1000);
+        TestRequest earlyHigh = new TestRequest(Priority.HIGH);
+        earlyHigh.setSequence(3);
+        earlyHigh.setDeadlineNs(now + 1000);
+
+        assertTrue(Request.EARLIEST_DEADLINE_FIRST.compare(early, late) < 0);
+        assertTrue(Request.EARLIEST_DEADLINE_FIRST.compare(late, immediate) < 0);
+        assertTrue(Request.EARLIEST_DEADLINE_FIRST.compare(immediate, early) > 0);
+        // same deadline falls back to priority
+        assertTrue(Request.EARLIEST_DEADLINE_FIRST.compare(earlyHigh, early) < 0);
+    }
+
+    @Test public void deadline() {
+        TestRequest request = new TestRequest(Priority.NORMAL);
+        assertFalse(request.hasDeadline());
+        assertFalse(request.isExpired());
+        request.setDeadline(1, TimeUnit.HOURS);
+        assertTrue(request.hasDeadline());
+        assertFalse(request.isExpired());
+        request.setDeadlineNs(System.nanoTime() - 1);
+        assertTrue(request.isExpired());
+    }
+
     private class TestRequest extends Request<Object> {
         private Priority mPriority = Priority.NORMAL;
         public TestRequest(Priority priority) {
@@ -80,6 +121,57 @@ public class RequestTest {
         assertFalse(0 == goodProtocol.getTrafficStatsTag());
     }
 
+    @Test public void listeners() {
+        final MockRequest request = new MockRequest();
+        final List<String> events = new ArrayList<>();
+        RequestListener.MarkerListener once = new RequestListener.MarkerListener() {
+            @Override
+            public void onMarker(Marker marker, Object... args) {
+                events.add("once-" + marker.name);
+                //removing itself while markers are dispatched
+                request.removeMarkerListener(this);
+            }
+        };
+        RequestListener.MarkerListener always = new RequestListener.MarkerListener() {
+            @Override
+            public void onMarker(Marker marker, Object... args) {
+                events.add(marker.name);
+            }
+        };
+        request.addMarkerListener(once).addMarkerListener(always);
+        request.addMarker("a");
+        request.addMarker("b");
+        request.removeMarkerListener(always);
+        request.addMarker("c");
+        assertEquals(Arrays.asList("once-a", "a", "b"), events);
+
+        events.clear();
+        request.addResponseListener(new RequestListener.ResponseListener<byte[]>() {
+            @Override
+            public void onResponse(byte[] response) {
+                events.add("response");
+            }
+        });
+        request.addErrorListener(new RequestListener.ErrorListener() {
+            @Override
+            public void onError(JusError error) {
+                events.add("error");
+            }
+        });
+        request.addDoneListener(new RequestListener.DoneListener() {
+            @Override
+            public void onDone(Request<?> doneRequest) {
+                events.add("done");
+            }
+        });
+        ImmediateResponseDelivery delivery = new ImmediateResponseDelivery();
+        delivery.postResponse(request, Response.success(new byte[0], null));
+        //listeners are released after the final response
+        delivery.postResponse(request, Response.success(new byte[0], null));
+        request.deliverError(new ServerError(null));
+        assertEquals(Arrays.asList("response", "done"), events);
+    }
+
     private class UrlParseRequest extends Request<Object> {
         public UrlParseRequest(String url) {
             super(Method.GET, url);
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.apptik.comm.jus.error.AuthError;
+import io.apptik.comm.jus.error.ServerError;
+import io.apptik.comm.jus.http.Headers;
+import io.apptik.comm.jus.mock.MockRequest;
+import io.apptik.comm.jus.stack.HttpStack;
+import io.apptik.comm.jus.toolbox.ByteArrayPool;
+import io.apptik.comm.jus.toolbox.HttpNetwork;
+import io.apptik.comm.jus.toolbox.NoCache;
+import io.apptik.comm.jus.utils.ImmediateResponseDelivery;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetrySchedulerTest {
+
+    /**
+     * Fails the first attempts to the given url with the given response.
+     */
+    private static class FlakyHttpStack implements HttpStack {
+        private final String url;
+        private final int failures;
+        private final NetworkResponse failure;
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        FlakyHttpStack(String url, int failures, NetworkResponse failure) {
+            this.url = url;
+            this.failures = failures;
+            this.failure = failure;
+        }
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request, Headers additionalHeaders,
+                                              ByteArrayPool byteArrayPool)
+                throws IOException, AuthError {
+            if (url.equals(request.getUrlString()) && attempts.incrementAndGet() <= failures) {
+                return failure;
+            }
+            return new NetworkResponse(200, new byte[0], new Headers.Builder().build(), 0);
+        }
+    }
+
+    private static NetworkResponse response(int statusCode, String retryAfter) {
+        Headers.Builder headers = new Headers.Builder();
+        if (retryAfter != null) {
+            headers.add("Retry-After", retryAfter);
+        }
+        return new NetworkResponse(statusCode, new byte[0], headers.build(), 0);
+    }
+
+    private static RetryScheduler retryScheduler() {
+        return new RequestQueue(new NoCache(), new HttpNetwork(null))
+                .withScheduledRetries(100, 1000, MILLISECONDS)
+                .getRetryScheduler();
+    }
+
+    @Test
+    public void exponentialBackoffWithJitter() throws Exception {
+        RetryScheduler retryScheduler = retryScheduler();
+        MockRequest request = new MockRequest();
+        DefaultRetryPolicy retryPolicy = new DefaultRetryPolicy(1000, 10, 1f);
+        request.setRetryPolicy(retryPolicy);
+        ServerError error = new ServerError(response(500, null));
+        long maxDelayNs = MILLISECONDS.toNanos(100);
+        for (int i = 1; i <= 6; i++) {
+            retryPolicy.retry(error);
+            for (int j = 0; j < 100; j++) {
+                long delayNs = retryScheduler.getDelayNs(request, error);
+                assertTrue(delayNs >= 0);
+                assertTrue(delayNs <= Math.min(maxDelayNs, MILLISECONDS.toNanos(1000)));
+            }
+            maxDelayNs *= 2;
+        }
+    }
+
+    @Test
+    public void honorRetryAfter() throws Exception {
+        RetryScheduler retryScheduler = retryScheduler();
+        MockRequest request = new MockRequest();
+        assertEquals(0, retryScheduler.getDelayNs(request,
+                new ServerError(response(503, "0"))));
+        //longer than the max delay
+        assertEquals(-1, retryScheduler.getDelayNs(request,
+                new ServerError(response(503, "120"))));
+        assertEquals(-1, retryScheduler.getDelayNs(request,
+                new ServerError(response(429, "Fri, 31 Dec 2100 23:59:59 GMT"))));
+        //only for 429 and 503
+        assertTrue(retryScheduler.getDelayNs(request,
+                new ServerError(response(500, "120"))) <= MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void dispatcherServesOtherRequestsWhileWaiting() throws Exception {
+        FlakyHttpStack stack = new FlakyHttpStack("http://foo.com/flaky", 1,
+                response(503, "1"));
+        RequestQueue queue = new RequestQueue(new NoCache(), new HttpNetwork(stack), 1,
+                new ImmediateResponseDelivery())
+                .withScheduledRetries(10, 5000, MILLISECONDS);
+        queue.start();
+        try {
+            final AtomicInteger scheduled = new AtomicInteger();
+            MockRequest flaky = new MockRequest("http://foo.com/flaky", null);
+            flaky.setRetryPolicy(new DefaultRetryPolicy(1000, 2, 1f));
+            flaky.addMarkerListener(new RequestListener.MarkerListener() {
+                @Override
+                public void onMarker(Marker marker, Object... args) {
+                    if (Request.EVENT_NETWORK_RETRY_SCHEDULED.equals(marker.name)) {
+                        scheduled.incrementAndGet();
+                    }
+                }
+            });
+            RequestFuture<byte[]> flakyFuture = flaky.getFuture();
+            queue.add(flaky);
+            Thread.sleep(100);
+
+            MockRequest other = new MockRequest("http://bar.com/other", null);
+            other.setRetryPolicy(new DefaultRetryPolicy(1000, 2, 1f));
+            RequestFuture<byte[]> otherFuture = other.getFuture();
+            long start = System.nanoTime();
+            queue.add(other);
+            otherFuture.get(5, SECONDS);
+            assertTrue(System.nanoTime() - start < MILLISECONDS.toNanos(500));
+            assertEquals(1, queue.getRetryScheduler().getPendingRetries());
+
+            flakyFuture.get(5, SECONDS);
+            assertEquals(1, scheduled.get());
+        } finally {
+            queue.stop();
+        }
+    }
+
+    @Test
+    public void giveUpWhenRetryPolicyIsExhausted() throws Exception {
+        FlakyHttpStack stack = new FlakyHttpStack("http://foo.com/", Integer.MAX_VALUE,
+                response(500, null));
+        RequestQueue queue = new RequestQueue(new NoCache(), new HttpNetwork(stack), 1,
+                new ImmediateResponseDelivery())
+                .withScheduledRetries(1, 10, MILLISECONDS);
+        queue.start();
+        try {
+            final AtomicLong retries = new AtomicLong();
+            MockRequest request = new MockRequest();
+            request.setRetryPolicy(new DefaultRetryPolicy(1000, 3, 1f));
+            request.addMarkerListener(new RequestListener.MarkerListener() {
+                @Override
+                public void onMarker(Marker marker, Object... args) {
+                    if (Request.EVENT_NETWORK_RETRY.equals(marker.name)) {
+                        retries.incrementAndGet();
+                    }
+                }
+            });
+            RequestFuture<byte[]> future = request.getFuture();
+            queue.add(request);
+            try {
+                future.get(5, SECONDS);
+            } catch (java.util.concurrent.ExecutionException e) {
+                assertTrue(e.getCause() instanceof ServerError);
+            }
+            assertEquals(3, retries.get());
+        } finally {
+            queue.stop();
+        }
+    }
+
+    @Test
+    public void pendingRetriesAreRequeuedOnStop() throws Exception {
+        FlakyHttpStack stack = new FlakyHttpStack("http://foo.com/", 1,
+                response(503, "3"));
+        RequestQueue queue = new RequestQueue(new NoCache(), new HttpNetwork(stack), 1,
+                new ImmediateResponseDelivery())
+                .withScheduledRetries(10, 5000, MILLISECONDS);
+        queue.start();
+        MockRequest request = new MockRequest();
+        request.setRetryPolicy(new DefaultRetryPolicy(1000, 2, 1f));
+        RequestFuture<byte[]> future = request.getFuture();
+        queue.add(request);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (queue.getRetryScheduler().getPendingRetries() == 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, queue.getRetryScheduler().getPendingRetries());
+        //restart, the pending retry goes back to the network queue right away
+        long start = System.nanoTime();
+        queue.start();
+        try {
+            future.get(2, SECONDS);
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        } finally {
+            queue.stop();
+        }
+    }
+}
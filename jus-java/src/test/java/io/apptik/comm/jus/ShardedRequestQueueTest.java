@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.apptik.comm.jus.mock.MockNetwork;
+import io.apptik.comm.jus.mock.MockRequest;
+import io.apptik.comm.jus.toolbox.NoCache;
+import io.apptik.comm.jus.utils.ImmediateResponseDelivery;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedRequestQueueTest {
+
+    private static final ShardedRequestQueue.ShardFactory SHARD_FACTORY =
+            new ShardedRequestQueue.ShardFactory() {
+                @Override
+                public RequestQueue create(int index, Cache cache, Network network) {
+                    return new RequestQueue(cache, network, 1, new ImmediateResponseDelivery());
+                }
+            };
+
+    @Test
+    public void routesByCacheKey() throws Exception {
+        ShardedRequestQueue queue = new ShardedRequestQueue(new NoCache(), new MockNetwork(), 4,
+                SHARD_FACTORY);
+        Set<RequestQueue> used = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            MockRequest request = new MockRequest("http://foo.com/" + i, null);
+            MockRequest duplicate = new MockRequest("http://foo.com/" + i, null);
+            queue.add(request);
+            queue.add(duplicate);
+            assertSame(queue.getShard(request), request.getRequestQueue());
+            assertSame(request.getRequestQueue(), duplicate.getRequestQueue());
+            used.add(request.getRequestQueue());
+        }
+        assertTrue(used.size() > 1);
+        assertEquals(40, queue.getCurrentRequests());
+        //the duplicates are staged behind the first request in its shard
+        assertEquals(20, queue.getWaitingRequests());
+    }
+
+    @Test
+    public void routesByHost() throws Exception {
+        ShardedRequestQueue queue = new ShardedRequestQueue(new NoCache(), new MockNetwork(), 4,
+                SHARD_FACTORY).withRouter(ShardedRequestQueue.Router.BY_HOST);
+        List<MockRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            requests.add(new MockRequest("http://foo.com/" + i, null));
+        }
+        queue.addAll(requests);
+        for (MockRequest request : requests) {
+            assertSame(requests.get(0).getRequestQueue(), request.getRequestQueue());
+        }
+        assertEquals(10, requests.get(0).getRequestQueue().getCurrentRequests());
+    }
+
+    @Test
+    public void cancelAllAcrossShards() throws Exception {
+        ShardedRequestQueue queue = new ShardedRequestQueue(new NoCache(), new MockNetwork(), 4,
+                SHARD_FACTORY);
+        Object tag = new Object();
+        List<MockRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            MockRequest request = new MockRequest("http://foo.com/" + i, null);
+            if (i % 2 == 0) {
+                request.setTag(tag);
+            }
+            requests.add(request);
+        }
+        queue.addAll(requests);
+        queue.cancelAll(tag);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i % 2 == 0, requests.get(i).isCanceled());
+        }
+        queue.cancelAll(new RequestQueue.RequestFilter() {
+            @Override
+            public boolean apply(Request<?> request) {
+                return true;
+            }
+        });
+        for (MockRequest request : requests) {
+            assertTrue(request.isCanceled());
+        }
+    }
+
+    @Test
+    public void deliversFromAllShards() throws Exception {
+        MockNetwork network = new MockNetwork();
+        byte[] dataToReturn = new byte[]{1, 2, 3, 4};
+        network.setDataToReturn(dataToReturn);
+        final AtomicInteger resolved = new AtomicInteger();
+        ShardedRequestQueue queue = new ShardedRequestQueue(new NoCache(), network, 3,
+                SHARD_FACTORY);
+        queue.addConverterFactory(new Converter.Factory() {
+            @Override
+            public Converter<NetworkResponse, ?> fromResponse(Type type,
+                                                              Annotation[] annotations) {
+                resolved.incrementAndGet();
+                return new Converter<NetworkResponse, byte[]>() {
+                    @Override
+                    public byte[] convert(NetworkResponse value) throws IOException {
+                        return value.data;
+                    }
+                };
+            }
+        });
+        queue.start();
+
+        List<RequestFuture<byte[]>> futures = new ArrayList<>();
+        Set<RequestQueue> used = new HashSet<>();
+        for (int i = 0; i < 12; i++) {
+            Request<byte[]> request = new Request<>(Request.Method.GET,
+                    "http://foo.com/" + i, byte[].class);
+            //listen before adding, as the response may be delivered right away
+            futures.add(request.getFuture());
+            queue.add(request);
+            used.add(request.getRequestQueue());
+        }
+        for (RequestFuture<byte[]> future : futures) {
+            assertArrayEquals(dataToReturn, future.get(5, SECONDS));
+        }
+        //the converter factory is registered on every shard, each resolving once
+        assertEquals(used.size(), resolved.get());
+        assertEquals(12, network.getRequestCnt());
+
+        queue.stopWhenDone();
+        assertEquals(0, queue.getCurrentRequests());
+    }
+
+    @Test
+    public void configurationAppliesToAllShards() throws Exception {
+        ShardedRequestQueue queue = new ShardedRequestQueue(new NoCache(), new MockNetwork(), 2,
+                SHARD_FACTORY);
+        MarkerRecorder recorder = new MarkerRecorder();
+        queue.withMarkerRecorder(recorder).withParseThreadPoolSize(2);
+        List<RequestQueue> shards = queue.getShards();
+        assertEquals(2, shards.size());
+        assertNotNull(shards.get(0).getParseExecutor());
+        for (RequestQueue shard : shards) {
+            assertSame(recorder, shard.getMarkerRecorder());
+            //a single parse pool is shared by the shards
+            assertSame(shards.get(0).getParseExecutor(), shard.getParseExecutor());
+        }
+    }
+}
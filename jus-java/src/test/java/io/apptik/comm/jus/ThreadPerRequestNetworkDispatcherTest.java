@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.apptik.comm.jus.error.JusError;
+import io.apptik.comm.jus.http.Headers;
+import io.apptik.comm.jus.mock.MockCache;
+import io.apptik.comm.jus.mock.MockRequest;
+import io.apptik.comm.jus.mock.MockResponseDelivery;
+import io.apptik.comm.jus.mock.WaitableQueue;
+import io.apptik.comm.jus.toolbox.HostPartitionedQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ThreadPerRequestNetworkDispatcherTest {
+    private ThreadPerRequestNetworkDispatcher mDispatcher;
+    private MockResponseDelivery mDelivery;
+    private WaitableQueue mNetworkQueue;
+    private BlockingNetwork mNetwork;
+
+    private static final byte[] CANNED_DATA = "Ceci n'est pas une vraie reponse".getBytes();
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final int MAX_REQUESTS = 2;
+
+    @Before public void setUp() throws Exception {
+        mDelivery = new MockResponseDelivery();
+        mNetworkQueue = new WaitableQueue();
+        mNetwork = new BlockingNetwork();
+        mDispatcher = (ThreadPerRequestNetworkDispatcher)
+                new ThreadPerRequestNetworkDispatcher.ThreadPerRequestNetworkDispatcherFactory(
+                        mNetworkQueue, mNetwork, new MockCache(), mDelivery,
+                        Executors.defaultThreadFactory(), MAX_REQUESTS).create();
+        mDispatcher.start();
+    }
+
+    @After public void tearDown() throws Exception {
+        mDispatcher.quit();
+        mDispatcher.join();
+    }
+
+    @Test public void successPostsResponse() throws Exception {
+        mNetwork.release.countDown();
+        mNetworkQueue.add(new MockRequest());
+        mNetworkQueue.waitUntilEmpty(TIMEOUT_MILLIS);
+        waitForIdle();
+        assertFalse(mDelivery.postError_called);
+        assertTrue(mDelivery.postResponse_called);
+        Response<?> response = mDelivery.responsePosted;
+        assertNotNull(response);
+        assertTrue(Arrays.equals((byte[]) response.result, CANNED_DATA));
+    }
+
+    @Test public void requestsInFlightAreBounded() throws Exception {
+        for (int i = 0; i < MAX_REQUESTS + 1; i++) {
+            MockRequest request = new MockRequest();
+            request.setSequence(i);
+            mNetworkQueue.add(request);
+        }
+        assertTrue(mNetwork.started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        Thread.sleep(200);
+        assertEquals(MAX_REQUESTS, mNetwork.inFlight.get());
+        assertEquals(1, mNetworkQueue.size());
+
+        mNetwork.release.countDown();
+        mNetworkQueue.waitUntilEmpty(TIMEOUT_MILLIS);
+        waitForIdle();
+        assertEquals(MAX_REQUESTS + 1, mNetwork.performed.get());
+    }
+
+    @Test public void quitInterruptsRequestsInFlight() throws Exception {
+        MockRequest request = new MockRequest();
+        mNetworkQueue.add(request);
+        long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (mNetwork.inFlight.get() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        mDispatcher.quit();
+        mDispatcher.join();
+        waitForIdle();
+        assertTrue(mDelivery.postError_called);
+    }
+
+    @Test public void workerStartingAfterQuitRequeuesRequest() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        WaitableQueue queue = new WaitableQueue();
+        ThreadPerRequestNetworkDispatcher dispatcher = gatedDispatcher(queue, gate);
+        dispatcher.start();
+        MockRequest request = new MockRequest();
+        queue.add(request);
+        queue.waitUntilEmpty(TIMEOUT_MILLIS);
+        dispatcher.quit();
+        dispatcher.join();
+        gate.countDown();
+
+        waitForIdle(dispatcher);
+        assertEquals(1, queue.size());
+        assertEquals(request, queue.peek());
+        assertEquals(0, mNetwork.performed.get());
+        assertFalse(mDelivery.postResponse_called);
+        assertFalse(mDelivery.postError_called);
+    }
+
+    @Test public void requeueAfterQuitReleasesInFlightSlot() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        HostPartitionedQueue queue = new HostPartitionedQueue(1);
+        ThreadPerRequestNetworkDispatcher dispatcher = gatedDispatcher(queue, gate);
+        dispatcher.start();
+        MockRequest request = new MockRequest("http://a.com/path", null);
+        request.setSequence(0);
+        queue.add(request);
+        long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (queue.getInFlight("a.com") == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, queue.getInFlight("a.com"));
+        dispatcher.quit();
+        dispatcher.join();
+        gate.countDown();
+
+        waitForIdle(dispatcher);
+        assertEquals(1, queue.size());
+        assertEquals(0, queue.getInFlight("a.com"));
+        assertSame(request, queue.poll());
+        assertEquals(1, queue.getInFlight("a.com"));
+        assertEquals(0, mNetwork.performed.get());
+    }
+
+    /**
+     * @return a dispatcher whose workers wait for the gate before running
+     */
+    private ThreadPerRequestNetworkDispatcher gatedDispatcher(BlockingQueue<Request<?>> queue,
+                                                              final CountDownLatch gate) {
+        return (ThreadPerRequestNetworkDispatcher)
+                new ThreadPerRequestNetworkDispatcher.ThreadPerRequestNetworkDispatcherFactory(
+                        queue, mNetwork, new MockCache(), mDelivery, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    gate.await();
+                                } catch (InterruptedException e) {
+                                    //interrupted by quit
+                                }
+                                r.run();
+                            }
+                        });
+                    }
+                }, MAX_REQUESTS).create();
+    }
+
+    private void waitForIdle() throws InterruptedException {
+        waitForIdle(mDispatcher);
+    }
+
+    private static void waitForIdle(ThreadPerRequestNetworkDispatcher dispatcher)
+            throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (dispatcher.getActiveCount() > 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, dispatcher.getActiveCount());
+    }
+
+    /**
+     * Network blocking until released by the test.
+     */
+    static class BlockingNetwork implements Network {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(MAX_REQUESTS);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger performed = new AtomicInteger();
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws JusError {
+            inFlight.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new JusError(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            performed.incrementAndGet();
+            return new NetworkResponse(200, CANNED_DATA, new Headers.Builder().build(), 0);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus.toolbox;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.apptik.comm.jus.CircuitBreaker;
+import io.apptik.comm.jus.Marker;
+import io.apptik.comm.jus.Network;
+import io.apptik.comm.jus.NetworkResponse;
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.RequestListener;
+import io.apptik.comm.jus.error.JusError;
+import io.apptik.comm.jus.error.ServerError;
+import io.apptik.comm.jus.http.Headers;
+import io.apptik.comm.jus.mock.MockRequest;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HedgingNetworkTest {
+
+    /**
+     * Answers the original request slowly and its clones immediately.
+     */
+    private static class SlowOriginalNetwork implements Network {
+        final Request<?> original;
+        final long slownessMs;
+        final boolean fail;
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch originalInterrupted = new CountDownLatch(1);
+
+        SlowOriginalNetwork(Request<?> original, long slownessMs, boolean fail) {
+            this.original = original;
+            this.slownessMs = slownessMs;
+            this.fail = fail;
+        }
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws JusError {
+            calls.incrementAndGet();
+            if (request == original) {
+                try {
+                    Thread.sleep(slownessMs);
+                } catch (InterruptedException e) {
+                    originalInterrupted.countDown();
+                    throw new JusError(e);
+                }
+            }
+            if (fail) {
+                throw new ServerError(null);
+            }
+            return new NetworkResponse(200, new byte[]{(byte) (request == original ? 1 : 2)},
+                    new Headers.Builder().build(), 0);
+        }
+    }
+
+    /**
+     * Records the requests it was given a permit for.
+     */
+    private static class StubCircuitBreaker implements CircuitBreaker {
+        final State state;
+        final AtomicInteger acquired = new AtomicInteger();
+
+        StubCircuitBreaker(State state) {
+            this.state = state;
+        }
+
+        @Override
+        public boolean tryAcquire(Request<?> request) {
+            acquired.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public void onSuccess(Request<?> request, long durationNs) {
+        }
+
+        @Override
+        public void onError(Request<?> request, JusError error, long durationNs) {
+        }
+
+        @Override
+        public State getState() {
+            return state;
+        }
+    }
+
+    private static CountDownLatch markerLatch(Request<?> request, final String name) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        request.addMarkerListener(new RequestListener.MarkerListener() {
+            @Override
+            public void onMarker(Marker marker, Object... args) {
+                if (name.equals(marker.name)) {
+                    latch.countDown();
+                }
+            }
+        });
+        return latch;
+    }
+
+    @Test
+    public void hedgeWinsOverSlowRequest() throws Exception {
+        MockRequest request = new MockRequest();
+        CountDownLatch hedged = markerLatch(request, Request.EVENT_NETWORK_HEDGE);
+        CountDownLatch hedgeWon = markerLatch(request, Request.EVENT_NETWORK_HEDGE_WON);
+        SlowOriginalNetwork slowNetwork = new SlowOriginalNetwork(request, 5000, false);
+        HedgingNetwork network = new HedgingNetwork(slowNetwork,
+                new HedgingNetwork.FixedHedgePolicy(20, MILLISECONDS));
+
+        long start = System.nanoTime();
+        NetworkResponse response = network.performRequest(request);
+        assertTrue(System.nanoTime() - start < SECONDS.toNanos(2));
+        assertEquals(2, response.data[0]);
+        assertEquals(0, hedged.getCount());
+        assertEquals(0, hedgeWon.getCount());
+        assertEquals(2, slowNetwork.calls.get());
+        //the loser is cancelled
+        assertTrue(slowNetwork.originalInterrupted.await(5, SECONDS));
+    }
+
+    @Test
+    public void noHedgeForFastRequest() throws Exception {
+        MockRequest request = new MockRequest();
+        SlowOriginalNetwork slowNetwork = new SlowOriginalNetwork(request, 0, false);
+        HedgingNetwork network = new HedgingNetwork(slowNetwork,
+                new HedgingNetwork.FixedHedgePolicy(1, SECONDS));
+
+        assertEquals(1, network.performRequest(request).data[0]);
+        assertEquals(1, slowNetwork.calls.get());
+    }
+
+    @Test
+    public void noHedgeForNonIdempotentRequest() throws Exception {
+        Request<String> request =
+                new Request<>(Request.Method.POST, "http://foo.com", String.class);
+        SlowOriginalNetwork slowNetwork = new SlowOriginalNetwork(request, 100, false);
+        HedgingNetwork network = new HedgingNetwork(slowNetwork,
+                new HedgingNetwork.FixedHedgePolicy(10, MILLISECONDS));
+
+        assertEquals(1, network.performRequest(request).data[0]);
+        assertEquals(1, slowNetwork.calls.get());
+    }
+
+    @Test
+    public void hedgeSharesCircuitBreaker() throws Exception {
+        MockRequest request = new MockRequest();
+        StubCircuitBreaker circuitBreaker = new StubCircuitBreaker(CircuitBreaker.State.CLOSED);
+        request.setCircuitBreaker(circuitBreaker);
+        final AtomicInteger withBreaker = new AtomicInteger();
+        SlowOriginalNetwork slowNetwork = new SlowOriginalNetwork(request, 5000, false) {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) throws JusError {
+                if (request.getCircuitBreaker() != null
+                        && request.getCircuitBreaker().tryAcquire(request)) {
+                    withBreaker.incrementAndGet();
+                }
+                return super.performRequest(request);
+            }
+        };
+        HedgingNetwork network = new HedgingNetwork(slowNetwork,
+                new HedgingNetwork.FixedHedgePolicy(20, MILLISECONDS));
+
+        assertEquals(2, network.performRequest(request).data[0]);
+        assertEquals(2, withBreaker.get());
+        assertEquals(2, circuitBreaker.acquired.get());
+    }
+
+    @Test
+    public void noHedgeWhenCircuitNotClosed() throws Exception {
+        MockRequest request = new MockRequest();
+        request.setCircuitBreaker(new StubCircuitBreaker(CircuitBreaker.State.HALF_OPEN));
+        SlowOriginalNetwork slowNetwork = new SlowOriginalNetwork(request, 100, false);
+        HedgingNetwork network = new HedgingNetwork(slowNetwork,
+                new HedgingNetwork.FixedHedgePolicy(10, MILLISECONDS));
+
+        assertEquals(1, network.performRequest(request).data[0]);
+        assertEquals(1, slowNetwork.calls.get());
+    }
+
+    @Test
+    public void errorWhenBothAttemptsFail() throws Exception {
+        MockRequest request = new MockRequest();
+        SlowOriginalNetwork slowNetwork = new SlowOriginalNetwork(request, 100, true);
+        HedgingNetwork network = new HedgingNetwork(slowNetwork,
+                new HedgingNetwork.FixedHedgePolicy(10, MILLISECONDS));
+        try {
+            network.performRequest(request);
+            fail("expected error");
+        } catch (ServerError e) {
+            //expected
+        }
+        assertEquals(2, slowNetwork.calls.get());
+    }
+
+    @Test
+    public void percentileDelayPerHost() throws Exception {
+        HedgingNetwork.PercentileHedgePolicy policy =
+                new HedgingNetwork.PercentileHedgePolicy(0.95, 500, MILLISECONDS);
+        MockRequest foo = new MockRequest("http://foo.com/1", null);
+        MockRequest bar = new MockRequest("http://bar.com/1", null);
+        assertEquals(MILLISECONDS.toNanos(500), policy.getHedgeDelayNs(foo));
+        for (int i = 1; i <= 100; i++) {
+            policy.onResponse(foo, MILLISECONDS.toNanos(i));
+        }
+        assertEquals(MILLISECONDS.toNanos(95), policy.getHedgeDelayNs(foo));
+        assertEquals(MILLISECONDS.toNanos(500), policy.getHedgeDelayNs(bar));
+        //only the latest latencies count
+        for (int i = 0; i < 100; i++) {
+            policy.onResponse(foo, MILLISECONDS.toNanos(10));
+        }
+        assertEquals(MILLISECONDS.toNanos(10), policy.getHedgeDelayNs(foo));
+    }
+}
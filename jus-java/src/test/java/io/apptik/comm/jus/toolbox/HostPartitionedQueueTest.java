@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus.toolbox;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.apptik.comm.jus.Network;
+import io.apptik.comm.jus.NetworkResponse;
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.RequestFuture;
+import io.apptik.comm.jus.RequestQueue;
+import io.apptik.comm.jus.error.JusError;
+import io.apptik.comm.jus.error.NetworkError;
+import io.apptik.comm.jus.error.NoConnectionError;
+import io.apptik.comm.jus.error.RequestError;
+import io.apptik.comm.jus.error.ServerError;
+import io.apptik.comm.jus.error.TimeoutError;
+import io.apptik.comm.jus.http.Headers;
+import io.apptik.comm.jus.mock.MockRequest;
+import io.apptik.comm.jus.utils.ImmediateResponseDelivery;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HostPartitionedQueueTest {
+
+    private int sequence = 0;
+
+    private MockRequest request(String host) {
+        return new SeqRequest("http://" + host + "/path", sequence++);
+    }
+
+    @Test
+    public void maxInFlightPerHost() throws Exception {
+        HostPartitionedQueue queue = new HostPartitionedQueue(1);
+        MockRequest a1 = request("a.com");
+        MockRequest a2 = request("a.com");
+        MockRequest b1 = request("b.com");
+        queue.add(a1);
+        queue.add(a2);
+        queue.add(b1);
+
+        assertSame(a1, queue.poll());
+        assertSame(b1, queue.poll());
+        //a.com is at its limit
+        assertNull(queue.poll());
+        assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.getInFlight("a.com"));
+
+        assertTrue(queue.release(a1));
+        assertFalse(queue.release(a1));
+        assertSame(a2, queue.poll());
+    }
+
+    @Test
+    public void adaptiveMaxInFlight() throws Exception {
+        AimdHostPolicy policy = new AimdHostPolicy(2, 1, 4, 0.5, 1, SECONDS);
+        HostPartitionedQueue queue = new HostPartitionedQueue(policy);
+        MockRequest a1 = request("a.com");
+        MockRequest a2 = request("a.com");
+        MockRequest a3 = request("a.com");
+        queue.add(a1);
+        queue.add(a2);
+        queue.add(a3);
+
+        assertSame(a1, queue.poll());
+        assertSame(a2, queue.poll());
+        assertNull(queue.poll());
+
+        //fast responses raise the limit by one per window
+        for (int i = 0; i < 3; i++) {
+            queue.onNetworkResponse(a1,
+                    new NetworkResponse(200, null, new Headers.Builder().build(), 1000));
+        }
+        assertEquals(3, policy.getLimit("a.com"));
+        assertSame(a3, queue.poll());
+
+        //errors which never reached the network are ignored
+        queue.onNetworkError(a2, new TimeoutError());
+        assertEquals(3, policy.getLimit("a.com"));
+
+        //server errors and slow responses lower it
+        ServerError error = new ServerError(null);
+        error.setNetworkTimeNs(1000);
+        queue.onNetworkError(a2, error);
+        assertEquals(1, policy.getLimit("a.com"));
+        queue.onNetworkResponse(a3,
+                new NetworkResponse(200, null, new Headers.Builder().build(),
+                        SECONDS.toNanos(2)));
+        assertEquals(1, policy.getLimit("a.com"));
+        assertEquals(1, (int) policy.getLimits().get("a.com"));
+        assertEquals(2, policy.getLimit("b.com"));
+    }
+
+    @Test
+    public void aimdHostPolicy() throws Exception {
+        AimdHostPolicy policy = new AimdHostPolicy(4, 1, 16, 0.5, 1, SECONDS);
+        Headers headers = new Headers.Builder().build();
+        long latencyNs = MILLISECONDS.toNanos(100);
+        for (int i = 0; i < 4; i++) {
+            policy.onResponse("a.com", new NetworkResponse(200, null, headers, latencyNs), 4);
+        }
+        assertEquals(4, policy.getLimit("a.com"));
+        policy.onResponse("a.com", new NetworkResponse(200, null, headers, latencyNs), 4);
+        assertEquals(5, policy.getLimit("a.com"));
+
+        //client side errors
+        JusError error = new NoConnectionError();
+        error.setNetworkTimeNs(latencyNs);
+        policy.onError("a.com", error, 4);
+        error = new NetworkError("Unknown host");
+        error.setNetworkTimeNs(latencyNs);
+        policy.onError("a.com", error, 4);
+        assertEquals(5, policy.getLimit("a.com"));
+
+        //once per latency window
+        error = new ServerError(null);
+        error.setNetworkTimeNs(latencyNs);
+        policy.onError("a.com", error, 4);
+        assertEquals(2, policy.getLimit("a.com"));
+        policy.onError("a.com", error, 4);
+        assertEquals(2, policy.getLimit("a.com"));
+        Thread.sleep(300);
+        policy.onError("a.com", error, 4);
+        assertEquals(1, policy.getLimit("a.com"));
+
+        //slow errors count as overload
+        error = new RequestError(new NetworkResponse(404, null, headers, latencyNs));
+        error.setNetworkTimeNs(latencyNs);
+        policy.onError("b.com", error, 4);
+        assertEquals(4, policy.getLimit("b.com"));
+        error.setNetworkTimeNs(SECONDS.toNanos(2));
+        policy.onError("b.com", error, 4);
+        assertEquals(2, policy.getLimit("b.com"));
+    }
+
+    @Test
+    public void roundRobinAcrossHosts() throws Exception {
+        HostPartitionedQueue queue = new HostPartitionedQueue(10);
+        List<Request<?>> a = new ArrayList<>();
+        List<Request<?>> b = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            MockRequest r = request("a.com");
+            a.add(r);
+            queue.add(r);
+        }
+        for (int i = 0; i < 2; i++) {
+            MockRequest r = request("b.com");
+            b.add(r);
+            queue.add(r);
+        }
+
+        assertSame(a.get(0), queue.take());
+        assertSame(b.get(0), queue.take());
+        assertSame(a.get(1), queue.take());
+        assertSame(b.get(1), queue.take());
+        assertSame(a.get(2), queue.take());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void weightedFairAcrossHosts() throws Exception {
+        HostPartitionedQueue queue = new HostPartitionedQueue(
+                new HostPartitionedQueue.SimpleHostPolicy(10).setWeight("a.com", 2));
+        List<Request<?>> a = new ArrayList<>();
+        List<Request<?>> b = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            MockRequest r = request("a.com");
+            a.add(r);
+            queue.add(r);
+        }
+        for (int i = 0; i < 2; i++) {
+            MockRequest r = request("b.com");
+            b.add(r);
+            queue.add(r);
+        }
+
+        assertSame(a.get(0), queue.take());
+        assertSame(a.get(1), queue.take());
+        assertSame(b.get(0), queue.take());
+        assertSame(a.get(2), queue.take());
+        assertSame(a.get(3), queue.take());
+        assertSame(b.get(1), queue.take());
+    }
+
+    @Test
+    public void removePending() throws Exception {
+        HostPartitionedQueue queue = new HostPartitionedQueue(1);
+        MockRequest a1 = request("a.com");
+        MockRequest b1 = request("b.com");
+        queue.add(a1);
+        queue.add(b1);
+        assertTrue(queue.remove(a1));
+        assertFalse(queue.remove(a1));
+        assertEquals(1, queue.size());
+        assertSame(b1, queue.poll());
+        assertEquals(0, queue.getInFlight("a.com"));
+    }
+
+    @Test
+    public void removeCanceled() throws Exception {
+        HostPartitionedQueue queue = new HostPartitionedQueue(1);
+        MockRequest a1 = request("a.com");
+        MockRequest a2 = request("a.com");
+        MockRequest b1 = request("b.com");
+        queue.add(a1);
+        queue.add(a2);
+        queue.add(b1);
+        a2.cancel();
+        b1.cancel();
+        assertFalse(queue.removeCanceled(a1));
+        assertTrue(queue.removeCanceled(a2));
+        assertTrue(queue.removeCanceled(b1));
+        assertFalse(queue.removeCanceled(b1));
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.getPending("a.com"));
+        assertEquals(0, queue.getPending("b.com"));
+        assertSame(a1, queue.poll());
+        assertNull(queue.poll());
+        //taken requests are not pending anymore
+        a1.cancel();
+        assertFalse(queue.removeCanceled(a1));
+        assertTrue(queue.release(a1));
+    }
+
+    @Test
+    public void removedRequestIsReleased() throws Exception {
+        HostPartitionedQueue queue = new HostPartitionedQueue(1);
+        queue.add(request("a.com"));
+        MockRequest canceled = request("a.com");
+        queue.add(canceled);
+        queue.add(request("a.com"));
+        canceled.cancel();
+        assertTrue(queue.removeCanceled(canceled));
+        WeakReference<MockRequest> ref = new WeakReference<>(canceled);
+        canceled = null;
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void slowHostDoesNotStarveOthers() throws Exception {
+        final CountDownLatch slowLatch = new CountDownLatch(1);
+        Network network = new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) throws JusError {
+                if ("slow.com".equals(request.getUrl().host())) {
+                    try {
+                        slowLatch.await();
+                    } catch (InterruptedException e) {
+                        throw new JusError(e);
+                    }
+                }
+                return new NetworkResponse(200, new byte[0], new Headers.Builder().build(), 0);
+            }
+        };
+        HostPartitionedQueue networkQueue = new HostPartitionedQueue(1);
+        RequestQueue queue = new RequestQueue(new NoCache(), network, 2,
+                new ImmediateResponseDelivery())
+                .withNetworkQueue(networkQueue);
+        queue.start();
+        try {
+            List<RequestFuture<byte[]>> slow = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                MockRequest r = new MockRequest("http://slow.com/" + i, null);
+                slow.add(r.getFuture());
+                queue.add(r);
+            }
+            List<RequestFuture<byte[]>> fast = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                MockRequest r = new MockRequest("http://fast.com/" + i, null);
+                fast.add(r.getFuture());
+                queue.add(r);
+            }
+            for (RequestFuture<byte[]> future : fast) {
+                future.get(5, SECONDS);
+            }
+            assertEquals(1, networkQueue.getInFlight("slow.com"));
+            assertEquals(2, networkQueue.getPending("slow.com"));
+
+            slowLatch.countDown();
+            for (RequestFuture<byte[]> future : slow) {
+                future.get(5, SECONDS);
+            }
+            //the slot is released when the request is finished, after the delivery
+            long end = System.currentTimeMillis() + 5000;
+            while (networkQueue.getInFlight("slow.com") > 0
+                    && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, networkQueue.getInFlight("slow.com"));
+        } finally {
+            queue.stop();
+        }
+    }
+
+    private static class SeqRequest extends MockRequest {
+        SeqRequest(String url, int sequence) {
+            super(url, null);
+            setSequence(sequence);
+        }
+    }
+}
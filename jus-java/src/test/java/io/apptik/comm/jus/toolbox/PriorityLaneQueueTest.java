@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2017 AppTik Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.apptik.comm.jus.toolbox;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.apptik.comm.jus.Request;
+import io.apptik.comm.jus.RequestFuture;
+import io.apptik.comm.jus.RequestQueue;
+import io.apptik.comm.jus.mock.MockNetwork;
+import io.apptik.comm.jus.mock.MockRequest;
+import io.apptik.comm.jus.utils.ImmediateResponseDelivery;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityLaneQueueTest {
+
+    private MockRequest request(Request.Priority priority) {
+        MockRequest request = new MockRequest();
+        request.setPriority(priority);
+        return request;
+    }
+
+    @Test
+    public void priorityThenFifo() throws Exception {
+        PriorityLaneQueue queue = new PriorityLaneQueue();
+        MockRequest low = request(Request.Priority.LOW);
+        MockRequest normal1 = request(Request.Priority.NORMAL);
+        MockRequest normal2 = request(Request.Priority.NORMAL);
+        MockRequest immediate = request(Request.Priority.IMMEDIATE);
+        MockRequest high = request(Request.Priority.HIGH);
+        queue.add(low);
+        queue.add(normal1);
+        queue.add(normal2);
+        queue.add(immediate);
+        queue.add(high);
+
+        assertEquals(5, queue.size());
+        assertEquals(2, queue.size(Request.Priority.NORMAL));
+        assertSame(immediate, queue.peek());
+        assertSame(immediate, queue.take());
+        assertSame(high, queue.take());
+        assertSame(normal1, queue.take());
+        assertSame(normal2, queue.poll());
+        assertSame(low, queue.poll(10, TimeUnit.MILLISECONDS));
+        assertNull(queue.poll());
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void addAllWakesTakers() throws Exception {
+        final PriorityLaneQueue queue = new PriorityLaneQueue();
+        final CountDownLatch latch = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        queue.take();
+                        latch.countDown();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }).start();
+        }
+        List<Request<?>> requests = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            requests.add(request(Request.Priority.NORMAL));
+        }
+        assertTrue(queue.addAll(requests));
+        assertTrue(latch.await(5, SECONDS));
+        assertEquals(1, queue.size());
+        assertSame(requests.get(3), queue.poll());
+    }
+
+    @Test
+    public void removeAndIterate() throws Exception {
+        PriorityLaneQueue queue = new PriorityLaneQueue();
+        MockRequest low = request(Request.Priority.LOW);
+        MockRequest high = request(Request.Priority.HIGH);
+        MockRequest normal = request(Request.Priority.NORMAL);
+        queue.add(low);
+        queue.add(high);
+        queue.add(normal);
+
+        List<Request<?>> iterated = new ArrayList<>();
+        for (Request<?> request : queue) {
+            iterated.add(request);
+        }
+        assertEquals(3, iterated.size());
+        assertSame(high, iterated.get(0));
+        assertSame(normal, iterated.get(1));
+        assertSame(low, iterated.get(2));
+
+        assertTrue(queue.remove(normal));
+        assertFalse(queue.remove(normal));
+        assertFalse(queue.contains(normal));
+        assertEquals(2, queue.size());
+        assertSame(high, queue.poll());
+        assertSame(low, queue.poll());
+        //no permit left behind for the removed request
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void peekLowest() throws Exception {
+        PriorityLaneQueue queue = new PriorityLaneQueue();
+        assertNull(queue.peekLowest());
+        MockRequest low1 = request(Request.Priority.LOW);
+        MockRequest low2 = request(Request.Priority.LOW);
+        MockRequest high = request(Request.Priority.HIGH);
+        queue.add(low1);
+        queue.add(high);
+        queue.add(low2);
+
+        assertSame(low2, queue.peekLowest());
+        assertTrue(queue.remove(low2));
+        assertSame(low1, queue.peekLowest());
+        assertSame(high, queue.poll());
+        assertSame(low1, queue.peekLowest());
+        assertSame(low1, queue.poll());
+        assertNull(queue.peekLowest());
+    }
+
+    @Test
+    public void removeCanceled() throws Exception {
+        PriorityLaneQueue queue = new PriorityLaneQueue();
+        List<MockRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            MockRequest request = request(i % 2 == 0 ? Request.Priority.LOW
+                    : Request.Priority.HIGH);
+            requests.add(request);
+            queue.add(request);
+            if (i % 3 == 0) {
+                request.cancel();
+            }
+        }
+        int removed = 0;
+        for (MockRequest request : requests) {
+            if (queue.removeCanceled(request)) {
+                assertTrue(request.isCanceled());
+                removed++;
+            }
+        }
+        assertEquals(4, removed);
+        assertEquals(6, queue.size());
+        assertFalse(queue.removeCanceled(requests.get(0)));
+        //not in this queue
+        MockRequest other = request(Request.Priority.LOW);
+        new PriorityLaneQueue().add(other);
+        other.cancel();
+        assertFalse(queue.removeCanceled(other));
+        for (Request<?> request : queue) {
+            assertFalse(request.isCanceled());
+        }
+        for (int i = 0; i < 6; i++) {
+            assertFalse(queue.poll().isCanceled());
+        }
+        //no permit left behind for the removed requests
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void takeWaitsForOffer() throws Exception {
+        final PriorityLaneQueue queue = new PriorityLaneQueue();
+        final AtomicReference<Request<?>> taken = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        Thread taker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    taken.set(queue.take());
+                    latch.countDown();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        taker.start();
+        Thread.sleep(50);
+        MockRequest request = request(Request.Priority.NORMAL);
+        queue.add(request);
+        assertTrue(latch.await(5, SECONDS));
+        assertSame(request, taken.get());
+    }
+
+    @Test
+    public void concurrentProducersAndConsumers() throws Exception {
+        final PriorityLaneQueue queue = new PriorityLaneQueue();
+        final int producers = 16;
+        final int perProducer = 500;
+        final Map<Request<?>, Boolean> taken =
+                Collections.synchronizedMap(new IdentityHashMap<Request<?>, Boolean>());
+        final CountDownLatch done = new CountDownLatch(producers * perProducer);
+        final Request.Priority[] priorities = Request.Priority.values();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            taken.put(queue.take(), Boolean.TRUE);
+                            done.countDown();
+                        }
+                    } catch (InterruptedException e) {
+                        //done
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < producers; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < perProducer; j++) {
+                        queue.add(request(priorities[j % priorities.length]));
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        assertTrue(done.await(10, SECONDS));
+        assertEquals(producers * perProducer, taken.size());
+        assertEquals(0, queue.size());
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    @Test
+    public void useAsRequestQueues() throws Exception {
+        RequestQueue queue = new RequestQueue(new NoCache(), new MockNetwork(), 2,
+                new ImmediateResponseDelivery())
+                .withCacheQueue(new PriorityLaneQueue())
+                .withNetworkQueue(new PriorityLaneQueue());
+        queue.start();
+        try {
+            List<RequestFuture<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                MockRequest request = new MockRequest();
+                futures.add(request.getFuture());
+                queue.add(request);
+            }
+            for (RequestFuture<byte[]> future : futures) {
+                future.get(5, SECONDS);
+            }
+        } finally {
+            queue.stop();
+        }
+    }
+}
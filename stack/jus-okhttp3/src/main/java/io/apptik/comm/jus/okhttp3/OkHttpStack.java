@@ -25,18 +25,21 @@ import io.apptik.comm.jus.NetworkResponse;
 import io.apptik.comm.jus.Request;
 import io.apptik.comm.jus.http.Headers;
 import io.apptik.comm.jus.stack.AbstractHttpStack;
+import io.apptik.comm.jus.stack.AsyncHttpStack;
 import io.apptik.comm.jus.stack.HttpStack;
 import io.apptik.comm.jus.toolbox.ByteArrayPool;
 import io.apptik.comm.jus.toolbox.PoolingByteArrayOutputStream;
+import okhttp3.Call;
 import okhttp3.OkHttpClient;
 import okhttp3.Response;
 import okio.BufferedSource;
 
 /**
  * An {@link HttpStack} based on {@link okhttp3.OkHttpClient}.
+ * It is also an {@link AsyncHttpStack} using the {@link okhttp3.Dispatcher} of the client.
  */
 
-public class OkHttpStack extends AbstractHttpStack {
+public class OkHttpStack extends AbstractHttpStack implements AsyncHttpStack {
     private final OkHttpClient client;
     private MarkerInterceptorFactory markerInterceptorFactory;
 
@@ -59,7 +62,37 @@ public class OkHttpStack extends AbstractHttpStack {
     @Override
     public NetworkResponse performRequest(Request<?> request, Headers
             additionalHeaders, ByteArrayPool byteArrayPool) throws IOException {
+        long requestStart = System.nanoTime();
+        Response response = newCall(request, additionalHeaders).execute();
+        return toNetworkResponse(request, response, byteArrayPool, requestStart);
+    }
 
+    @Override
+    public void performRequest(final Request<?> request, Headers additionalHeaders,
+                               final ByteArrayPool byteArrayPool, final Callback callback) {
+        final long requestStart = System.nanoTime();
+        newCall(request, additionalHeaders).enqueue(new okhttp3.Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                callback.onFailure(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                NetworkResponse networkResponse;
+                try {
+                    networkResponse = toNetworkResponse(request, response, byteArrayPool,
+                            requestStart);
+                } catch (IOException e) {
+                    callback.onFailure(e);
+                    return;
+                }
+                callback.onResponse(networkResponse);
+            }
+        });
+    }
+
+    private Call newCall(Request<?> request, Headers additionalHeaders) {
         //clone to be able to set timeouts per call
         OkHttpClient.Builder clientBuilder = this.client.newBuilder();
         if (request.getRetryPolicy() != null) {
@@ -80,11 +113,12 @@ public class OkHttpStack extends AbstractHttpStack {
                 .tag(request.getTag())
                 .method(request.getMethod(), JusOk.okBody(request.getNetworkRequest()))
                 .build();
+        return client.newCall(okRequest);
+    }
 
-        long requestStart = System.nanoTime();
-
-        Response response = client.newCall(okRequest).execute();
-
+    private NetworkResponse toNetworkResponse(Request<?> request, Response response,
+                                              ByteArrayPool byteArrayPool, long requestStart)
+            throws IOException {
         byte[] data = null;
         if (NetworkDispatcher.hasResponseBody(request.getMethod(), response.code())) {
             data = getContentBytes(response.body().source(),